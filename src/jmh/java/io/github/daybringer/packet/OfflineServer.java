@@ -0,0 +1,151 @@
+package io.github.daybringer.packet;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Offline stand-in for the Bukkit server, so benchmarks run without a running server.
+ * <p>
+ * Installs a proxy {@link Server} whose logger is a plain JDK logger. By default every thread counts as the
+ * main thread and the scheduler accepts tasks without running them; with a {@link TickLoop} only its thread
+ * is the main thread and synchronous tasks run on it. The vanilla registries the protocol tables are built
+ * from are bootstrapped once. Methods without a stubbed answer return {@code null}, {@code false} or zero.
+ */
+public final class OfflineServer
+{
+    private static final Logger LOGGER = Logger.getLogger("MCProtocol Benchmark");
+
+    private OfflineServer()
+    {
+    }
+
+    /**
+     * Bootstraps the registries and installs the stub server, unless a server is installed already.
+     */
+    public static synchronized void install()
+    {
+        BukkitTask task = stub(BukkitTask.class, Map.of("getTaskId", -1));
+        install(stub(BukkitScheduler.class, Map.of(
+                "runTask", task,
+                "runTaskTimer", task,
+                "runTaskTimerAsynchronously", task)), true);
+    }
+
+    /**
+     * Bootstraps the registries and installs the stub server with a simulated main thread, unless a server
+     * is installed already.
+     * <p>
+     * Only the tick loop's thread counts as the main thread, and the scheduler runs synchronous tasks on it
+     * with the next ticks. Asynchronous tasks are accepted without running them.
+     *
+     * @param mainThread the tick loop standing in for the server thread
+     */
+    public static synchronized void install(TickLoop mainThread)
+    {
+        BukkitTask task = stub(BukkitTask.class, Map.of("getTaskId", -1));
+        install(stub(BukkitScheduler.class, Map.of(
+                "runTask", (Answer) args -> args[1] instanceof Runnable work ? mainThread.schedule(work, -1) : null,
+                "runTaskTimer", (Answer) args -> args[1] instanceof Runnable work ? mainThread.schedule(work, (long) args[3]) : null,
+                "runTaskTimerAsynchronously", task)), (Answer) args -> mainThread.isMainThread());
+    }
+
+    private static void install(BukkitScheduler scheduler, Object primaryThread)
+    {
+        if(Bukkit.getServer() != null)
+            return;
+
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        Bukkit.setServer(stub(Server.class, Map.of(
+                "getLogger", LOGGER,
+                "getName", "Offline",
+                "getVersion", "offline",
+                "getBukkitVersion", "offline",
+                "isPrimaryThread", primaryThread,
+                "getScheduler", scheduler,
+                "getOnlinePlayers", List.of())));
+    }
+
+    /**
+     * @return a stub plugin to schedule tasks for
+     */
+    public static Plugin plugin()
+    {
+        return stub(Plugin.class, Map.of("getName", "MCProtocol", "isEnabled", true));
+    }
+
+    /**
+     * Creates a task handle that cancels with the given action.
+     */
+    static BukkitTask task(Runnable cancel)
+    {
+        return stub(BukkitTask.class, Map.of(
+                "getTaskId", -1,
+                "isSync", true,
+                "cancel", (Answer) args -> {
+                    cancel.run();
+                    return null;
+                }));
+    }
+
+    private static <T> T stub(Class<T> type, Map<String, Object> answers)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Offline" + type.getSimpleName();
+                }
+            }
+            Object answer = answers.get(method.getName());
+            if(answer instanceof Answer computed)
+                return computed.answer(args);
+            if(answer != null)
+                return answer;
+
+            Class<?> returnType = method.getReturnType();
+            if(returnType == boolean.class)
+                return false;
+            if(returnType == int.class)
+                return 0;
+            if(returnType == long.class)
+                return 0L;
+            if(returnType == double.class)
+                return 0D;
+            if(returnType == float.class)
+                return 0F;
+            if(returnType == short.class)
+                return (short) 0;
+            if(returnType == byte.class)
+                return (byte) 0;
+            if(returnType == char.class)
+                return '\0';
+            return null;
+        }));
+    }
+
+    /**
+     * A stubbed answer computed from the arguments of each call.
+     */
+    @FunctionalInterface
+    private interface Answer
+    {
+        Object answer(Object[] args);
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.daybringer.packet;
+
+import io.github.daybringer.packet.utils.PacketPriority;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import net.minecraft.network.Connection;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.common.ClientboundKeepAlivePacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sending one packet to many connections the way {@link PacketSender#sendAll} does for each
+ * recipient, once flushing every write and once through a {@link PacketBatch} that flushes each connection
+ * once at the end.
+ * <p>
+ * {@link PacketSender} resolves its recipients through {@code CraftPlayer}s, which cannot exist without a
+ * running server, so the benchmark starts at the recipients' {@link Connection}s. Each connection is backed
+ * by an {@link EmbeddedChannel} that discards what is written to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SendFanOutBenchmark
+{
+    @Param({"1", "100", "1000"})
+    private int recipients;
+
+    private final ClientboundKeepAlivePacket packet = new ClientboundKeepAlivePacket(42);
+    private Connection[] connections;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        OfflineServer.install();
+        connections = new Connection[recipients];
+        for(int i = 0; i < recipients; i++)
+        {
+            Connection connection = new Connection(PacketFlow.CLIENTBOUND);
+            connection.channel = new EmbeddedChannel(new Discard());
+            connections[i] = connection;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        for(Connection connection : connections)
+            ((EmbeddedChannel) connection.channel).finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void sendFlushingEach()
+    {
+        for(Connection connection : connections)
+            OutboundQueue.send(connection, packet, PacketPriority.NORMAL, null, true);
+    }
+
+    @Benchmark
+    public void sendBatched()
+    {
+        PacketBatch batch = new PacketBatch(false);
+        for(Connection connection : connections)
+            batch.send(connection, packet, PacketPriority.NORMAL, null);
+        batch.flush();
+    }
+
+    /**
+     * Completes every write without passing it to the channel.
+     */
+    private static final class Discard extends ChannelOutboundHandlerAdapter
+    {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+        {
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.daybringer.packet;
+
+import io.github.daybringer.packet.metrics.LatencyHistogram;
+import io.github.daybringer.packet.metrics.LatencySnapshot;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Simulated server thread that ticks every 50 ms like the vanilla server loop.
+ * <p>
+ * Each tick first spends a configurable time on simulated game logic, then runs the tasks scheduled through
+ * the {@link OfflineServer} scheduler that are due. A tick that takes longer than 50 ms delays the next
+ * ones, which then follow back to back until the loop has caught up, as on a lagging server.
+ */
+public final class TickLoop
+{
+    /** Length of one server tick: 50 ms. */
+    public static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ScheduledExecutorService executor;
+    private final Thread thread;
+    private final List<Task> tasks;
+    private final LatencyHistogram tickTimes;
+    private final LongAdder overruns;
+    private volatile long workNanos;
+    private long tick;
+
+    /**
+     * @param workNanos the time each tick spends on simulated game logic
+     */
+    public TickLoop(long workNanos)
+    {
+        Thread[] created = new Thread[1];
+        this.executor = Executors.newSingleThreadScheduledExecutor(work -> {
+            Thread thread = new Thread(work, "Server thread");
+            thread.setDaemon(true);
+            created[0] = thread;
+            return thread;
+        });
+        //Create the thread up front so isMainThread() can compare against it
+        try {
+            executor.submit(() -> { }).get();
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Could not start the tick loop", e);
+        }
+        this.thread = created[0];
+        this.tasks = new CopyOnWriteArrayList<>();
+        this.tickTimes = new LatencyHistogram();
+        this.overruns = new LongAdder();
+        this.workNanos = workNanos;
+    }
+
+    /**
+     * Starts ticking.
+     */
+    public void start()
+    {
+        executor.scheduleAtFixedRate(this::tick, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops ticking. Tasks still scheduled are not run.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return {@code true} if the calling thread is the simulated server thread
+     */
+    public boolean isMainThread()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * @param workNanos the time each tick spends on simulated game logic
+     */
+    public void setWorkNanos(long workNanos)
+    {
+        this.workNanos = workNanos;
+    }
+
+    /**
+     * @return the durations of the ticks since the last reset
+     */
+    public LatencySnapshot getTickTimes()
+    {
+        return tickTimes.snapshot();
+    }
+
+    /**
+     * @return the number of ticks since the last reset that took longer than {@link #TICK_NANOS}
+     */
+    public long getOverruns()
+    {
+        return overruns.sum();
+    }
+
+    public void reset()
+    {
+        tickTimes.reset();
+        overruns.reset();
+    }
+
+    /**
+     * Schedules a task to run with the next tick.
+     *
+     * @param work the task
+     * @param period the period in ticks to repeat the task with, or a negative number to run it once
+     * @return the task's handle
+     */
+    BukkitTask schedule(Runnable work, long period)
+    {
+        Task task = new Task(work, Math.max(1, period), period < 0);
+        tasks.add(task);
+        return OfflineServer.task(() -> tasks.remove(task));
+    }
+
+    private void tick()
+    {
+        long start = System.nanoTime();
+        long current = ++tick;
+
+        //Simulated world, entity and chunk work of the tick
+        long work = workNanos;
+        while(System.nanoTime() - start < work)
+            Thread.onSpinWait();
+
+        for(Task task : tasks)
+        {
+            if(current % task.period != 0)
+                continue;
+            if(task.once)
+                tasks.remove(task);
+            try {
+                task.work.run();
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Error running scheduled task", e);
+            }
+        }
+
+        long duration = System.nanoTime() - start;
+        tickTimes.record(duration);
+        if(duration > TICK_NANOS)
+            overruns.increment();
+    }
+
+    private record Task(Runnable work, long period, boolean once)
+    {
+    }
+}
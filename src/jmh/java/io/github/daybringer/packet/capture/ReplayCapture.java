@@ -0,0 +1,74 @@
+package io.github.daybringer.packet.capture;
+
+import io.github.daybringer.packet.OfflineServer;
+import io.github.daybringer.packet.handle.PacketHandler;
+import io.github.daybringer.packet.listen.Listenable;
+import io.github.daybringer.packet.metrics.HandlerMetricsSnapshot;
+import io.github.daybringer.packet.metrics.LatencySnapshot;
+import io.github.daybringer.packet.metrics.PacketMetrics;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.registries.BuiltInRegistries;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Replays a capture offline through the handlers of the given listener classes and prints how long each
+ * handler took, to compare handler changes against recorded traffic without a running server.
+ * <p>
+ * Takes {@code key=value} arguments: {@code capture}, the capture directory; {@code listeners}, a comma
+ * separated list of {@link Listenable} classes with a no-argument constructor on the class path; and
+ * {@code speed}, either {@code max} (the default) or {@code recorded}. Game packets are decoded with the
+ * built-in registries only, so frames that refer to data driven registry entries may not decode. Run it with
+ * {@code mvn -Pjmh test-compile exec:exec@replay -Dreplay.args="capture=captures listeners=com.example.MyListener"}.
+ */
+public final class ReplayCapture
+{
+    private ReplayCapture()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> values = new HashMap<>();
+        for(String arg : String.join(" ", args).split("\\s+"))
+        {
+            int separator = arg.indexOf('=');
+            if(separator > 0)
+                values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        String capture = values.get("capture");
+        if(capture == null)
+        {
+            System.err.println("Usage: capture=<directory> [listeners=<class>,...] [speed=max|recorded]");
+            System.exit(2);
+            return;
+        }
+
+        OfflineServer.install();
+        PacketHandler handler = new PacketHandler();
+        for(String name : values.getOrDefault("listeners", "").split(","))
+        {
+            if(!name.isBlank())
+                handler.registerPacketListener((Listenable) Class.forName(name.trim()).getDeclaredConstructor().newInstance());
+        }
+
+        PacketReplay replay = new PacketReplay(handler, RegistryAccess.fromRegistryOfRegistries(BuiltInRegistries.REGISTRY));
+        ReplayStats stats = replay.replay(Path.of(capture), "recorded".equals(values.get("speed")));
+
+        System.out.printf(Locale.ROOT, "Replayed %d of %d frames in %.3f s (%d undecodable, %d cancelled, %.3f ms behind at most)%n",
+                stats.replayed(), stats.frames(), stats.elapsedNanos() / 1_000_000_000D, stats.undecodable(),
+                stats.cancelled(), stats.maxLagNanos() / 1_000_000D);
+        for(HandlerMetricsSnapshot metrics : PacketMetrics.get().snapshot().handlersByTotalTime())
+        {
+            LatencySnapshot latency = metrics.latency();
+            System.out.printf(Locale.ROOT, "%-60s %10d calls  total %10.3f ms  p50 %8.3f us  p99 %8.3f us  max %8.3f us%n",
+                    metrics.name(), metrics.invocations(), latency.totalNanos() / 1_000_000D, latency.p50Nanos() / 1_000D,
+                    latency.p99Nanos() / 1_000D, latency.maxNanos() / 1_000D);
+        }
+        //Listener code may have started threads that are not daemons
+        System.exit(0);
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.daybringer.packet.handle;
+
+import net.minecraft.network.PacketListener;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective {@link Method#invoke(Object, Object...)} dispatch that handlers used to go
+ * through with the {@link PacketHandlerInvoker}s created at registration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandlerInvocationBenchmark
+{
+    private final BenchmarkPacket packet = new BenchmarkPacket();
+    private BenchmarkListener listener;
+    private Method voidMethod;
+    private Method booleanMethod;
+    private PacketHandlerInvoker voidInvoker;
+    private PacketHandlerInvoker booleanInvoker;
+
+    @Setup
+    public void setup() throws NoSuchMethodException
+    {
+        listener = new BenchmarkListener();
+        voidMethod = BenchmarkListener.class.getDeclaredMethod("onPacket", BenchmarkPacket.class);
+        booleanMethod = BenchmarkListener.class.getDeclaredMethod("filterPacket", BenchmarkPacket.class);
+        voidMethod.setAccessible(true);
+        booleanMethod.setAccessible(true);
+        voidInvoker = PacketHandlerInvokers.create(listener, voidMethod);
+        booleanInvoker = PacketHandlerInvokers.create(listener, booleanMethod);
+    }
+
+    @Benchmark
+    public Object reflectiveVoid() throws Exception
+    {
+        if(!voidMethod.canAccess(listener))
+            voidMethod.setAccessible(true);
+        return voidMethod.invoke(listener, packet);
+    }
+
+    @Benchmark
+    public boolean reflectiveBoolean() throws Exception
+    {
+        if(!booleanMethod.canAccess(listener))
+            booleanMethod.setAccessible(true);
+        return booleanMethod.invoke(listener, packet) instanceof Boolean bool && bool;
+    }
+
+    @Benchmark
+    public boolean invokerVoid() throws Exception
+    {
+        return voidInvoker.invoke(packet);
+    }
+
+    @Benchmark
+    public boolean invokerBoolean() throws Exception
+    {
+        return booleanInvoker.invoke(packet);
+    }
+
+    static final class BenchmarkListener
+    {
+        private long seen;
+
+        private void onPacket(BenchmarkPacket packet)
+        {
+            seen++;
+        }
+
+        private boolean filterPacket(BenchmarkPacket packet)
+        {
+            return (++seen & 1) == 0;
+        }
+    }
+
+    static final class BenchmarkPacket implements Packet<PacketListener>
+    {
+        @Override
+        public PacketType<? extends Packet<PacketListener>> type()
+        {
+            return null;
+        }
+
+        @Override
+        public void handle(PacketListener listener)
+        {
+        }
+    }
+}
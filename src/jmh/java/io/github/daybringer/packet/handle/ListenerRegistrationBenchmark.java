@@ -0,0 +1,86 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.OfflineServer;
+import io.github.daybringer.packet.listen.Listenable;
+import net.minecraft.network.protocol.common.ServerboundKeepAlivePacket;
+import net.minecraft.network.protocol.game.ServerboundChatPacket;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PacketHandler#registerPacketListener(Listenable)} for many listeners in a row. Every
+ * registration publishes a new registry snapshot, so this is the cost of a plugin registering its
+ * listeners on enable. The handlers are cleared after every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListenerRegistrationBenchmark
+{
+    @Param({"1", "10", "100"})
+    private int listeners;
+
+    private PacketHandler packetHandler;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        OfflineServer.install();
+        packetHandler = new PacketHandler();
+    }
+
+    @TearDown(Level.Invocation)
+    public void clear()
+    {
+        packetHandler.clearHandlers();
+    }
+
+    @Benchmark
+    public PacketHandler registerListeners()
+    {
+        for(int i = 0; i < listeners; i++)
+            packetHandler.registerPacketListener(new MultiPacketListener());
+        return packetHandler;
+    }
+
+    public static final class MultiPacketListener implements Listenable
+    {
+        private long seen;
+
+        @io.github.daybringer.packet.annotations.PacketHandler
+        public void onKeepAlive(ServerboundKeepAlivePacket packet)
+        {
+            seen++;
+        }
+
+        @io.github.daybringer.packet.annotations.PacketHandler
+        public void onChat(ServerboundChatPacket packet)
+        {
+            seen++;
+        }
+
+        //Registered for a supertype, so it lands in the table of every movement packet
+        @io.github.daybringer.packet.annotations.PacketHandler
+        public void onMove(ServerboundMovePlayerPacket packet)
+        {
+            seen++;
+        }
+    }
+}
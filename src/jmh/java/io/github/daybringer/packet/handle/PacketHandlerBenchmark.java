@@ -0,0 +1,92 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.OfflineServer;
+import io.github.daybringer.packet.annotations.PacketCancelHandler;
+import io.github.daybringer.packet.listen.Listenable;
+import io.github.daybringer.packet.metrics.PacketMetrics;
+import net.minecraft.network.protocol.common.ServerboundKeepAlivePacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the main thread dispatch of {@link PacketHandler#callHandlers(net.minecraft.network.protocol.Packet)}
+ * and {@link PacketHandler#callCancelHandlers(net.minecraft.network.protocol.Packet)} with 0, 1 and N handlers
+ * for the packet's type, with and without the metrics and watchdog timing every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketHandlerBenchmark
+{
+    @Param({"0", "1", "8"})
+    private int handlers;
+
+    @Param({"true", "false"})
+    private boolean instrumented;
+
+    private final ServerboundKeepAlivePacket packet = new ServerboundKeepAlivePacket(42);
+    private PacketHandler packetHandler;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        OfflineServer.install();
+        PacketMetrics.get().setEnabled(instrumented);
+        packetHandler = new PacketHandler();
+        packetHandler.getWatchdog().setEnabled(instrumented);
+        for(int i = 0; i < handlers; i++)
+            packetHandler.registerPacketListener(new KeepAliveListener());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        packetHandler.clearHandlers();
+        PacketMetrics.get().setEnabled(true);
+    }
+
+    @Benchmark
+    public boolean callHandlers()
+    {
+        return packetHandler.callHandlers(packet);
+    }
+
+    @Benchmark
+    public boolean callCancelHandlers()
+    {
+        return packetHandler.callCancelHandlers(packet);
+    }
+
+    public static final class KeepAliveListener implements Listenable
+    {
+        private long seen;
+
+        @io.github.daybringer.packet.annotations.PacketHandler
+        public void onKeepAlive(ServerboundKeepAlivePacket packet)
+        {
+            seen++;
+        }
+
+        @PacketCancelHandler
+        public void onKeepAliveCancelled(ServerboundKeepAlivePacket packet)
+        {
+            seen--;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.packet.OfflineServer;
+import io.github.daybringer.packet.annotations.PacketHandler;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import io.github.daybringer.packet.utils.PacketHandlerType;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.network.protocol.common.ServerboundKeepAlivePacket;
+import net.minecraft.network.protocol.common.ServerboundPongPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link PacketListener#channelRead(ChannelHandlerContext, Object)} on an
+ * {@link EmbeddedChannel}, whose event loop is the benchmark thread.
+ * <p>
+ * Synthetic keep-alive packets pass through the listener into a sink that counts them, with 0, 1 and N
+ * {@link PacketHandlerThreading#NETTY} handlers that either pass them or cancel every second one. Pong
+ * packets, which no handler is registered for, measure the pass-through path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChannelReadBenchmark
+{
+    @Param({"0", "1", "8"})
+    private int handlers;
+
+    @Param({"false", "true"})
+    private boolean cancelling;
+
+    private final ServerboundKeepAlivePacket handled = new ServerboundKeepAlivePacket(42);
+    private final ServerboundPongPacket unhandled = new ServerboundPongPacket(42);
+    private final List<Listenable> listeners = new ArrayList<>();
+    private EmbeddedChannel channel;
+    private Sink sink;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        OfflineServer.install();
+        PacketListener listener = PacketListener.get();
+        for(int i = 0; i < handlers; i++)
+        {
+            Listenable handler = cancelling ? new CancellingListener() : new PassingListener();
+            listener.getHandler().registerPacketListener(handler);
+            listeners.add(handler);
+        }
+        sink = new Sink();
+        channel = new EmbeddedChannel(listener, sink);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        listeners.forEach(PacketListener.get().getHandler()::unregisterPacketListener);
+        listeners.clear();
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public long handledPacket()
+    {
+        channel.pipeline().fireChannelRead(handled);
+        return sink.received;
+    }
+
+    @Benchmark
+    public long unhandledPacket()
+    {
+        channel.pipeline().fireChannelRead(unhandled);
+        return sink.received;
+    }
+
+    /**
+     * Stands in for the connection's {@code packet_handler}, consuming every packet it receives.
+     */
+    private static final class Sink extends ChannelInboundHandlerAdapter
+    {
+        private long received;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg)
+        {
+            received++;
+        }
+    }
+
+    public static final class PassingListener implements Listenable
+    {
+        private long seen;
+
+        @PacketHandler(threading = PacketHandlerThreading.NETTY)
+        public void onKeepAlive(ServerboundKeepAlivePacket packet)
+        {
+            seen++;
+        }
+    }
+
+    public static final class CancellingListener implements Listenable
+    {
+        private long seen;
+
+        @PacketHandler(threading = PacketHandlerThreading.NETTY, handlerType = PacketHandlerType.CANCELABLE)
+        public boolean onKeepAlive(ServerboundKeepAlivePacket packet)
+        {
+            return (++seen & 1) == 0;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.daybringer.packet.load;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Measures how long packets of one connection take through the interception layer.
+ * <p>
+ * The {@link #head()} handler sits in front of the {@code PacketListener} and stamps every packet entering the
+ * pipeline, the {@link #tail()} handler stands in for the connection's {@code packet_handler} and takes the
+ * oldest stamp for every packet leaving it. The listener keeps the packets of a connection in order and the
+ * load script never cancels one, so stamps and packets pair up without tagging the packets. Both handlers
+ * run on the connection's event loop, which owns the stamps.
+ */
+final class ForwardProbe
+{
+    private final LoadStats stats;
+    private final boolean flooder;
+    private long[] stamps;
+    private int head;
+    private int size;
+
+    ForwardProbe(LoadStats stats, boolean flooder)
+    {
+        this.stats = stats;
+        this.flooder = flooder;
+        this.stamps = new long[64];
+    }
+
+    ChannelInboundHandlerAdapter head()
+    {
+        return new ChannelInboundHandlerAdapter()
+        {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg)
+            {
+                long start = System.nanoTime();
+                push(start);
+                ctx.fireChannelRead(msg);
+                stats.readTime.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    ChannelInboundHandlerAdapter tail()
+    {
+        return new ChannelInboundHandlerAdapter()
+        {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg)
+            {
+                if(size > 0)
+                    stats.forwarded(msg.getClass(), System.nanoTime() - pop(), flooder);
+            }
+        };
+    }
+
+    /**
+     * @return the number of packets that entered the pipeline but were not passed on yet
+     */
+    int pending()
+    {
+        return size;
+    }
+
+    private void push(long stamp)
+    {
+        if(size == stamps.length)
+        {
+            long[] grown = new long[stamps.length * 2];
+            for(int i = 0; i < size; i++)
+                grown[i] = stamps[(head + i) % stamps.length];
+            stamps = grown;
+            head = 0;
+        }
+        stamps[(head + size++) % stamps.length] = stamp;
+    }
+
+    private long pop()
+    {
+        long stamp = stamps[head];
+        head = (head + 1) % stamps.length;
+        size--;
+        return stamp;
+    }
+}
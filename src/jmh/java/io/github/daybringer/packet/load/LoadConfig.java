@@ -0,0 +1,96 @@
+package io.github.daybringer.packet.load;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load run, parsed from {@code key=value} arguments.
+ *
+ * @param connections the number of simulated player connections
+ * @param eventLoops the number of server event loop threads the connections are spread over
+ * @param warmupSeconds the time traffic runs before measuring starts
+ * @param durationSeconds the time traffic is measured for
+ * @param movesPerSecond the movement packets each connection sends per second
+ * @param chatsPerSecond the chat commands each connection sends per second on average
+ * @param swingsPerSecond the arm swings each connection sends per second on average
+ * @param flooders the number of connections that additionally flood the server once per second
+ * @param floodBurst the number of packets in each flood
+ * @param tickWorkMillis the time each server tick spends on simulated game logic
+ * @param handlerWorkMicros the time each packet handler invocation spends
+ * @param seed the seed of the traffic script
+ * @param report the file the report is written to
+ */
+record LoadConfig(int connections, int eventLoops, int warmupSeconds, int durationSeconds, double movesPerSecond,
+                  double chatsPerSecond, double swingsPerSecond, int flooders, int floodBurst, long tickWorkMillis,
+                  long handlerWorkMicros, long seed, Path report)
+{
+    /**
+     * Parses whitespace separated arguments of the form {@code key=value}, where the key is a component name.
+     * Components without an argument keep their default.
+     *
+     * @param args the command line arguments
+     * @return the settings
+     * @throws IllegalArgumentException if an argument is malformed or names no setting
+     */
+    static LoadConfig parse(String[] args) throws IllegalArgumentException
+    {
+        Map<String, String> values = new HashMap<>();
+        for(String arg : String.join(" ", args).split("\\s+"))
+        {
+            if(arg.isBlank())
+                continue;
+            int separator = arg.indexOf('=');
+            if(separator <= 0)
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            values.put(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+        }
+
+        LoadConfig config = new LoadConfig(
+                intValue(values, "connections", 500),
+                intValue(values, "eventLoops", Runtime.getRuntime().availableProcessors()),
+                intValue(values, "warmupSeconds", 10),
+                intValue(values, "durationSeconds", 30),
+                doubleValue(values, "movesPerSecond", 20),
+                doubleValue(values, "chatsPerSecond", 0.2),
+                doubleValue(values, "swingsPerSecond", 2),
+                intValue(values, "flooders", 5),
+                intValue(values, "floodBurst", 500),
+                intValue(values, "tickWorkMillis", 25),
+                intValue(values, "handlerWorkMicros", 2),
+                intValue(values, "seed", 42),
+                Path.of(values.getOrDefault("report", "target/load-report.md")));
+        values.remove("report");
+        if(!values.isEmpty())
+            throw new IllegalArgumentException("Unknown settings " + values.keySet());
+        if(config.connections <= 0 || config.eventLoops <= 0 || config.durationSeconds <= 0)
+            throw new IllegalArgumentException("connections, eventLoops and durationSeconds must be positive");
+        if(config.flooders > config.connections)
+            throw new IllegalArgumentException("flooders must not exceed connections");
+        return config;
+    }
+
+    private static int intValue(Map<String, String> values, String key, int defaultValue)
+    {
+        String value = values.remove(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(key + " must be a whole number but was " + value, e);
+        }
+    }
+
+    private static double doubleValue(Map<String, String> values, String key, double defaultValue)
+    {
+        String value = values.remove(key);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(key + " must be a number but was " + value, e);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package io.github.daybringer.packet.load;
+
+import io.github.daybringer.packet.OfflineServer;
+import io.github.daybringer.packet.TickLoop;
+import io.github.daybringer.packet.listen.MainThreadDispatcher;
+import io.github.daybringer.packet.listen.PacketListener;
+import io.github.daybringer.packet.metrics.HandlerMetricsSnapshot;
+import io.github.daybringer.packet.metrics.PacketMetrics;
+import io.github.daybringer.packet.metrics.PacketMetricsSnapshot;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ServerboundChatCommandPacket;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import net.minecraft.network.protocol.game.ServerboundSwingPacket;
+import net.minecraft.world.InteractionHand;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives scripted traffic from many simulated player connections through the {@link PacketListener} and
+ * reports what the interception layer costs under load.
+ * <p>
+ * Every connection is a pair of in-process Netty {@link LocalChannel}s. The server side runs the listener
+ * on a pool of event loops between a {@link ForwardProbe} and a sink standing in for the connection's
+ * {@code packet_handler}; the main thread is a {@link TickLoop} with simulated game logic. Each tick every
+ * connection sends movement, occasional chat commands and arm swings to the {@link LoadListener}'s
+ * handlers, spread over the tick, and a few connections flood the server once per second.
+ * <p>
+ * After a warmup the run measures the forward latency of packets through the listener, the event loop time
+ * per read and the lag of the event loops, the main thread handoff delay and tick times, and the allocation
+ * rate of the whole process including the simulated clients. Run it with
+ * {@code mvn -Pjmh test-compile exec:exec@load -Dload.args="connections=1000 durationSeconds=60"}; see
+ * {@link LoadConfig} for all settings.
+ */
+public final class LoadHarness
+{
+    /** Number of groups the connections are split into, each sending at a different point of the tick. */
+    private static final int SLICES = 10;
+    private static final long LAG_PROBE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final List<Class<? extends Packet<?>>> PACKET_TYPES = List.of(
+            ServerboundMovePlayerPacket.Pos.class, ServerboundChatCommandPacket.class, ServerboundSwingPacket.class);
+
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final List<Channel> clients;
+    private final ConcurrentLinkedQueue<ForwardProbe> probes;
+    private final SplittableRandom random;
+    private final AtomicInteger maxQueueDepth;
+    private long slice;
+
+    private LoadHarness(LoadConfig config)
+    {
+        this.config = config;
+        this.stats = new LoadStats(PACKET_TYPES);
+        this.clients = new ArrayList<>();
+        this.probes = new ConcurrentLinkedQueue<>();
+        this.random = new SplittableRandom(config.seed());
+        this.maxQueueDepth = new AtomicInteger();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        LoadConfig config;
+        try {
+            config = LoadConfig.parse(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        new LoadHarness(config).run();
+        //The listener's handler threads are not daemons and live as long as the listener
+        System.exit(0);
+    }
+
+    private void run() throws Exception
+    {
+        TickLoop tickLoop = new TickLoop(TimeUnit.MILLISECONDS.toNanos(config.tickWorkMillis()));
+        OfflineServer.install(tickLoop);
+        tickLoop.start();
+
+        PacketListener listener = PacketListener.get();
+        MainThreadDispatcher dispatcher = listener.getMainThreadDispatcher();
+        dispatcher.start(OfflineServer.plugin());
+        LoadListener handlers = new LoadListener(TimeUnit.MICROSECONDS.toNanos(config.handlerWorkMicros()));
+        listener.getHandler().registerPacketListener(handlers);
+
+        EventLoopGroup boss = new DefaultEventLoopGroup(1, new DefaultThreadFactory("Load Server Boss", true));
+        EventLoopGroup workers = new DefaultEventLoopGroup(config.eventLoops(), new DefaultThreadFactory("Netty Server IO", true));
+        EventLoopGroup clientLoops = new DefaultEventLoopGroup(Math.max(1, config.eventLoops() / 2), new DefaultThreadFactory("Load Client", true));
+        ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("Load Driver", true));
+        try {
+            LocalAddress address = new LocalAddress("mcprotocol-load");
+            new ServerBootstrap()
+                    .group(boss, workers)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInitializer<LocalChannel>()
+                    {
+                        @Override
+                        protected void initChannel(LocalChannel channel)
+                        {
+                            String id = ((LocalAddress) channel.remoteAddress()).id();
+                            ForwardProbe probe = new ForwardProbe(stats, id.startsWith("flooder-"));
+                            probes.add(probe);
+                            channel.pipeline()
+                                    .addLast("mcprotocol_load_probe", probe.head())
+                                    .addLast("mcprotocol_listener", listener)
+                                    .addLast("packet_handler", probe.tail());
+                        }
+                    })
+                    .bind(address).sync();
+
+            Bootstrap client = new Bootstrap()
+                    .group(clientLoops)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInitializer<LocalChannel>()
+                    {
+                        @Override
+                        protected void initChannel(LocalChannel channel)
+                        {
+                            //Clients only send; the server never writes back
+                        }
+                    });
+            for(int i = 0; i < config.connections(); i++)
+            {
+                String id = (i < config.flooders() ? "flooder-" : "player-") + i;
+                clients.add(client.connect(address, new LocalAddress(id)).sync().channel());
+            }
+            for(EventExecutor executor : workers)
+                probeLag(executor);
+
+            long slicePeriod = TickLoop.TICK_NANOS / SLICES;
+            driver.scheduleAtFixedRate(() -> sendSlice(dispatcher), slicePeriod, slicePeriod, TimeUnit.NANOSECONDS);
+            if(config.flooders() > 0)
+                driver.scheduleAtFixedRate(this::flood, 1, 1, TimeUnit.SECONDS);
+
+            System.out.println("Warming up " + config.connections() + " connections for " + config.warmupSeconds() + "s");
+            TimeUnit.SECONDS.sleep(config.warmupSeconds());
+
+            stats.reset();
+            tickLoop.reset();
+            PacketMetrics.get().reset();
+            maxQueueDepth.set(0);
+            long allocated = allocatedBytes();
+            long[] gc = gc();
+            long start = System.nanoTime();
+            System.out.println("Measuring for " + config.durationSeconds() + "s");
+            TimeUnit.SECONDS.sleep(config.durationSeconds());
+
+            double seconds = (System.nanoTime() - start) / 1_000_000_000D;
+            long allocatedDuring = allocated < 0 ? -1 : allocatedBytes() - allocated;
+            long[] gcDuring = gc();
+            LoadReport report = report(seconds, allocatedDuring, gcDuring[0] - gc[0], gcDuring[1] - gc[1], tickLoop, dispatcher);
+
+            driver.shutdownNow();
+            //Let the held packets drain before counting what is left
+            TimeUnit.SECONDS.sleep(2);
+            report.section("After the run").value("Packets still held 2s after the traffic stopped", probes.stream().mapToInt(ForwardProbe::pending).sum());
+
+            System.out.println(report);
+            report.write(config.report());
+            System.out.println("Report written to " + config.report().toAbsolutePath());
+        }
+        finally
+        {
+            driver.shutdownNow();
+            clients.forEach(Channel::close);
+            listener.getHandler().unregisterPacketListener(handlers);
+            clientLoops.shutdownGracefully().syncUninterruptibly();
+            workers.shutdownGracefully().syncUninterruptibly();
+            boss.shutdownGracefully().syncUninterruptibly();
+            tickLoop.shutdown();
+        }
+    }
+
+    /**
+     * Sends the traffic of one tick for one slice of the connections.
+     */
+    private void sendSlice(MainThreadDispatcher dispatcher)
+    {
+        int offset = (int) (slice++ % SLICES);
+        for(int i = offset; i < clients.size(); i += SLICES)
+        {
+            Channel channel = clients.get(i);
+            int sent = 0;
+            for(int n = perTick(config.movesPerSecond()); n > 0; n--, sent++)
+                channel.write(new ServerboundMovePlayerPacket.Pos(random.nextDouble(-1000, 1000), 64,
+                        random.nextDouble(-1000, 1000), true, false));
+            for(int n = perTick(config.chatsPerSecond()); n > 0; n--, sent++)
+                channel.write(new ServerboundChatCommandPacket("me is under load"));
+            for(int n = perTick(config.swingsPerSecond()); n > 0; n--, sent++)
+                channel.write(new ServerboundSwingPacket(InteractionHand.MAIN_HAND));
+            if(sent > 0)
+                channel.flush();
+            stats.sent.add(sent);
+        }
+        maxQueueDepth.accumulateAndGet(dispatcher.getQueueDepth(), Math::max);
+    }
+
+    /**
+     * Sends a burst of arm swings from every flooding connection.
+     */
+    private void flood()
+    {
+        for(int i = 0; i < config.flooders(); i++)
+        {
+            Channel channel = clients.get(i);
+            for(int n = 0; n < config.floodBurst(); n++)
+                channel.write(new ServerboundSwingPacket(InteractionHand.MAIN_HAND));
+            channel.flush();
+            stats.sent.add(config.floodBurst());
+        }
+    }
+
+    /**
+     * @return the number of packets to send this tick for the given rate, rounding randomly
+     */
+    private int perTick(double perSecond)
+    {
+        double perTick = perSecond * TickLoop.TICK_NANOS / 1_000_000_000D;
+        int whole = (int) perTick;
+        return whole + (random.nextDouble() < perTick - whole ? 1 : 0);
+    }
+
+    /**
+     * Records how late a periodic task runs on an event loop, which is the time the loop was blocked.
+     */
+    private void probeLag(EventExecutor executor)
+    {
+        long[] expected = {System.nanoTime() + LAG_PROBE_NANOS};
+        executor.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            stats.eventLoopLag.record(Math.max(0, now - expected[0]));
+            expected[0] += LAG_PROBE_NANOS;
+        }, LAG_PROBE_NANOS, LAG_PROBE_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    private LoadReport report(double seconds, long allocated, long gcCount, long gcMillis, TickLoop tickLoop, MainThreadDispatcher dispatcher)
+    {
+        PacketMetricsSnapshot metrics = PacketMetrics.get().snapshot();
+        LoadReport report = new LoadReport("Packet interception load report");
+
+        report.section("Setup")
+                .value("Connections", config.connections() + " (" + config.flooders() + " flooding "
+                        + config.floodBurst() + " packets per second)")
+                .value("Event loops", config.eventLoops())
+                .value("Traffic per connection", config.movesPerSecond() + " moves, " + config.chatsPerSecond()
+                        + " chat commands, " + config.swingsPerSecond() + " swings per second")
+                .value("Simulated work", config.tickWorkMillis() + " ms per tick, "
+                        + config.handlerWorkMicros() + " microseconds per handler call")
+                .value("Measured", String.format(Locale.ROOT, "%.1f s after %d s warmup", seconds, config.warmupSeconds()));
+
+        report.section("Throughput")
+                .value("Sent", LoadReport.rate(stats.sent.sum() / seconds, "packets"))
+                .value("Passed through the listener", LoadReport.rate(stats.received.sum() / seconds, "packets"))
+                .value("Cancelled by the listener", metrics.total().cancelled());
+
+        report.section("Forward latency through the listener");
+        report.latency("all packets", stats.forwarded.snapshot());
+        report.latency("non-flooding connections", stats.bystanders.snapshot());
+        stats.forwardedByType.forEach((type, histogram) -> report.latency(type.getSimpleName(), histogram.snapshot()));
+
+        report.section("Event loops");
+        report.latency("time per read", stats.readTime.snapshot());
+        report.latency("lag of a " + LoadReport.millis(LAG_PROBE_NANOS) + " timer", stats.eventLoopLag.snapshot());
+
+        report.section("Main thread");
+        report.latency("handoff delay", metrics.mainThreadDelay());
+        report.latency("tick time", tickLoop.getTickTimes());
+        report.value("Ticks over " + LoadReport.millis(TickLoop.TICK_NANOS), tickLoop.getOverruns())
+                .value("Largest handoff queue", maxQueueDepth.get())
+                .value("Drain budget per tick", LoadReport.millis(dispatcher.getTickBudgetNanos()));
+
+        report.section("Handlers by total time");
+        for(HandlerMetricsSnapshot handler : metrics.handlersByTotalTime())
+            report.latency(handler.name() + " (" + handler.threading() + ")", handler.latency());
+
+        report.section("Allocation and GC")
+                .value("Allocation rate", allocated < 0 ? "not supported by this JVM"
+                        : LoadReport.rate(allocated / seconds / (1024 * 1024), "MiB"))
+                .value("Collections", gcCount + " taking " + gcMillis + " ms");
+        return report;
+    }
+
+    /**
+     * @return the bytes allocated by all live threads so far, or {@code -1} if the JVM does not tell
+     */
+    private static long allocatedBytes()
+    {
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+            return threads.getTotalThreadAllocatedBytes();
+        return -1;
+    }
+
+    /**
+     * @return the number of collections and the milliseconds spent collecting so far
+     */
+    private static long[] gc()
+    {
+        long[] gc = new long[2];
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gc[0] += Math.max(0, collector.getCollectionCount());
+            gc[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return gc;
+    }
+}
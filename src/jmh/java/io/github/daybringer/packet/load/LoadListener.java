@@ -0,0 +1,56 @@
+package io.github.daybringer.packet.load;
+
+import io.github.daybringer.packet.annotations.PacketHandler;
+import io.github.daybringer.packet.listen.Listenable;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import io.github.daybringer.packet.utils.PacketHandlerType;
+import net.minecraft.network.protocol.game.ServerboundChatCommandPacket;
+import net.minecraft.network.protocol.game.ServerboundMovePlayerPacket;
+import net.minecraft.network.protocol.game.ServerboundSwingPacket;
+
+/**
+ * Handlers a typical plugin registers, each spending a fixed time per invocation: a movement check on the
+ * event loop with a coalesced movement handler on the main thread, a chat command filter that decides on the
+ * main thread and an asynchronous interaction logger. None of them cancels a packet.
+ */
+public final class LoadListener implements Listenable
+{
+    private final long workNanos;
+
+    LoadListener(long workNanos)
+    {
+        this.workNanos = workNanos;
+    }
+
+    @PacketHandler(threading = PacketHandlerThreading.NETTY)
+    public void checkMovement(ServerboundMovePlayerPacket packet)
+    {
+        work();
+    }
+
+    @PacketHandler(coalesce = true)
+    public void trackMovement(ServerboundMovePlayerPacket packet)
+    {
+        work();
+    }
+
+    @PacketHandler(handlerType = PacketHandlerType.CANCELABLE)
+    public boolean filterCommand(ServerboundChatCommandPacket packet)
+    {
+        work();
+        return false;
+    }
+
+    @PacketHandler(threading = PacketHandlerThreading.ASYNC)
+    public void logSwing(ServerboundSwingPacket packet)
+    {
+        work();
+    }
+
+    private void work()
+    {
+        long start = System.nanoTime();
+        while(System.nanoTime() - start < workNanos)
+            Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.daybringer.packet.load;
+
+import io.github.daybringer.packet.metrics.LatencySnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Markdown report of a load run, with durations in milliseconds.
+ */
+final class LoadReport
+{
+    private final StringBuilder text;
+    private boolean inTable;
+
+    LoadReport(String title)
+    {
+        this.text = new StringBuilder("# ").append(title).append("\n");
+    }
+
+    LoadReport section(String title)
+    {
+        inTable = false;
+        text.append("\n## ").append(title).append("\n\n");
+        return this;
+    }
+
+    LoadReport value(String name, Object value)
+    {
+        endTable();
+        text.append("- ").append(name).append(": ").append(value).append("\n");
+        return this;
+    }
+
+    /**
+     * Adds a row to the latency table of the current section, starting the table with its first row.
+     */
+    LoadReport latency(String name, LatencySnapshot latency)
+    {
+        if(!inTable)
+        {
+            text.append("| | count | mean | p50 | p99 | max |\n|---|---:|---:|---:|---:|---:|\n");
+            inTable = true;
+        }
+        text.append("| ").append(name)
+                .append(" | ").append(latency.count())
+                .append(" | ").append(millis(Math.round(latency.meanNanos())))
+                .append(" | ").append(millis(latency.p50Nanos()))
+                .append(" | ").append(millis(latency.p99Nanos()))
+                .append(" | ").append(millis(latency.maxNanos()))
+                .append(" |\n");
+        return this;
+    }
+
+    void write(Path file) throws IOException
+    {
+        Path parent = file.toAbsolutePath().getParent();
+        if(parent != null)
+            Files.createDirectories(parent);
+        Files.writeString(file, toString());
+    }
+
+    static String millis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3f ms", nanos / 1_000_000D);
+    }
+
+    static String rate(double perSecond, String unit)
+    {
+        return String.format(Locale.ROOT, "%.1f %s/s", perSecond, unit);
+    }
+
+    private void endTable()
+    {
+        if(inTable)
+            text.append("\n");
+        inTable = false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return text.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.daybringer.packet.load;
+
+import io.github.daybringer.packet.metrics.LatencyHistogram;
+import net.minecraft.network.protocol.Packet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements of a load run that the library's own metrics do not cover, recorded from the event loops.
+ */
+final class LoadStats
+{
+    final LatencyHistogram forwarded;
+    final LatencyHistogram bystanders;
+    final Map<Class<?>, LatencyHistogram> forwardedByType;
+    final LatencyHistogram readTime;
+    final LatencyHistogram eventLoopLag;
+    final LongAdder sent;
+    final LongAdder received;
+
+    /**
+     * @param packetTypes the packet classes to keep separate forward latencies for
+     */
+    LoadStats(List<Class<? extends Packet<?>>> packetTypes)
+    {
+        this.forwarded = new LatencyHistogram();
+        this.bystanders = new LatencyHistogram();
+        this.forwardedByType = new LinkedHashMap<>();
+        for(Class<? extends Packet<?>> packetType : packetTypes)
+            forwardedByType.put(packetType, new LatencyHistogram());
+        this.readTime = new LatencyHistogram();
+        this.eventLoopLag = new LatencyHistogram();
+        this.sent = new LongAdder();
+        this.received = new LongAdder();
+    }
+
+    /**
+     * Records the time from a packet entering the connection's pipeline until it was passed to the server.
+     *
+     * @param packetType the class of the packet
+     * @param nanos the forward latency
+     * @param flooder whether the packet came from a flooding connection
+     */
+    void forwarded(Class<?> packetType, long nanos, boolean flooder)
+    {
+        forwarded.record(nanos);
+        if(!flooder)
+            bystanders.record(nanos);
+        LatencyHistogram byType = forwardedByType.get(packetType);
+        if(byType != null)
+            byType.record(nanos);
+        received.increment();
+    }
+
+    void reset()
+    {
+        forwarded.reset();
+        bystanders.reset();
+        forwardedByType.values().forEach(LatencyHistogram::reset);
+        readTime.reset();
+        eventLoopLag.reset();
+        sent.reset();
+        received.reset();
+    }
+}
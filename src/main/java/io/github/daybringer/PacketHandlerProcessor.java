@@ -1,6 +1,10 @@
 package io.github.daybringer;
 
+import io.github.daybringer.packet.annotations.PacketCancelHandler;
 import io.github.daybringer.packet.annotations.PacketHandler;
+import io.github.daybringer.packet.handle.PacketListenerDispatcher;
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
 import io.github.daybringer.packet.utils.PacketHandlerType;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -11,33 +15,321 @@ import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-@SupportedAnnotationTypes("io.github.daybringer.packet.annotations.PacketHandler")
+/**
+ * Validates packet handler methods and generates a {@link PacketListenerDispatcher} for every class declaring them.
+ * <p>
+ * Handlers that registration would drop at runtime (wrong parameter count, non-packet parameters,
+ * cancelable handlers not returning a boolean, clientbound handlers dropping or replacing packets off the
+ * event loop, serverbound handlers returning a packet, coalescing handlers that are not plain main thread
+ * handlers, futures of anything but a serverbound cancellation result, monitor handlers that could change
+ * the outcome) are reported as compile errors.
+ * Every generated handler is also recorded in the {@value PacketListenerDispatcher#INDEX_RESOURCE} index.
+ * The index of an earlier compilation is merged in, so incremental builds keep the entries of listeners
+ * that were not recompiled.
+ */
+@SupportedAnnotationTypes({
+        "io.github.daybringer.packet.annotations.PacketHandler",
+        "io.github.daybringer.packet.annotations.PacketCancelHandler"
+})
 @SupportedSourceVersion(SourceVersion.RELEASE_21)
 public class PacketHandlerProcessor extends AbstractProcessor
 {
+    private static final String PACKET_TYPE = "net.minecraft.network.protocol.Packet";
+    private static final String FUTURE_TYPE = "java.util.concurrent.CompletableFuture";
+
+    private final List<String> indexLines = new ArrayList<>();
+    private final Set<String> processedListeners = new HashSet<>();
+
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-        for (Element element : roundEnv.getElementsAnnotatedWith(PacketHandler.class)) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return true;
+        }
+
+        Map<TypeElement, List<ExecutableElement>> listeners = new LinkedHashMap<>();
+        collect(roundEnv.getElementsAnnotatedWith(PacketHandler.class), listeners);
+        collect(roundEnv.getElementsAnnotatedWith(PacketCancelHandler.class), listeners);
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> listener : listeners.entrySet()) {
+            processedListeners.add(processingEnv.getElementUtils().getBinaryName(listener.getKey()).toString());
+            generateDispatcher(listener.getKey(), listener.getValue());
+        }
+        return true;
+    }
+
+    private void collect(Set<? extends Element> elements, Map<TypeElement, List<ExecutableElement>> listeners) {
+        for (Element element : elements) {
             if (element.getKind() != ElementKind.METHOD) continue;
 
             ExecutableElement method = (ExecutableElement) element;
-            PacketHandler annotation = method.getAnnotation(PacketHandler.class);
-
-            if (annotation.handlerType() == PacketHandlerType.CANCELABLE) {
-                if (!method.getReturnType().toString().equals("boolean") &&
-                        !method.getReturnType().toString().equals("java.lang.Boolean")) {
-                    processingEnv.getMessager().printMessage(
-                            Diagnostic.Kind.ERROR,
-                            "PacketHandler with handlerType = CANCELABLE must return boolean",
-                            method
-                    );
+            if (!validate(method)) continue;
+
+            List<ExecutableElement> methods = listeners.computeIfAbsent((TypeElement) method.getEnclosingElement(), k -> new ArrayList<>());
+            if (!methods.contains(method))
+                methods.add(method);
+        }
+    }
+
+    private boolean validate(ExecutableElement method) {
+        boolean valid = true;
+        PacketHandler annotation = method.getAnnotation(PacketHandler.class);
+
+        if (annotation != null && annotation.handlerType() == PacketHandlerType.CANCELABLE) {
+            if (!returnsResult(method) && !returnsFuture(method)) {
+                error("PacketHandler with handlerType = CANCELABLE must return boolean or CompletableFuture<Boolean>", method);
+                valid = false;
+            }
+        }
+
+        if (method.getParameters().size() != 1) {
+            error("Packet handler must take exactly one parameter", method);
+            return false;
+        }
+
+        TypeMirror parameter = method.getParameters().get(0).asType();
+        TypeElement packet = processingEnv.getElementUtils().getTypeElement(PACKET_TYPE);
+        if (parameter.getKind() != TypeKind.DECLARED) {
+            error("Packet handler parameter must be a " + PACKET_TYPE, method);
+            return false;
+        }
+        if (packet != null && !processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(parameter),
+                processingEnv.getTypeUtils().erasure(packet.asType()))) {
+            error("Packet handler parameter must be a " + PACKET_TYPE, method);
+            return false;
+        }
+        boolean cancelHandler = method.getAnnotation(PacketCancelHandler.class) != null;
+        boolean replacing = returnsPacket(method);
+        if (processingEnv.getTypeUtils().asElement(parameter).getSimpleName().toString().startsWith("Clientbound")) {
+            boolean dropping = !cancelHandler && (replacing || annotation.handlerType() == PacketHandlerType.CANCELABLE);
+            if (dropping && threading(method) != PacketHandlerThreading.NETTY) {
+                error("Packet handler can only drop or replace clientbound packets with threading = NETTY", method);
+                valid = false;
+            }
+        } else if (replacing) {
+            error("Packet handler can only replace clientbound packets", method);
+            valid = false;
+        }
+        if (replacing && cancelHandler) {
+            error("Packet cancel handler cannot replace packets", method);
+            valid = false;
+        }
+        if (returnsFuture(method) && (cancelHandler || processingEnv.getTypeUtils().asElement(parameter).getSimpleName().toString().startsWith("Clientbound"))) {
+            error("Packet handler can only return CompletableFuture<Boolean> for serverbound packets", method);
+            valid = false;
+        } else if (isFuture(method) && !returnsFuture(method)) {
+            error("Packet handler returning a CompletableFuture must return CompletableFuture<Boolean>", method);
+            valid = false;
+        }
+        if (annotation != null && !cancelHandler && annotation.priority() == PacketHandlerPriority.MONITOR
+                && (annotation.handlerType() != PacketHandlerType.NORMAL || method.getReturnType().getKind() != TypeKind.VOID)) {
+            error("Packet handler with priority = MONITOR must be a NORMAL handler returning void", method);
+            valid = false;
+        }
+        if (coalesces(method) && (annotation.threading() != PacketHandlerThreading.MAIN
+                || annotation.handlerType() != PacketHandlerType.NORMAL
+                || method.getReturnType().getKind() != TypeKind.VOID
+                || processingEnv.getTypeUtils().asElement(parameter).getSimpleName().toString().startsWith("Clientbound"))) {
+            error("Packet handler with coalesce = true must be a NORMAL handler with threading = MAIN returning void for a serverbound packet", method);
+            valid = false;
+        }
+        return valid;
+    }
+
+    private void generateDispatcher(TypeElement listener, List<ExecutableElement> methods) {
+        if (!isAccessibleFromPackage(listener)) {
+            note("Not generating a packet dispatcher for " + listener + ": the class or one of its handlers is private, it is registered through reflection", listener);
+            return;
+        }
+
+        String listenerBinaryName = processingEnv.getElementUtils().getBinaryName(listener).toString();
+        String dispatcherName = PacketListenerDispatcher.dispatcherClassName(listenerBinaryName);
+        String packageName = processingEnv.getElementUtils().getPackageOf(listener).getQualifiedName().toString();
+        String simpleName = dispatcherName.substring(dispatcherName.lastIndexOf('.') + 1);
+        String listenerType = processingEnv.getTypeUtils().erasure(listener.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("@javax.annotation.processing.Generated(\"").append(PacketHandlerProcessor.class.getName()).append("\")\n")
+                .append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n")
+                .append("public final class ").append(simpleName)
+                .append(" implements io.github.daybringer.packet.handle.PacketListenerDispatcher<").append(listenerType).append(">\n{\n")
+                .append("    @Override\n")
+                .append("    public void register(").append(listenerType).append(" listener, io.github.daybringer.packet.handle.PacketListenerDispatcher.Registrar registrar)\n    {\n");
+
+        for (ExecutableElement method : methods) {
+            boolean cancelHandler = method.getAnnotation(PacketCancelHandler.class) != null;
+            String threading = threading(method).name();
+            TypeMirror parameter = processingEnv.getTypeUtils().erasure(method.getParameters().get(0).asType());
+            TypeElement packetElement = (TypeElement) processingEnv.getTypeUtils().asElement(parameter);
+            String receiver = method.getModifiers().contains(Modifier.STATIC) ? listenerType : "listener";
+            String call = receiver + "." + method.getSimpleName() + "((" + parameter + ") packet)";
+            boolean returnsResult = returnsResult(method);
+            PacketHandler handler = method.getAnnotation(PacketHandler.class);
+            String ordering = cancelHandler || (handler.priority() == PacketHandlerPriority.NORMAL && handler.ignoreCancelled()) ? ""
+                    : ".withOrdering(io.github.daybringer.packet.utils.PacketHandlerPriority." + handler.priority().name() + ", " + handler.ignoreCancelled() + ")";
+
+            source.append("        registrar.").append(cancelHandler ? "cancelHandler" : "handler").append("(")
+                    .append(parameter).append(".class, ");
+            if (coalesces(method)) {
+                source.append("io.github.daybringer.packet.handle.RegisteredPacketHandlerContainer.coalescing(\n")
+                        .append("                listener, \"").append(listenerBinaryName).append('#').append(method.getSimpleName()).append("\",\n")
+                        .append("                packet -> { ").append(call).append("; return false; }")
+                        .append(")").append(ordering).append(");\n");
+            } else if (returnsFuture(method)) {
+                source.append("io.github.daybringer.packet.handle.RegisteredPacketHandlerContainer.deferred(\n")
+                        .append("                listener, \"").append(listenerBinaryName).append('#').append(method.getSimpleName()).append("\", ")
+                        .append("io.github.daybringer.packet.utils.PacketHandlerThreading.").append(threading).append(",\n")
+                        .append("                packet -> ").append(call)
+                        .append(")").append(ordering).append(");\n");
+            } else if (returnsPacket(method)) {
+                source.append("io.github.daybringer.packet.handle.RegisteredPacketHandlerContainer.rewriting(\n")
+                        .append("                listener, \"").append(listenerBinaryName).append('#').append(method.getSimpleName()).append("\", ")
+                        .append("io.github.daybringer.packet.utils.PacketHandlerThreading.").append(threading).append(",\n")
+                        .append("                packet -> ").append(call)
+                        .append(")").append(ordering).append(");\n");
+            } else {
+                source.append("new io.github.daybringer.packet.handle.RegisteredPacketHandlerContainer(\n")
+                        .append("                listener, \"").append(listenerBinaryName).append('#').append(method.getSimpleName()).append("\", ")
+                        .append("io.github.daybringer.packet.utils.PacketHandlerThreading.").append(threading).append(", ")
+                        .append(returnsResult).append(",\n")
+                        .append("                packet -> ")
+                        .append(returnsResult ? call : "{ " + call + "; return false; }")
+                        .append(")").append(ordering).append(");\n");
+            }
+
+            indexLines.add(listenerBinaryName + '\t'
+                    + (cancelHandler ? "CANCEL_HANDLER" : "HANDLER") + '\t'
+                    + processingEnv.getElementUtils().getBinaryName(packetElement) + '\t'
+                    + method.getSimpleName() + '\t'
+                    + threading);
+        }
+        source.append("    }\n}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(dispatcherName, listener).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            error("Could not generate packet dispatcher " + dispatcherName + ": " + e.getMessage(), listener);
+        }
+    }
+
+    private void writeIndex() {
+        List<String> lines = new ArrayList<>(previousIndexLines());
+        lines.addAll(indexLines);
+        if (lines.isEmpty()) return;
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PacketListenerDispatcher.INDEX_RESOURCE);
+            try (Writer writer = index.openWriter()) {
+                writer.write("# listener\tkind\tpacket\tmethod\tthreading\n");
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
                 }
             }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write " + PacketListenerDispatcher.INDEX_RESOURCE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the index left in the output by an earlier compilation, without the entries of listeners
+     * processed in this one and of listeners that no longer exist.
+     */
+    private List<String> previousIndexLines() {
+        List<String> lines = new ArrayList<>();
+        try {
+            FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", PacketListenerDispatcher.INDEX_RESOURCE);
+            try (BufferedReader reader = new BufferedReader(previous.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int end = line.indexOf('\t');
+                    if (line.startsWith("#") || end <= 0) continue;
+                    String listener = line.substring(0, end);
+                    if (!processedListeners.contains(listener)
+                            && processingEnv.getElementUtils().getTypeElement(listener.replace('$', '.')) != null)
+                        lines.add(line);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            //No earlier index, e.g. on a clean build
+        }
+        return lines;
+    }
+
+    private boolean isAccessibleFromPackage(TypeElement listener) {
+        for (Element enclosing = listener; enclosing instanceof TypeElement type; enclosing = enclosing.getEnclosingElement()) {
+            if (type.getModifiers().contains(Modifier.PRIVATE)) return false;
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) return false;
+        }
+        for (Element member : listener.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.PRIVATE)
+                    && (member.getAnnotation(PacketHandler.class) != null || member.getAnnotation(PacketCancelHandler.class) != null))
+                return false;
         }
         return true;
     }
+
+    private boolean returnsPacket(ExecutableElement method) {
+        TypeMirror returnType = method.getReturnType();
+        TypeElement packet = processingEnv.getElementUtils().getTypeElement(PACKET_TYPE);
+        return returnType.getKind() == TypeKind.DECLARED && packet != null && processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(returnType),
+                processingEnv.getTypeUtils().erasure(packet.asType()));
+    }
+
+    private static boolean isFuture(ExecutableElement method) {
+        return method.getReturnType() instanceof DeclaredType type
+                && ((TypeElement) type.asElement()).getQualifiedName().contentEquals(FUTURE_TYPE);
+    }
+
+    private static boolean returnsFuture(ExecutableElement method) {
+        return isFuture(method)
+                && ((DeclaredType) method.getReturnType()).getTypeArguments().size() == 1
+                && ((DeclaredType) method.getReturnType()).getTypeArguments().get(0).toString().equals("java.lang.Boolean");
+    }
+
+    private static boolean coalesces(ExecutableElement method) {
+        PacketHandler annotation = method.getAnnotation(PacketHandler.class);
+        return method.getAnnotation(PacketCancelHandler.class) == null && annotation != null && annotation.coalesce();
+    }
+
+    private static PacketHandlerThreading threading(ExecutableElement method) {
+        PacketCancelHandler cancelHandler = method.getAnnotation(PacketCancelHandler.class);
+        return cancelHandler != null ? cancelHandler.threading() : method.getAnnotation(PacketHandler.class).threading();
+    }
+
+    private static boolean returnsResult(ExecutableElement method) {
+        String returnType = method.getReturnType().toString();
+        return returnType.equals("boolean") || returnType.equals("java.lang.Boolean");
+    }
+
+    private void error(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void note(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
 }
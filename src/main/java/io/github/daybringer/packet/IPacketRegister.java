@@ -14,5 +14,12 @@ public interface IPacketRegister<THandler> extends PacketComparable
      */
     boolean registerPacketListener(Listenable listener);
 
+    /**
+     * Removes a previously registered packet listener.
+     *
+     * @param listener the packet listener to remove
+     * @return {@code true} if the listener had registered handlers; {@code false} otherwise
+     */
+    boolean unregisterPacketListener(Listenable listener);
 
 }
@@ -0,0 +1,276 @@
+package io.github.daybringer.packet;
+
+import io.github.daybringer.packet.utils.PacketPriority;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.Connection;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.server.network.ServerCommonPacketListenerImpl;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded per-connection backlog of outgoing packets that respects the channel's writability.
+ * <p>
+ * While the channel is writable and nothing is held back, packets are written straight through. Once the
+ * channel's outbound buffer passes its high water mark, packets are held back as packet objects instead of
+ * piling up as encoded buffers, and the queue drains itself when the channel reports it is writable again.
+ * A full backlog drops its oldest {@linkplain PacketPriority#DROPPABLE droppable} packets; packets with a
+ * coalescing key replace the held back packet with the same key.
+ * <p>
+ * Packets are released through the connection's game listener once there is one, so the server's bookkeeping
+ * still applies, e.g. nothing is sent after it processed the disconnect; the listener decides whether to flush.
+ * Connections without a game listener yet are written to directly.
+ * <p>
+ * The queue is confined to the channel's event loop; {@link #send} hands calls from other threads over to it.
+ */
+final class OutboundQueue extends ChannelInboundHandlerAdapter
+{
+    /** Default number of packets held back per connection before droppable packets are discarded. */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final AttributeKey<OutboundQueue> KEY = AttributeKey.valueOf("mcprotocol_outbound_queue");
+    private static final String HANDLER_NAME = "mcprotocol_outbound_queue";
+
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    private final Connection connection;
+    private final ArrayDeque<Entry> entries;
+    private final ArrayDeque<Entry> droppables;
+    private final Map<Object, Entry> coalescing;
+
+    private volatile int queued;
+    private volatile int queuedDroppable;
+    private volatile int peakQueued;
+    private volatile long dropped;
+    private volatile long coalesced;
+    private volatile long overflowed;
+
+    private OutboundQueue(Connection connection)
+    {
+        this.connection = connection;
+        this.entries = new ArrayDeque<>();
+        this.droppables = new ArrayDeque<>();
+        this.coalescing = new HashMap<>();
+    }
+
+    /**
+     * Sends a packet through the backlog of the connection. May be called from any thread.
+     *
+     * @param connection the recipient
+     * @param packet the packet to send
+     * @param priority how the packet is treated while the connection is backed up
+     * @param coalesceKey key under which a later packet replaces this one while it is held back, or {@code null}
+     * @param flush {@code true} to flush the channel after writing the packet
+     */
+    static void send(Connection connection, Packet<?> packet, PacketPriority priority, Object coalesceKey, boolean flush)
+    {
+        Channel channel = connection.channel;
+        if(channel == null || !channel.isActive())
+        {
+            release(connection, packet, flush);
+            return;
+        }
+        if(channel.eventLoop().inEventLoop())
+            of(connection).offer(packet, priority, coalesceKey, flush);
+        else
+            channel.eventLoop().execute(() -> of(connection).offer(packet, priority, coalesceKey, flush));
+    }
+
+    /**
+     * Must be called on the channel's event loop.
+     *
+     * @param channel a connection's channel
+     * @return {@code true} if packets written to the channel now would overtake held back packets
+     *         or exceed its high water mark
+     */
+    static boolean isBackedUp(Channel channel)
+    {
+        OutboundQueue queue = channel.attr(KEY).get();
+        return !channel.isWritable() || (queue != null && !queue.entries.isEmpty());
+    }
+
+    /**
+     * @param connection a connection
+     * @return the current backlog metrics of the connection
+     */
+    static OutboundQueueMetrics metrics(Connection connection)
+    {
+        Channel channel = connection.channel;
+        OutboundQueue queue = channel == null ? null : channel.attr(KEY).get();
+        if(queue == null)
+            return OutboundQueueMetrics.EMPTY;
+
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return new OutboundQueueMetrics(queue.queued, queue.queuedDroppable, queue.peakQueued, queue.dropped,
+                queue.coalesced, queue.overflowed, buffer == null ? 0 : buffer.totalPendingWriteBytes(), channel.isWritable());
+    }
+
+    /**
+     * @param capacity the number of packets held back per connection before droppable packets are discarded
+     */
+    static void setCapacity(int capacity)
+    {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        OutboundQueue.capacity = capacity;
+    }
+
+    /**
+     * @return the number of packets held back per connection before droppable packets are discarded
+     */
+    static int getCapacity()
+    {
+        return capacity;
+    }
+
+    private static OutboundQueue of(Connection connection)
+    {
+        Channel channel = connection.channel;
+        OutboundQueue queue = channel.attr(KEY).get();
+        if(queue == null)
+        {
+            queue = new OutboundQueue(connection);
+            channel.attr(KEY).set(queue);
+            channel.pipeline().addLast(HANDLER_NAME, queue);
+        }
+        return queue;
+    }
+
+    private void offer(Packet<?> packet, PacketPriority priority, Object coalesceKey, boolean flush)
+    {
+        if(priority == PacketPriority.CRITICAL || (entries.isEmpty() && connection.channel.isWritable()))
+        {
+            release(connection, packet, flush);
+            return;
+        }
+
+        if(coalesceKey != null)
+        {
+            Entry pending = coalescing.get(coalesceKey);
+            if(pending != null)
+            {
+                pending.packet = packet;
+                coalesced++;
+                return;
+            }
+        }
+
+        Entry entry = new Entry(packet, priority, coalesceKey);
+        entries.add(entry);
+        if(coalesceKey != null)
+            coalescing.put(coalesceKey, entry);
+        if(priority == PacketPriority.DROPPABLE)
+        {
+            droppables.add(entry);
+            queuedDroppable++;
+        }
+        queued++;
+
+        while(queued > capacity && queuedDroppable > 0)
+            dropOldest();
+        if(queued > capacity)
+            overflowed++;
+        if(queued > peakQueued)
+            peakQueued = queued;
+
+        if(connection.channel.isWritable())
+            drain();
+    }
+
+    private void dropOldest()
+    {
+        Entry entry;
+        while((entry = droppables.poll()) != null)
+        {
+            if(entry.packet == null)
+                continue;
+            remove(entry);
+            dropped++;
+            //Dropped entries stay in the backlog until it drains, which may not happen while the
+            //channel stays unwritable
+            if(entries.size() > 2 * queued)
+                entries.removeIf(dead -> dead.packet == null);
+            return;
+        }
+    }
+
+    private void drain()
+    {
+        boolean written = false;
+        Entry entry;
+        while(connection.channel.isWritable() && (entry = entries.poll()) != null)
+        {
+            Packet<?> packet = entry.packet;
+            if(packet == null)
+                continue;
+            remove(entry);
+            release(connection, packet, false);
+            written = true;
+        }
+        //Sent droppable entries precede the ones still held back
+        while((entry = droppables.peek()) != null && entry.packet == null)
+            droppables.poll();
+        if(written)
+            connection.flushChannel();
+    }
+
+    private static void release(Connection connection, Packet<?> packet, boolean flush)
+    {
+        if(connection.getPacketListener() instanceof ServerCommonPacketListenerImpl listener)
+            listener.send(packet);
+        else
+            connection.send(packet, null, flush);
+    }
+
+    private void remove(Entry entry)
+    {
+        entry.packet = null;
+        queued--;
+        if(entry.priority == PacketPriority.DROPPABLE)
+            queuedDroppable--;
+        if(entry.coalesceKey != null)
+            coalescing.remove(entry.coalesceKey, entry);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+    {
+        if(ctx.channel().isWritable())
+            drain();
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        entries.clear();
+        droppables.clear();
+        coalescing.clear();
+        queued = 0;
+        queuedDroppable = 0;
+        ctx.fireChannelInactive();
+    }
+
+    /**
+     * A packet held back by an {@link OutboundQueue}. Dropped and sent entries have no packet.
+     */
+    private static final class Entry
+    {
+        private final PacketPriority priority;
+        private final Object coalesceKey;
+        private Packet<?> packet;
+
+        private Entry(Packet<?> packet, PacketPriority priority, Object coalesceKey)
+        {
+            this.packet = packet;
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.daybringer.packet;
+
+/**
+ * Snapshot of the outbound backlog of one connection.
+ *
+ * @param queued the number of packets held back while the connection is not writable
+ * @param queuedDroppable the number of held back packets that may still be dropped
+ * @param peakQueued the largest backlog seen on the connection
+ * @param dropped the number of droppable packets discarded because the backlog was full
+ * @param coalesced the number of packets that replaced a held back packet with the same coalescing key
+ * @param overflowed the number of packets that could not be dropped and were queued beyond the capacity
+ * @param pendingBytes the number of encoded bytes waiting in the channel's outbound buffer
+ * @param writable whether the channel currently accepts writes without exceeding its high water mark
+ */
+public record OutboundQueueMetrics(int queued, int queuedDroppable, int peakQueued, long dropped, long coalesced,
+                                   long overflowed, long pendingBytes, boolean writable)
+{
+    /** Metrics of a connection that never had a backlog. */
+    public static final OutboundQueueMetrics EMPTY = new OutboundQueueMetrics(0, 0, 0, 0, 0, 0, 0, true);
+}
@@ -0,0 +1,134 @@
+package io.github.daybringer.packet;
+
+import io.github.daybringer.packet.utils.PacketPriority;
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import net.minecraft.network.Connection;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.BundlePacket;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects packets that are written without flushing and flushes every touched connection once.
+ * <p>
+ * Writes go through the connection's {@link OutboundQueue} with flushing disabled and are queued on the
+ * connection's event loop in call order; {@link #flush()} then issues a single flush per connection.
+ * The set of touched connections may be shared between threads.
+ * <p>
+ * A bundling batch additionally holds back normal priority game packets per connection and sends them as
+ * {@link ClientboundBundlePacket}s on flush, so the client applies them within the same frame.
+ * Bundling batches are confined to the thread that created them.
+ */
+final class PacketBatch
+{
+    /** Maximum number of packets the client accepts in one bundle. */
+    private static final int BUNDLE_SIZE_LIMIT = 4096;
+
+    private final Set<Connection> touched;
+    private final Map<Connection, List<Packet<?>>> bundles;
+
+    PacketBatch(boolean bundle)
+    {
+        this.touched = ConcurrentHashMap.newKeySet();
+        this.bundles = bundle ? new LinkedHashMap<>() : null;
+    }
+
+    /**
+     * @return {@code true} if this batch wraps game packets into bundles
+     */
+    boolean isBundling()
+    {
+        return bundles != null;
+    }
+
+    /**
+     * Writes a packet to the connection without flushing it.
+     *
+     * @param connection the recipient
+     * @param packet the packet to write
+     * @param priority how the packet is treated while the connection is backed up
+     * @param coalesceKey key under which a later packet replaces this one while it is held back, or {@code null}
+     */
+    void send(Connection connection, Packet<?> packet, PacketPriority priority, Object coalesceKey)
+    {
+        if(bundles != null)
+        {
+            if(priority == PacketPriority.NORMAL && isBundleable(packet))
+            {
+                bundles.computeIfAbsent(connection, k -> new ArrayList<>()).add(packet);
+                return;
+            }
+            //Keep the order: what was bundled so far goes out before this packet
+            sendBundle(connection, bundles.remove(connection));
+        }
+        OutboundQueue.send(connection, packet, priority, coalesceKey, false);
+        touched.add(connection);
+    }
+
+    /**
+     * Records a connection that was written to without flushing outside of {@link #send}.
+     *
+     * @param connection the connection to flush with this batch
+     */
+    void written(Connection connection)
+    {
+        touched.add(connection);
+    }
+
+    /**
+     * Sends all held bundles and flushes every touched connection once.
+     */
+    void flush()
+    {
+        if(bundles != null)
+        {
+            bundles.forEach(this::sendBundle);
+            bundles.clear();
+        }
+        for(Connection connection : touched)
+        {
+            touched.remove(connection);
+            connection.flushChannel();
+        }
+    }
+
+    private void sendBundle(Connection connection, List<Packet<?>> packets)
+    {
+        if(packets == null || packets.isEmpty())
+            return;
+
+        if(packets.size() == 1)
+            OutboundQueue.send(connection, packets.get(0), PacketPriority.NORMAL, null, false);
+        else
+        {
+            for(int from = 0; from < packets.size(); from += BUNDLE_SIZE_LIMIT)
+                OutboundQueue.send(connection, bundle(packets.subList(from, Math.min(packets.size(), from + BUNDLE_SIZE_LIMIT))),
+                        PacketPriority.NORMAL, null, false);
+        }
+        touched.add(connection);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClientboundBundlePacket bundle(List<Packet<?>> packets)
+    {
+        return new ClientboundBundlePacket((Iterable<Packet<? super ClientGamePacketListener>>) (Iterable<?>) List.copyOf(packets));
+    }
+
+    private static boolean isBundleable(Packet<?> packet)
+    {
+        if(packet instanceof BundlePacket<?>)
+            return false;
+        PacketTypeInfo info = PacketTypeRegistry.get().info(packet.getClass());
+        return info != null && info.flow() == PacketFlow.CLIENTBOUND && info.protocols().contains(ConnectionProtocol.PLAY);
+    }
+}
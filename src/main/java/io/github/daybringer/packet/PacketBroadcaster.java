@@ -0,0 +1,268 @@
+package io.github.daybringer.packet;
+
+import io.github.daybringer.packet.listen.PacketListener;
+import io.github.daybringer.packet.utils.PacketPriority;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import net.minecraft.network.CompressionEncoder;
+import net.minecraft.network.Connection;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.VarInt;
+import net.minecraft.network.protocol.BundlePacket;
+import net.minecraft.network.protocol.Packet;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+
+/**
+ * Sends one packet to many connections while encoding and compressing it only once.
+ * <p>
+ * Recipients are grouped by the protocol their encoder is configured for and by their compression
+ * threshold. Each group's packet is serialized with the group's codec, compressed the same way the
+ * server's {@link CompressionEncoder} would, and written as a retained duplicate into each channel below
+ * the {@code compress} (or {@code encoder}) handler. Per-connection stages such as length prefixing and
+ * encryption still run for every recipient.
+ * <p>
+ * Connections whose pipeline does not match the expected layout or that are backed up, bundle packets,
+ * terminal packets that switch the connection's protocol and packets the codec rejects are sent through the
+ * connection's {@link OutboundQueue} as usual. So is every packet while clientbound frames are recorded.
+ */
+final class PacketBroadcaster
+{
+    private static final String ENCODER_NAME = "encoder";
+    private static final String COMPRESS_NAME = "compress";
+    private static final int NO_COMPRESSION = -1;
+
+    private static final VarHandle PROTOCOL_INFO = findProtocolInfo();
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+
+    private PacketBroadcaster()
+    {
+    }
+
+    /**
+     * Packets with registered handlers are never encoded once, as the bytes would bypass outbound interception.
+     * Neither are terminal packets: the {@link PacketEncoder} switches the connection's protocol after
+     * encoding them, and {@link Connection#send} does its bookkeeping for them, both of which bytes written
+     * below the encoder would skip. Nothing is encoded once while clientbound frames are recorded: bytes written
+     * below the compressor would bypass the recorder, which sits between the encoder and the compressor.
+     *
+     * @param packet the packet to broadcast
+     * @return {@code true} if the packet can be encoded once for all recipients
+     */
+    static boolean supports(Packet<?> packet)
+    {
+        return PROTOCOL_INFO != null && !(packet instanceof BundlePacket<?>) && !packet.isTerminal()
+                && !PacketListener.get().getHandler().isHandled(packet.getClass())
+                && !PacketListener.get().getRecorder().isRecordingOutbound();
+    }
+
+    /**
+     * Sends the packet to all players, encoding it once per protocol and compression threshold.
+     *
+     * @param packet the packet to send
+     * @param players the recipients
+     * @param priority how the packet is treated by recipients that are backed up
+     * @param batch the batch to write into without flushing, or {@code null} to flush every write
+     */
+    static void broadcast(Packet<?> packet, Collection<? extends Player> players, PacketPriority priority, PacketBatch batch)
+    {
+        Map<Key, List<Connection>> groups = new HashMap<>();
+        for(Player player : players)
+        {
+            Connection connection = PacketListener.get().getConnection(player);
+            if(connection == null)
+                continue;
+
+            Key key = connection.isConnected() ? key(connection.channel) : null;
+            if(key == null)
+                send(connection, packet, priority, batch);
+            else
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(connection);
+        }
+
+        groups.forEach((key, connections) -> {
+            ByteBuf encoded = encode(packet, key, connections.get(0).channel.alloc());
+            if(encoded == null)
+            {
+                connections.forEach(connection -> send(connection, packet, priority, batch));
+                return;
+            }
+            try {
+                for(Connection connection : connections)
+                {
+                    write(connection, key, encoded.retainedDuplicate(), packet, priority, batch != null);
+                    if(batch != null)
+                        batch.written(connection);
+                }
+            }
+            finally {
+                encoded.release();
+            }
+        });
+    }
+
+    private static void send(Connection connection, Packet<?> packet, PacketPriority priority, PacketBatch batch)
+    {
+        if(batch == null)
+            OutboundQueue.send(connection, packet, priority, null, true);
+        else
+            batch.send(connection, packet, priority, null);
+    }
+
+    private static void write(Connection connection, Key key, ByteBuf encoded, Packet<?> packet, PacketPriority priority, boolean deferFlush)
+    {
+        Channel channel = connection.channel;
+        if(!channel.eventLoop().inEventLoop())
+        {
+            channel.eventLoop().execute(() -> write(connection, key, encoded, packet, priority, deferFlush));
+            return;
+        }
+
+        //The protocol may have changed since the recipients were grouped, a recording may have started,
+        //and a backed up connection must not have the bytes overtake its held back packets
+        ChannelHandlerContext context = channel.pipeline().context(key.compressionThreshold == NO_COMPRESSION ? ENCODER_NAME : COMPRESS_NAME);
+        if(context == null || !key.equals(key(channel)) || PacketListener.get().getRecorder().isRecordingOutbound()
+                || (priority != PacketPriority.CRITICAL && OutboundQueue.isBackedUp(channel)))
+        {
+            encoded.release();
+            OutboundQueue.send(connection, packet, priority, null, !deferFlush);
+            return;
+        }
+        if(deferFlush)
+            context.write(encoded, context.voidPromise());
+        else
+            context.writeAndFlush(encoded, context.voidPromise());
+    }
+
+    private static Key key(Channel channel)
+    {
+        ChannelPipeline pipeline = channel.pipeline();
+        if(!(pipeline.get(ENCODER_NAME) instanceof PacketEncoder<?> encoder))
+            return null;
+
+        ProtocolInfo<?> protocolInfo = (ProtocolInfo<?>) PROTOCOL_INFO.get(encoder);
+        ChannelHandler compress = pipeline.get(COMPRESS_NAME);
+        if(compress != null && !(compress instanceof CompressionEncoder))
+            return null;
+
+        int threshold = compress == null ? NO_COMPRESSION : ((CompressionEncoder) compress).getThreshold();
+        return new Key(protocolInfo, threshold);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ByteBuf encode(Packet<?> packet, Key key, ByteBufAllocator allocator)
+    {
+        ByteBuf body = allocator.buffer();
+        try {
+            ((ProtocolInfo<net.minecraft.network.PacketListener>) key.protocolInfo).codec()
+                    .encode(body, (Packet<? super net.minecraft.network.PacketListener>) packet);
+            if(key.compressionThreshold == NO_COMPRESSION)
+                return body.retain();
+            return compress(body, key.compressionThreshold, allocator);
+        }
+        catch (RuntimeException e) {
+            Bukkit.getLogger().log(Level.FINE, "Could not encode " + packet.getClass().getSimpleName() + " for broadcast", e);
+            return null;
+        }
+        finally {
+            body.release();
+        }
+    }
+
+    private static ByteBuf compress(ByteBuf body, int threshold, ByteBufAllocator allocator)
+    {
+        int size = body.readableBytes();
+        ByteBuf out = allocator.buffer(size + VarInt.getByteSize(size));
+        if(size < threshold)
+        {
+            VarInt.write(out, 0);
+            out.writeBytes(body);
+            return out;
+        }
+
+        byte[] input = new byte[size];
+        body.readBytes(input);
+        VarInt.write(out, size);
+
+        Deflater deflater = DEFLATER.get();
+        byte[] chunk = new byte[8192];
+        deflater.setInput(input, 0, size);
+        deflater.finish();
+        while(!deflater.finished())
+        {
+            int length = deflater.deflate(chunk);
+            out.writeBytes(chunk, 0, length);
+        }
+        deflater.reset();
+        return out;
+    }
+
+    private static VarHandle findProtocolInfo()
+    {
+        for(Field field : PacketEncoder.class.getDeclaredFields())
+        {
+            if(field.getType() != ProtocolInfo.class)
+                continue;
+            try {
+                return MethodHandles.privateLookupIn(PacketEncoder.class, MethodHandles.lookup()).unreflectVarHandle(field);
+            }
+            catch (IllegalAccessException | RuntimeException e) {
+                Bukkit.getLogger().log(Level.WARNING, "Could not access the packet encoder, broadcasts encode per player", e);
+                return null;
+            }
+        }
+        Bukkit.getLogger().warning("Packet encoder has no protocol field, broadcasts encode per player");
+        return null;
+    }
+
+    /**
+     * Identifies connections that produce identical bytes for the same packet.
+     * <p>
+     * Game protocols are bound per connection, so protocols are compared by phase and direction
+     * rather than by identity.
+     */
+    private static final class Key
+    {
+        private final ProtocolInfo<?> protocolInfo;
+        private final int compressionThreshold;
+
+        private Key(ProtocolInfo<?> protocolInfo, int compressionThreshold)
+        {
+            this.protocolInfo = protocolInfo;
+            this.compressionThreshold = compressionThreshold;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Key key))
+                return false;
+            return compressionThreshold == key.compressionThreshold
+                    && protocolInfo.id() == key.protocolInfo.id()
+                    && protocolInfo.flow() == key.protocolInfo.flow();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(protocolInfo.id(), protocolInfo.flow(), compressionThreshold);
+        }
+    }
+}
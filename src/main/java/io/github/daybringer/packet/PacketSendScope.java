@@ -0,0 +1,77 @@
+package io.github.daybringer.packet;
+
+/**
+ * A region of code whose packets are written without flushing and flushed together when the scope closes.
+ * <p>
+ * Scopes are opened through {@link PacketSender#openScope()} or {@link PacketSender#openBundleScope()} and
+ * are bound to the opening thread: packets sent through {@link PacketSender} on that thread join the scope,
+ * packets sent from other threads do not. Every connection written to inside the scope is flushed once on
+ * {@link #close()}, in a single write syscall where the transport allows it.
+ * <pre>{@code
+ * try(PacketSendScope scope = PacketSender.get().openScope())
+ * {
+ *     for(Packet<?> line : scoreboardLines)
+ *         PacketSender.get().sendToPlayer(player, line);
+ * }
+ * }</pre>
+ * Scopes may be nested; an inner scope flushes its own packets when it closes.
+ */
+public final class PacketSendScope implements AutoCloseable
+{
+    private final PacketSender sender;
+    private final PacketSendScope parent;
+    private final PacketBatch batch;
+    private final Thread owner;
+    private boolean closed;
+
+    PacketSendScope(PacketSender sender, PacketSendScope parent, boolean bundle)
+    {
+        this.sender = sender;
+        this.parent = parent;
+        this.batch = new PacketBatch(bundle);
+        this.owner = Thread.currentThread();
+    }
+
+    PacketSendScope parent()
+    {
+        return parent;
+    }
+
+    PacketBatch batch()
+    {
+        return batch;
+    }
+
+    /**
+     * @return {@code true} if game packets sent to the same player are wrapped into bundles
+     */
+    public boolean isBundling()
+    {
+        return batch.isBundling();
+    }
+
+    /**
+     * Flushes the packets sent so far without closing the scope.
+     */
+    public void flush()
+    {
+        batch.flush();
+    }
+
+    /**
+     * Flushes all packets sent inside the scope and detaches it from the current thread.
+     *
+     * @throws IllegalStateException if called from a thread other than the one that opened the scope
+     */
+    @Override
+    public void close() throws IllegalStateException
+    {
+        if(closed)
+            return;
+        if(Thread.currentThread() != owner)
+            throw new IllegalStateException("PacketSendScope closed from another thread");
+        closed = true;
+        sender.closeScope(this);
+        batch.flush();
+    }
+}
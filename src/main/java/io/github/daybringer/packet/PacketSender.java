@@ -1,10 +1,18 @@
 package io.github.daybringer.packet;
 
+import io.github.daybringer.Main;
+import io.github.daybringer.packet.listen.PacketListener;
+import io.github.daybringer.packet.utils.PacketPriority;
+import net.minecraft.network.Connection;
 import net.minecraft.network.protocol.Packet;
-import net.minecraft.server.level.ServerPlayer;
 import org.bukkit.Bukkit;
-import org.bukkit.craftbukkit.v1_21_R4.entity.CraftPlayer;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Collection;
 
 /**
  * Utility class for sending packets to players on a Minecraft server.
@@ -12,26 +20,304 @@ import org.bukkit.entity.Player;
  * This class provides methods to send custom NMS packets to individual players
  * or broadcast them to all online players.
  * <p>
- * It uses CraftBukkit internals to access the underlying NMS {@link ServerPlayer}
- * and send packets through their {@link net.minecraft.server.network.ServerGamePacketListenerImpl}.
+ * It uses CraftBukkit internals to access the underlying NMS {@link net.minecraft.server.level.ServerPlayer}
+ * and send packets through the {@link Connection} of their
+ * {@link net.minecraft.server.network.ServerGamePacketListenerImpl}, behind a bounded per-connection backlog.
  */
 public class PacketSender
 {
     private static final PacketSender instance = new PacketSender();
+    private final ThreadLocal<PacketSendScope> scope = new ThreadLocal<>();
+    private final PacketBatch tickBatch = new PacketBatch(false);
+    private volatile BukkitTask tickTask;
+
     private PacketSender() {
         if(instance != null)
             throw new IllegalStateException("PacketSender already instantiated");
     }
 
+    /**
+     * Sends a packet to a player with {@linkplain PacketPriority#NORMAL normal} priority.
+     * <p>
+     * Inside a {@link PacketSendScope} or with {@linkplain #setTickBatching(boolean) tick batching} enabled,
+     * the packet is written without flushing and the connection is flushed with the rest of the batch.
+     *
+     * @param player the recipient
+     * @param packet the packet to send
+     */
     public void sendToPlayer(Player player, Packet<?> packet)
     {
-        ServerPlayer serverPlayer = ((CraftPlayer) player).getHandle();
-        serverPlayer.connection.send(packet);
+        sendToPlayer(player, packet, PacketPriority.NORMAL);
+    }
+
+    /**
+     * Sends a packet to a player.
+     * <p>
+     * While the player's channel is above its high water mark, the packet is held back in a bounded
+     * per-connection queue according to its priority, see {@link PacketPriority}.
+     *
+     * @param player the recipient
+     * @param packet the packet to send
+     * @param priority how the packet is treated while the player's connection is backed up
+     */
+    public void sendToPlayer(Player player, Packet<?> packet, PacketPriority priority)
+    {
+        send(player, packet, priority, null);
+    }
+
+    /**
+     * Sends a droppable packet that replaces any held back packet with the same key.
+     * <p>
+     * While the player's connection is backed up, only the latest packet per key is kept, e.g. the latest
+     * absolute position of an entity keyed by its id.
+     *
+     * @param player the recipient
+     * @param packet the packet to send
+     * @param coalesceKey identifies packets that supersede each other
+     */
+    public void sendCoalesced(Player player, Packet<?> packet, Object coalesceKey)
+    {
+        send(player, packet, PacketPriority.DROPPABLE, coalesceKey);
     }
 
+    /**
+     * @param player an online player
+     * @return the backlog metrics of the player's connection
+     */
+    public OutboundQueueMetrics getOutboundMetrics(Player player)
+    {
+        Connection connection = PacketListener.get().getConnection(player);
+        return connection == null ? OutboundQueueMetrics.EMPTY : OutboundQueue.metrics(connection);
+    }
+
+    /**
+     * Sets the number of packets held back per connection before droppable packets are discarded.
+     * Critical and normal packets are never discarded and may exceed the capacity.
+     *
+     * @param capacity the backlog capacity, {@value OutboundQueue#DEFAULT_CAPACITY} by default
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public void setOutboundCapacity(int capacity) throws IllegalArgumentException
+    {
+        OutboundQueue.setCapacity(capacity);
+    }
+
+    /**
+     * @return the number of packets held back per connection before droppable packets are discarded
+     */
+    public int getOutboundCapacity()
+    {
+        return OutboundQueue.getCapacity();
+    }
+
+    /**
+     * Sends a packet to all online players.
+     * <p>
+     * The packet is encoded and compressed once and the bytes are shared by all recipients,
+     * see {@link #sendAll(Packet, Collection)}.
+     *
+     * @param packet the packet to send
+     */
     public void sendAll(Packet<?> packet)
     {
-        Bukkit.getOnlinePlayers().forEach(player -> sendToPlayer(player, packet));
+        sendAll(packet, Bukkit.getOnlinePlayers());
+    }
+
+    /**
+     * Sends a packet to the given players.
+     * <p>
+     * With more than one recipient the packet is encoded and compressed once per protocol state and
+     * compression threshold, and the resulting bytes are written to every recipient's channel below its
+     * encoder. Bundle packets and connections with an unexpected pipeline are sent one by one.
+     *
+     * @param packet the packet to send
+     * @param players the recipients
+     */
+    public void sendAll(Packet<?> packet, Collection<? extends Player> players)
+    {
+        sendAll(packet, players, PacketPriority.NORMAL);
+    }
+
+    /**
+     * Sends a packet to the given players, see {@link #sendAll(Packet, Collection)}.
+     *
+     * @param packet the packet to send
+     * @param players the recipients
+     * @param priority how the packet is treated by recipients whose connection is backed up
+     */
+    public void sendAll(Packet<?> packet, Collection<? extends Player> players, PacketPriority priority)
+    {
+        PacketBatch batch = currentBatch();
+        if(players.size() < 2 || !PacketBroadcaster.supports(packet) || (batch != null && batch.isBundling()))
+        {
+            players.forEach(player -> sendToPlayer(player, packet, priority));
+            return;
+        }
+        PacketBroadcaster.broadcast(packet, players, priority, batch);
+    }
+
+    /**
+     * Sends a packet to all players within a radius of a location.
+     * <p>
+     * Recipients are looked up in a chunk index of player positions, so the cost grows with the number of
+     * players near the location rather than with the number of online players. Off the main thread this
+     * requires the index to be {@linkplain #startPlayerIndex() started}.
+     *
+     * @param center the center of the area
+     * @param radius the radius of the area in blocks
+     * @param packet the packet to send
+     * @throws IllegalStateException if the {@linkplain #startPlayerIndex() player index} was not started and this is not the main thread
+     */
+    public void sendNearby(Location center, double radius, Packet<?> packet) throws IllegalStateException
+    {
+        sendNearby(center, radius, packet, PacketPriority.NORMAL);
+    }
+
+    /**
+     * Sends a packet to all players within a radius of a location, see {@link #sendNearby(Location, double, Packet)}.
+     * Particles and sounds are typically sent {@linkplain PacketPriority#DROPPABLE droppable}.
+     *
+     * @param center the center of the area
+     * @param radius the radius of the area in blocks
+     * @param packet the packet to send
+     * @param priority how the packet is treated by recipients whose connection is backed up
+     * @throws IllegalStateException if the {@linkplain #startPlayerIndex() player index} was not started and this is not the main thread
+     */
+    public void sendNearby(Location center, double radius, Packet<?> packet, PacketPriority priority) throws IllegalStateException
+    {
+        sendAll(packet, PlayerGrid.get().nearby(center, radius), priority);
+    }
+
+    /**
+     * Sends a packet to all players whose view distance covers a chunk.
+     * <p>
+     * Viewers are approximated by the world's view distance around the players' chunks.
+     *
+     * @param chunk the chunk
+     * @param packet the packet to send
+     * @throws IllegalStateException if the {@linkplain #startPlayerIndex() player index} was not started and this is not the main thread
+     */
+    public void sendToChunkViewers(Chunk chunk, Packet<?> packet) throws IllegalStateException
+    {
+        sendAll(packet, PlayerGrid.get().chunkViewers(chunk.getWorld(), chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * Sends a packet to all players in a world.
+     *
+     * @param world the world
+     * @param packet the packet to send
+     * @throws IllegalStateException if the {@linkplain #startPlayerIndex() player index} was not started and this is not the main thread
+     */
+    public void sendInWorld(World world, Packet<?> packet) throws IllegalStateException
+    {
+        sendAll(packet, PlayerGrid.get().inWorld(world));
+    }
+
+    /**
+     * Opens a scope on the current thread in which sent packets are flushed together on close.
+     *
+     * @return the new scope, to be closed on this thread
+     */
+    public PacketSendScope openScope()
+    {
+        return open(false);
+    }
+
+    /**
+     * Opens a scope on the current thread in which game packets sent to the same player are wrapped
+     * into a {@link net.minecraft.network.protocol.game.ClientboundBundlePacket} on close, so the
+     * client applies them in the same frame.
+     * <p>
+     * Broadcasts inside a bundling scope are encoded per player.
+     *
+     * @return the new scope, to be closed on this thread
+     */
+    public PacketSendScope openBundleScope()
+    {
+        return open(true);
+    }
+
+    /**
+     * Starts the chunk index of player positions behind {@link #sendNearby(Location, double, Packet)},
+     * {@link #sendToChunkViewers(Chunk, Packet)} and {@link #sendInWorld(World, Packet)}, if it is not
+     * running yet. The index registers event listeners and reads the online players, so it has to be
+     * started on the main thread, e.g. in {@code onEnable}; called there, these methods start it on first use.
+     *
+     * @throws IllegalStateException if not called on the main thread
+     */
+    public void startPlayerIndex() throws IllegalStateException
+    {
+        PlayerGrid.start(Main.getProvidingPlugin(Main.class));
+    }
+
+    /**
+     * Enables or disables tick batching.
+     * <p>
+     * While enabled, packets sent outside of a scope are written without flushing and every touched
+     * connection is flushed once per server tick by a repeating task. This trades up to one tick of
+     * latency for one flush per connection and tick. Disabling flushes everything still pending.
+     * Must be called on the main thread.
+     *
+     * @param enabled {@code true} to batch writes per tick
+     */
+    public synchronized void setTickBatching(boolean enabled)
+    {
+        if(enabled == (tickTask != null))
+            return;
+        if(enabled)
+            tickTask = Bukkit.getScheduler().runTaskTimer(Main.getProvidingPlugin(Main.class), tickBatch::flush, 1L, 1L);
+        else
+        {
+            tickTask.cancel();
+            tickTask = null;
+            tickBatch.flush();
+        }
+    }
+
+    /**
+     * @return {@code true} if writes outside of a scope are flushed once per tick
+     */
+    public boolean isTickBatching()
+    {
+        return tickTask != null;
+    }
+
+    private PacketSendScope open(boolean bundle)
+    {
+        PacketSendScope opened = new PacketSendScope(this, scope.get(), bundle);
+        scope.set(opened);
+        return opened;
+    }
+
+    void closeScope(PacketSendScope closed)
+    {
+        if(scope.get() != closed)
+            throw new IllegalStateException("PacketSendScope closed out of order");
+        if(closed.parent() == null)
+            scope.remove();
+        else
+            scope.set(closed.parent());
+    }
+
+    private void send(Player player, Packet<?> packet, PacketPriority priority, Object coalesceKey)
+    {
+        Connection connection = PacketListener.get().getConnection(player);
+        if(connection == null)
+            return;
+        PacketBatch batch = currentBatch();
+        if(batch == null)
+            OutboundQueue.send(connection, packet, priority, coalesceKey, true);
+        else
+            batch.send(connection, packet, priority, coalesceKey);
+    }
+
+    private PacketBatch currentBatch()
+    {
+        PacketSendScope current = scope.get();
+        if(current != null)
+            return current.batch();
+        return tickTask != null ? tickBatch : null;
     }
 
     public static PacketSender get()
@@ -0,0 +1,294 @@
+package io.github.daybringer.packet;
+
+import io.github.daybringer.Main;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of online players by world and chunk, used to find the recipients of spatial broadcasts.
+ * <p>
+ * Players are filed under the chunk they stand in. The index is updated from player and vehicle events on
+ * the main thread, and only when a player or the vehicle they ride crosses a chunk border, so a lookup
+ * touches the chunks covering the queried area instead of every online player. Lookups may run on any
+ * thread once the index is {@linkplain #start(Plugin) started} on the main thread.
+ */
+final class PlayerGrid implements Listener
+{
+    private static volatile PlayerGrid instance;
+
+    private final Map<UUID, WorldCells> worlds;
+    private final Map<UUID, Cell> cells;
+
+    private PlayerGrid()
+    {
+        this.worlds = new ConcurrentHashMap<>();
+        this.cells = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the index, started on first use if called on the main thread
+     * @throws IllegalStateException if the index was not started and this is not the main thread
+     */
+    static PlayerGrid get() throws IllegalStateException
+    {
+        PlayerGrid grid = instance;
+        return grid != null ? grid : start(Main.getProvidingPlugin(Main.class));
+    }
+
+    /**
+     * Registers the index for player and vehicle events and fills it with the online players, if not done yet.
+     * Must be called on the main thread.
+     *
+     * @param plugin the plugin owning the event listener
+     * @return the index
+     * @throws IllegalStateException if the index was not started and this is not the main thread
+     */
+    static synchronized PlayerGrid start(Plugin plugin) throws IllegalStateException
+    {
+        if(instance != null)
+            return instance;
+        if(!Bukkit.isPrimaryThread())
+            throw new IllegalStateException("The player index must be started on the main thread, see PacketSender#startPlayerIndex()");
+
+        PlayerGrid grid = new PlayerGrid();
+        Bukkit.getPluginManager().registerEvents(grid, plugin);
+        for(Player player : Bukkit.getOnlinePlayers())
+            grid.move(player, player.getLocation());
+        instance = grid;
+        return grid;
+    }
+
+    /**
+     * @param center the center of the area
+     * @param radius the radius of the area in blocks
+     * @return the players within {@code radius} blocks of {@code center}
+     */
+    List<Player> nearby(Location center, double radius)
+    {
+        World world = center.getWorld();
+        WorldCells grid = world == null ? null : worlds.get(world.getUID());
+        if(grid == null)
+            return Collections.emptyList();
+
+        int minX = floor(center.getX() - radius) >> 4;
+        int maxX = floor(center.getX() + radius) >> 4;
+        int minZ = floor(center.getZ() - radius) >> 4;
+        int maxZ = floor(center.getZ() + radius) >> 4;
+        double radiusSquared = radius * radius;
+
+        List<Player> players = new ArrayList<>();
+        for(Player player : grid.within(minX, maxX, minZ, maxZ))
+        {
+            Location location = player.getLocation();
+            if(location.getWorld() == world && location.distanceSquared(center) <= radiusSquared)
+                players.add(player);
+        }
+        return players;
+    }
+
+    /**
+     * @param world the world of the chunk
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return the players whose view distance covers the chunk
+     */
+    List<Player> chunkViewers(World world, int chunkX, int chunkZ)
+    {
+        WorldCells grid = worlds.get(world.getUID());
+        if(grid == null)
+            return Collections.emptyList();
+        int viewDistance = world.getViewDistance();
+        return grid.within(chunkX - viewDistance, chunkX + viewDistance, chunkZ - viewDistance, chunkZ + viewDistance);
+    }
+
+    /**
+     * @param world a world
+     * @return the players in the world
+     */
+    List<Player> inWorld(World world)
+    {
+        WorldCells grid = worlds.get(world.getUID());
+        return grid == null ? Collections.emptyList() : new ArrayList<>(grid.players);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event)
+    {
+        move(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event)
+    {
+        remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMove(PlayerMoveEvent event)
+    {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if(to == null)
+            return;
+        if(from.getWorld() == to.getWorld() && from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4)
+            return;
+        move(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onTeleport(PlayerTeleportEvent event)
+    {
+        onMove(event);
+    }
+
+    /**
+     * Players riding a vehicle fire no move events of their own, so they are moved with the vehicle.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onVehicleMove(VehicleMoveEvent event)
+    {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if(from.getWorld() == to.getWorld() && from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4)
+            return;
+        movePassengers(event.getVehicle(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent event)
+    {
+        move(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event)
+    {
+        move(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    private void move(Player player, Location location)
+    {
+        World world = location.getWorld();
+        if(world == null)
+            return;
+
+        Cell cell = new Cell(world.getUID(), key(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+        Cell previous = cells.put(player.getUniqueId(), cell);
+        if(cell.equals(previous))
+            return;
+        if(previous != null)
+            leave(player, previous, !previous.world.equals(cell.world));
+
+        WorldCells grid = worlds.computeIfAbsent(cell.world, k -> new WorldCells());
+        grid.players.add(player);
+        grid.cells.compute(cell.key, (k, players) -> {
+            if(players == null)
+                players = ConcurrentHashMap.newKeySet();
+            players.add(player);
+            return players;
+        });
+    }
+
+    private void movePassengers(Entity vehicle, Location location)
+    {
+        for(Entity passenger : vehicle.getPassengers())
+        {
+            if(passenger instanceof Player player)
+                move(player, location);
+            movePassengers(passenger, location);
+        }
+    }
+
+    private void remove(Player player)
+    {
+        Cell previous = cells.remove(player.getUniqueId());
+        if(previous != null)
+            leave(player, previous, true);
+    }
+
+    private void leave(Player player, Cell cell, boolean leaveWorld)
+    {
+        WorldCells grid = worlds.get(cell.world);
+        if(grid == null)
+            return;
+        grid.cells.computeIfPresent(cell.key, (k, players) -> {
+            players.remove(player);
+            return players.isEmpty() ? null : players;
+        });
+        if(leaveWorld)
+            grid.players.remove(player);
+    }
+
+    private static long key(int chunkX, int chunkZ)
+    {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static int floor(double value)
+    {
+        return (int) Math.floor(value);
+    }
+
+    private record Cell(UUID world, long key)
+    {
+    }
+
+    private static final class WorldCells
+    {
+        private final Map<Long, Set<Player>> cells = new ConcurrentHashMap<>();
+        private final Set<Player> players = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Collects the players filed under the given chunk range, scanning the occupied chunks
+         * instead when the range covers more chunks than are occupied.
+         */
+        private List<Player> within(int minX, int maxX, int minZ, int maxZ)
+        {
+            List<Player> players = new ArrayList<>();
+            long area = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+            if(area > cells.size())
+            {
+                cells.forEach((key, occupants) -> {
+                    int x = (int) (key >> 32);
+                    int z = (int) (long) key;
+                    if(x >= minX && x <= maxX && z >= minZ && z <= maxZ)
+                        players.addAll(occupants);
+                });
+                return players;
+            }
+
+            for(int x = minX; x <= maxX; x++)
+            {
+                for(int z = minZ; z <= maxZ; z++)
+                {
+                    Set<Player> occupants = cells.get(key(x, z));
+                    if(occupants != null)
+                        players.addAll(occupants);
+                }
+            }
+            return players;
+        }
+    }
+}
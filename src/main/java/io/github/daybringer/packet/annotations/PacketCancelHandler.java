@@ -1,5 +1,7 @@
 package io.github.daybringer.packet.annotations;
 
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -9,4 +11,5 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface PacketCancelHandler
 {
+    PacketHandlerThreading threading() default PacketHandlerThreading.MAIN;
 }
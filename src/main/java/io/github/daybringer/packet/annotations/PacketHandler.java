@@ -1,5 +1,7 @@
 package io.github.daybringer.packet.annotations;
 
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
 import io.github.daybringer.packet.utils.PacketHandlerType;
 
 import java.lang.annotation.ElementType;
@@ -11,4 +13,32 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface PacketHandler {
     PacketHandlerType handlerType() default PacketHandlerType.NORMAL;
+    PacketHandlerThreading threading() default PacketHandlerThreading.MAIN;
+
+    /**
+     * Marks a handler that only needs the latest packet of a player.
+     * <p>
+     * If several packets for the handler arrive from one player before the next main thread drain, the
+     * handler is called once with the most recent of them, e.g. for {@code ServerboundMovePlayerPacket}.
+     * Other handlers of the same packets still see every packet. Coalescing handlers observe serverbound
+     * packets that were not cancelled; they must use {@link PacketHandlerThreading#MAIN}, be
+     * {@link PacketHandlerType#NORMAL} and return {@code void}.
+     */
+    boolean coalesce() default false;
+
+    /**
+     * The position of the handler among the handlers of the same packet and threading mode.
+     * {@link PacketHandlerPriority#MONITOR} handlers must be {@link PacketHandlerType#NORMAL} and return {@code void}.
+     */
+    PacketHandlerPriority priority() default PacketHandlerPriority.NORMAL;
+
+    /**
+     * Whether the handler is skipped for packets an earlier handler of its threading mode cancelled.
+     * <p>
+     * By default cancellation short-circuits the remaining handlers. Handlers that set this to {@code false}
+     * also receive cancelled packets, and a cancelable one among them may let the packet through again by
+     * returning {@code false}. A packet cancelled in an earlier threading mode never reaches the handlers of
+     * later modes, except the {@link PacketHandlerPriority#MONITOR} handlers that set this to {@code false}.
+     */
+    boolean ignoreCancelled() default true;
 }
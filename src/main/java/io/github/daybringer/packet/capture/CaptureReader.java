@@ -0,0 +1,94 @@
+package io.github.daybringer.packet.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.PacketFlow;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import static io.github.daybringer.packet.capture.CaptureWriter.FRAME_HEADER;
+import static io.github.daybringer.packet.capture.CaptureWriter.SEGMENT_HEADER;
+
+/**
+ * Reads the frames of a capture written by a {@link CaptureWriter}.
+ * <p>
+ * Segments are mapped read-only and their frames handed out in the order they were written, with bodies
+ * that view the mapped file without copying. Reading a segment stops at its first incomplete frame.
+ */
+public final class CaptureReader
+{
+    private static final ConnectionProtocol[] PROTOCOLS = ConnectionProtocol.values();
+    private static final PacketFlow[] FLOWS = PacketFlow.values();
+
+    private CaptureReader()
+    {
+    }
+
+    /**
+     * Passes every frame of every segment in a directory to a consumer, oldest segment first.
+     *
+     * @param directory the directory holding the segments
+     * @param consumer receives the frames; a frame's body is only valid during the call
+     * @return the number of frames read
+     * @throws IOException if a segment cannot be read or is not a capture segment
+     */
+    public static long read(Path directory, Consumer<CapturedFrame> consumer) throws IOException
+    {
+        long frames = 0;
+        for(Path segment : CaptureWriter.segments(directory))
+            frames += readSegment(segment, consumer);
+        return frames;
+    }
+
+    /**
+     * Passes every frame of one segment file to a consumer.
+     *
+     * @param segment the segment file
+     * @param consumer receives the frames; a frame's body is only valid during the call
+     * @return the number of frames read
+     * @throws IOException if the segment cannot be read or is not a capture segment
+     */
+    public static long readSegment(Path segment, Consumer<CapturedFrame> consumer) throws IOException
+    {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.limit() < SEGMENT_HEADER || buffer.getInt(0) != CaptureWriter.MAGIC)
+            throw new IOException(segment + " is not a packet capture segment");
+        if(buffer.getInt(4) != CaptureWriter.VERSION)
+            throw new IOException(segment + " has unsupported capture format version " + buffer.getInt(4));
+
+        long frames = 0;
+        int position = SEGMENT_HEADER;
+        while(position + FRAME_HEADER <= buffer.limit())
+        {
+            int length = buffer.getInt(position);
+            if(length < FRAME_HEADER || position + length > buffer.limit())
+                break;
+
+            int flow = buffer.get(position + 20);
+            int protocol = buffer.get(position + 21);
+            if(flow < 0 || flow >= FLOWS.length)
+                break;
+            ByteBuf body = Unpooled.wrappedBuffer(buffer.slice(position + FRAME_HEADER, length - FRAME_HEADER)).asReadOnly();
+            consumer.accept(new CapturedFrame(
+                    buffer.getLong(position + 4),
+                    buffer.getLong(position + 12),
+                    FLOWS[flow],
+                    protocol < 0 || protocol >= PROTOCOLS.length ? null : PROTOCOLS[protocol],
+                    buffer.getInt(position + 22),
+                    body));
+            frames++;
+            position += CaptureWriter.align(length);
+        }
+        return frames;
+    }
+}
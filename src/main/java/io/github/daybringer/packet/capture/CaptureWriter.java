@@ -0,0 +1,270 @@
+package io.github.daybringer.packet.capture;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.PacketFlow;
+import org.bukkit.Bukkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Appends raw packet frames to memory-mapped, fixed-size segment files in a directory.
+ * <p>
+ * Each frame is stored with its connection id, timestamp, direction, connection phase and packet id. Writers
+ * on any thread reserve their space in the current segment with a single atomic add and copy the frame
+ * straight from its {@link ByteBuf} into the mapped file, so recording takes no lock and makes no system
+ * call; the operating system writes the pages back in the background. A frame's length is published last,
+ * so a reader stops at the first frame that was not completely written. A segment that is full is replaced
+ * by the next one, and with a segment limit the oldest segments are deleted.
+ * <p>
+ * Segment layout: a header of {@value #SEGMENT_HEADER} bytes with the magic number, the format version and
+ * the creation time, followed by frames aligned to 8 bytes. A frame is its total length as an int, the
+ * connection id and the epoch nanosecond timestamp as longs, the direction and phase ordinals as bytes
+ * ({@code -1} for an unknown phase), the packet id as an int and the packet body.
+ */
+public final class CaptureWriter implements Closeable
+{
+    /** Default size of a segment file: 64 MiB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    static final int MAGIC = 0x4D435043;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER = 32;
+    static final int FRAME_HEADER = 26;
+    static final String SUFFIX = ".mcpcap";
+
+    private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long epochOffset;
+    private final Deque<Path> segments;
+    private final LongAdder frames;
+    private final LongAdder dropped;
+    private volatile Segment current;
+    private long sequence;
+
+    /**
+     * Creates the directory if needed and opens the first segment, numbered after any segments already in it.
+     * Those earlier segments count towards the segment limit.
+     *
+     * @param directory the directory to write segments to
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxSegments the number of segments to keep, deleting the oldest beyond it, or {@code 0} to keep all
+     * @throws IOException if the directory or the first segment cannot be created
+     */
+    public CaptureWriter(Path directory, int segmentSize, int maxSegments) throws IOException
+    {
+        if(segmentSize < SEGMENT_HEADER + 1024)
+            throw new IllegalArgumentException("Segment size must be at least " + (SEGMENT_HEADER + 1024) + " bytes");
+        if(maxSegments < 0)
+            throw new IllegalArgumentException("Segment limit must not be negative");
+
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.epochOffset = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+        this.segments = new ArrayDeque<>(segments(directory));
+        this.frames = new LongAdder();
+        this.dropped = new LongAdder();
+        this.sequence = segments.isEmpty() ? 0 : sequence(segments.getLast());
+        this.current = open();
+    }
+
+    /**
+     * @param directory the directory to write segments to
+     * @throws IOException if the directory or the first segment cannot be created
+     */
+    public CaptureWriter(Path directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, 0);
+    }
+
+    /**
+     * Appends a frame. May be called from any thread.
+     *
+     * @param connectionId the id of the connection the frame belongs to
+     * @param flow the direction of the frame
+     * @param protocol the connection phase, or {@code null} if it is not known
+     * @param packetId the wire id of the packet
+     * @param body the packet body following the id; its indices are not modified
+     * @return {@code true} if the frame was recorded, {@code false} if the writer is closed, the frame is
+     *         larger than a segment or a new segment could not be created, which closes the writer
+     */
+    public boolean append(long connectionId, PacketFlow flow, ConnectionProtocol protocol, int packetId, ByteBuf body)
+    {
+        int length = FRAME_HEADER + body.readableBytes();
+        int aligned = align(length);
+        if(aligned > segmentSize - SEGMENT_HEADER)
+        {
+            dropped.increment();
+            return false;
+        }
+
+        long timestamp = System.nanoTime() + epochOffset;
+        while(true)
+        {
+            Segment segment = current;
+            if(segment == null)
+            {
+                dropped.increment();
+                return false;
+            }
+            long position = segment.cursor.getAndAdd(aligned);
+            if(position + aligned <= segmentSize)
+            {
+                segment.write((int) position, length, connectionId, timestamp, flow, protocol, packetId, body);
+                frames.increment();
+                return true;
+            }
+            try {
+                rotate(segment);
+            }
+            catch (IOException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Could not create the next capture segment in " + directory + ", stopping the capture", e);
+                dropped.increment();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames recorded
+     */
+    public long getFrames()
+    {
+        return frames.sum();
+    }
+
+    /**
+     * @return the number of frames that could not be recorded
+     */
+    public long getDroppedFrames()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the directory segments are written to
+     */
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Stops accepting frames and writes the current segment back to disk. Frames appended concurrently may
+     * still complete after this returns.
+     */
+    @Override
+    public synchronized void close()
+    {
+        Segment segment = current;
+        current = null;
+        if(segment != null)
+            segment.buffer.force();
+    }
+
+    private synchronized void rotate(Segment full) throws IOException
+    {
+        if(current != full)
+            return;
+        try {
+            current = open();
+        }
+        catch (IOException e)
+        {
+            current = null;
+            throw e;
+        }
+        while(maxSegments > 0 && segments.size() > maxSegments)
+        {
+            Path oldest = segments.removeFirst();
+            try {
+                Files.deleteIfExists(oldest);
+            }
+            catch (IOException e)
+            {
+                //The new segment is open, so the capture goes on; only the segment limit is exceeded
+                Bukkit.getLogger().log(Level.WARNING, "Could not delete the old capture segment " + oldest + ", it is kept on disk", e);
+            }
+        }
+    }
+
+    private Segment open() throws IOException
+    {
+        Path file = directory.resolve(String.format("capture-%08d%s", ++sequence, SUFFIX));
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, System.nanoTime() + epochOffset);
+        segments.addLast(file);
+        return new Segment(buffer, new AtomicLong(SEGMENT_HEADER));
+    }
+
+    /**
+     * @return the segment files in a directory, oldest first
+     */
+    static List<Path> segments(Path directory) throws IOException
+    {
+        try(Stream<Path> files = Files.list(directory))
+        {
+            return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    static int align(int length)
+    {
+        return (length + 7) & ~7;
+    }
+
+    private static long sequence(Path segment)
+    {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length()));
+        }
+        catch (RuntimeException e)
+        {
+            return 0;
+        }
+    }
+
+    private record Segment(MappedByteBuffer buffer, AtomicLong cursor)
+    {
+        private void write(int position, int length, long connectionId, long timestamp, PacketFlow flow,
+                           ConnectionProtocol protocol, int packetId, ByteBuf body)
+        {
+            buffer.putLong(position + 4, connectionId);
+            buffer.putLong(position + 12, timestamp);
+            buffer.put(position + 20, (byte) flow.ordinal());
+            buffer.put(position + 21, (byte) (protocol == null ? -1 : protocol.ordinal()));
+            buffer.putInt(position + 22, packetId);
+            body.getBytes(body.readerIndex(), buffer.slice(position + FRAME_HEADER, length - FRAME_HEADER));
+            LENGTH.setRelease(buffer, position, length);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.daybringer.packet.capture;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.PacketFlow;
+
+/**
+ * A raw packet frame read back from a capture.
+ *
+ * @param connectionId the id the recorder gave the connection, unique within a server run
+ * @param timestampNanos the time the frame was recorded, in nanoseconds since the epoch
+ * @param flow the direction the frame travelled in
+ * @param protocol the connection phase the frame was sent in, or {@code null} if it was not known
+ * @param packetId the wire id of the packet in its phase
+ * @param body a read-only view of the uncompressed packet body following the id; only valid during the
+ *             callback it is passed to
+ */
+public record CapturedFrame(long connectionId, long timestampNanos, PacketFlow flow, ConnectionProtocol protocol,
+                            int packetId, ByteBuf body)
+{
+}
@@ -0,0 +1,222 @@
+package io.github.daybringer.packet.capture;
+
+import io.github.daybringer.packet.handle.PacketHandler;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.VarInt;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.configuration.ConfigurationProtocols;
+import net.minecraft.network.protocol.game.GameProtocols;
+import net.minecraft.network.protocol.handshake.HandshakeProtocols;
+import net.minecraft.network.protocol.login.LoginProtocols;
+import net.minecraft.network.protocol.status.StatusProtocols;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Feeds a capture written by a {@link CaptureWriter} back through a {@link PacketHandler}.
+ * <p>
+ * Frames are decoded with the server's protocol codecs and handed to the handlers on the calling thread, one
+ * threading mode after the other as the listener would: serverbound packets to the normal handlers until one
+ * cancels them, clientbound packets to the outbound handlers and then to their observers, and cancelled or
+ * dropped packets to the cancel handlers and the monitor handlers of the later threading modes. Since
+ * {@link PacketHandlerThreading#MAIN} handlers run too, a replay inside a server has to run on the main
+ * thread. The packets of a connection are attributed to a player id derived from its connection id, so flight
+ * recorder events and metrics can be told apart per connection.
+ * <p>
+ * A replay either keeps the recorded timing between frames, to reproduce a traffic pattern such as a lag
+ * spike, or runs as fast as possible, to compare handler costs on real traffic.
+ */
+public final class PacketReplay
+{
+    private static final PacketHandlerThreading[] STAGES = {
+            PacketHandlerThreading.NETTY, PacketHandlerThreading.ASYNC, PacketHandlerThreading.VIRTUAL, PacketHandlerThreading.MAIN
+    };
+    private static final PacketHandlerThreading[] OBSERVERS = {
+            PacketHandlerThreading.ASYNC, PacketHandlerThreading.VIRTUAL, PacketHandlerThreading.MAIN
+    };
+
+    private final PacketHandler handler;
+    private final Map<ConnectionProtocol, StreamCodec<ByteBuf, ? extends Packet<?>>> serverbound;
+    private final Map<ConnectionProtocol, StreamCodec<ByteBuf, ? extends Packet<?>>> clientbound;
+
+    /**
+     * @param handler the handlers to replay the capture to
+     * @param registries the registries game packets are decoded with, e.g. the server's
+     */
+    public PacketReplay(PacketHandler handler, RegistryAccess registries)
+    {
+        this.handler = handler;
+        this.serverbound = new EnumMap<>(ConnectionProtocol.class);
+        this.clientbound = new EnumMap<>(ConnectionProtocol.class);
+
+        serverbound.put(ConnectionProtocol.HANDSHAKING, codec(HandshakeProtocols.SERVERBOUND));
+        serverbound.put(ConnectionProtocol.STATUS, codec(StatusProtocols.SERVERBOUND));
+        serverbound.put(ConnectionProtocol.LOGIN, codec(LoginProtocols.SERVERBOUND));
+        serverbound.put(ConnectionProtocol.CONFIGURATION, codec(ConfigurationProtocols.SERVERBOUND));
+        //Creative inventory packets are decoded as if the player had infinite materials
+        serverbound.put(ConnectionProtocol.PLAY, codec(GameProtocols.SERVERBOUND_TEMPLATE.bind(RegistryFriendlyByteBuf.decorator(registries), () -> true)));
+        clientbound.put(ConnectionProtocol.STATUS, codec(StatusProtocols.CLIENTBOUND));
+        clientbound.put(ConnectionProtocol.LOGIN, codec(LoginProtocols.CLIENTBOUND));
+        clientbound.put(ConnectionProtocol.CONFIGURATION, codec(ConfigurationProtocols.CLIENTBOUND));
+        clientbound.put(ConnectionProtocol.PLAY, codec(GameProtocols.CLIENTBOUND_TEMPLATE.bind(RegistryFriendlyByteBuf.decorator(registries))));
+    }
+
+    /**
+     * Replays all segments in a capture directory on the calling thread.
+     *
+     * @param directory the directory holding the capture's segments
+     * @param recordedSpeed {@code true} to wait between frames as long as between their recording,
+     *                      {@code false} to replay as fast as possible
+     * @return the outcome of the replay
+     * @throws IOException if the capture cannot be read
+     */
+    public ReplayStats replay(Path directory, boolean recordedSpeed) throws IOException
+    {
+        Run run = new Run(recordedSpeed);
+        long frames = CaptureReader.read(directory, run);
+        return new ReplayStats(frames, run.replayed, run.undecodable, run.cancelled, System.nanoTime() - run.start, run.maxLag);
+    }
+
+    /**
+     * Decodes a captured frame.
+     *
+     * @param frame the frame
+     * @return the packet, or {@code null} if the frame's phase is unknown or it does not decode
+     */
+    public Packet<?> decode(CapturedFrame frame)
+    {
+        Map<ConnectionProtocol, StreamCodec<ByteBuf, ? extends Packet<?>>> codecs = frame.flow() == PacketFlow.SERVERBOUND ? serverbound : clientbound;
+        StreamCodec<ByteBuf, ? extends Packet<?>> codec = frame.protocol() == null ? null : codecs.get(frame.protocol());
+        if(codec == null)
+            return null;
+
+        ByteBuf id = VarInt.write(Unpooled.buffer(5), frame.packetId());
+        ByteBuf buf = Unpooled.wrappedBuffer(id, frame.body().retainedDuplicate());
+        try {
+            return codec.decode(buf);
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+        finally
+        {
+            buf.release();
+        }
+    }
+
+    /**
+     * Replays one packet to the handlers as the listener would have called them. Like the listener holding
+     * the packet, the replay waits for the decision of handlers returning a future, on the replaying thread.
+     *
+     * @return {@code true} if the packet was cancelled or dropped
+     */
+    private boolean dispatch(Packet<?> packet, PacketFlow flow, UUID playerId)
+    {
+        if(flow == PacketFlow.CLIENTBOUND)
+        {
+            Packet<?> sent = handler.callOutboundHandlers(packet, playerId);
+            if(sent == null)
+            {
+                cancel(packet, playerId, 0);
+                return true;
+            }
+            for(PacketHandlerThreading threading : OBSERVERS)
+                handler.callHandlers(sent, threading, playerId);
+            return false;
+        }
+
+        for(int stage = 0; stage < STAGES.length; stage++)
+        {
+            if(handler.callHandlersDeferred(packet, STAGES[stage], Runnable::run, playerId).join())
+            {
+                cancel(packet, playerId, stage);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param stage the index in {@link #STAGES} of the threading mode that cancelled the packet
+     */
+    private void cancel(Packet<?> packet, UUID playerId, int stage)
+    {
+        for(PacketHandlerThreading threading : STAGES)
+            handler.callCancelHandlers(packet, threading, playerId);
+        for(int later = stage + 1; later < STAGES.length; later++)
+            handler.callCancelledMonitors(packet, STAGES[later], playerId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamCodec<ByteBuf, ? extends Packet<?>> codec(ProtocolInfo<?> protocol)
+    {
+        return (StreamCodec<ByteBuf, ? extends Packet<?>>) (StreamCodec<ByteBuf, ?>) protocol.codec();
+    }
+
+    /**
+     * State of one replay, fed the frames in capture order.
+     */
+    private final class Run implements Consumer<CapturedFrame>
+    {
+        private final boolean recordedSpeed;
+        private final long start;
+        private long firstTimestamp;
+        private long replayed;
+        private long undecodable;
+        private long cancelled;
+        private long maxLag;
+
+        private Run(boolean recordedSpeed)
+        {
+            this.recordedSpeed = recordedSpeed;
+            this.start = System.nanoTime();
+            this.firstTimestamp = -1;
+        }
+
+        @Override
+        public void accept(CapturedFrame frame)
+        {
+            if(recordedSpeed)
+                await(frame.timestampNanos());
+
+            Packet<?> packet = decode(frame);
+            if(packet == null)
+            {
+                undecodable++;
+                return;
+            }
+            replayed++;
+            if(dispatch(packet, frame.flow(), new UUID(0, frame.connectionId())))
+                cancelled++;
+        }
+
+        /**
+         * Waits until the frame is due relative to the first one, or records how far the replay is behind.
+         */
+        private void await(long timestamp)
+        {
+            if(firstTimestamp < 0)
+                firstTimestamp = timestamp;
+            long due = start + (timestamp - firstTimestamp);
+            long wait;
+            while((wait = due - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+            maxLag = Math.max(maxLag, -wait);
+        }
+    }
+}
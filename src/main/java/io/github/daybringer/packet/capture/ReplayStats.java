@@ -0,0 +1,15 @@
+package io.github.daybringer.packet.capture;
+
+/**
+ * Outcome of replaying a capture.
+ *
+ * @param frames the number of frames read from the capture
+ * @param replayed the number of frames decoded and passed to the handlers
+ * @param undecodable the number of frames that could not be decoded into a packet
+ * @param cancelled the number of replayed packets the handlers cancelled or dropped
+ * @param elapsedNanos the time the replay took
+ * @param maxLagNanos at recorded speed, the furthest the replay fell behind the recorded timing
+ */
+public record ReplayStats(long frames, long replayed, long undecodable, long cancelled, long elapsedNanos, long maxLagNanos)
+{
+}
@@ -0,0 +1,181 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.metrics.HandlerMetrics;
+import io.github.daybringer.packet.metrics.PacketMetrics;
+import io.github.daybringer.packet.utils.HandlerWatchdogAction;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+
+/**
+ * Watches the invocations of one registered handler for its {@link HandlerMetrics} and the
+ * {@link HandlerWatchdog}.
+ * <p>
+ * Slow and failing invocations add a strike, good ones take one away, so only a handler that keeps
+ * misbehaving reaches the watchdog's limit. The strike counters are updated without synchronization by
+ * every thread invoking the handler; a lost update only delays the watchdog by a call.
+ */
+final class HandlerGuard
+{
+    private final HandlerWatchdog watchdog;
+    private final HandlerMetrics metrics;
+    private final Object instance;
+    private final String name;
+    private final PacketHandlerThreading threading;
+    private final boolean demotable;
+    private final boolean deciding;
+    private boolean spared;
+    private volatile TrippedHandler tripped;
+    private int slowStrikes;
+    private int failureStrikes;
+    private int sampled;
+
+    HandlerGuard(HandlerWatchdog watchdog, HandlerMetrics metrics, RegisteredPacketHandlerContainer handler)
+    {
+        this.watchdog = watchdog;
+        this.metrics = metrics;
+        this.instance = handler.instance();
+        this.name = handler.name();
+        this.threading = handler.threading();
+        //Main thread handlers may touch the Bukkit API, so they are never moved off the main thread
+        this.demotable = !handler.returnsResult() && !handler.coalesced() && threading == PacketHandlerThreading.NETTY;
+        this.deciding = handler.returnsResult();
+    }
+
+    /**
+     * @return {@code true} if the handler is to be invoked for the current packet
+     */
+    boolean admit()
+    {
+        TrippedHandler current = tripped;
+        if(current == null || current.action() == HandlerWatchdogAction.DEMOTE)
+            return true;
+        if(current.action() == HandlerWatchdogAction.DISABLE)
+            return false;
+        return ++sampled % watchdog.getSampleRate() == 0;
+    }
+
+    /**
+     * @return {@code true} if invocations have to be timed
+     */
+    boolean isTimed()
+    {
+        return watchdog.isEnabled() || PacketMetrics.get().isEnabled();
+    }
+
+    /**
+     * Records one invocation of the handler.
+     *
+     * @param nanos the time the invocation took
+     * @param failed whether the handler threw
+     */
+    void record(long nanos, boolean failed)
+    {
+        if(PacketMetrics.get().isEnabled())
+            metrics.record(nanos, failed);
+        if(!watchdog.isEnabled())
+            return;
+
+        TrippedHandler current = tripped;
+        if(failed)
+        {
+            if(++failureStrikes >= watchdog.getStrikes())
+                trip(watchdog.getFailingAction(), "threw on " + failureStrikes + " calls");
+        }
+        else if(failureStrikes > 0)
+            failureStrikes--;
+
+        //A demoted or sampled handler no longer blocks the thread it was slow on
+        if(current != null)
+            return;
+        if(nanos > watchdog.getBudgetNanos())
+        {
+            if(++slowStrikes >= watchdog.getStrikes())
+                trip(watchdog.getSlowAction(), "exceeded its budget of " + watchdog.getBudgetNanos() / 1_000_000D + "ms on " + slowStrikes + " calls");
+        }
+        else if(slowStrikes > 0)
+            slowStrikes--;
+    }
+
+    /**
+     * Records a failure reported after the invocation, e.g. by a future completing exceptionally.
+     */
+    void recordFailure()
+    {
+        if(PacketMetrics.get().isEnabled())
+            metrics.recordException();
+        if(watchdog.isEnabled() && ++failureStrikes >= watchdog.getStrikes())
+            trip(watchdog.getFailingAction(), "failed on " + failureStrikes + " calls");
+    }
+
+    private void trip(HandlerWatchdogAction action, String reason)
+    {
+        //Skipping a handler that decides about packets would let the skipped packets through unchecked
+        if(deciding && !watchdog.isFailOpen())
+        {
+            boolean report;
+            synchronized (this)
+            {
+                slowStrikes = 0;
+                failureStrikes = 0;
+                report = !spared;
+                spared = true;
+            }
+            if(report)
+                watchdog.spared(this, reason);
+            return;
+        }
+
+        synchronized (this)
+        {
+            TrippedHandler current = tripped;
+            if(action == HandlerWatchdogAction.DEMOTE && !demotable)
+                action = HandlerWatchdogAction.SAMPLE;
+            //Only ever escalate: DEMOTE, then SAMPLE, then DISABLE
+            if(current != null && current.action().compareTo(action) >= 0)
+                return;
+            tripped = new TrippedHandler(instance, name, threading, action, reason, System.currentTimeMillis());
+            slowStrikes = 0;
+            failureStrikes = 0;
+        }
+        watchdog.tripped(this);
+    }
+
+    /**
+     * Clears the watchdog's action and strikes.
+     *
+     * @return the action that was cleared, or {@code null} if the handler was not tripped
+     */
+    synchronized TrippedHandler reset()
+    {
+        TrippedHandler current = tripped;
+        tripped = null;
+        spared = false;
+        slowStrikes = 0;
+        failureStrikes = 0;
+        return current;
+    }
+
+    HandlerMetrics metrics()
+    {
+        return metrics;
+    }
+
+    TrippedHandler tripped()
+    {
+        return tripped;
+    }
+
+    Object instance()
+    {
+        return instance;
+    }
+
+    String name()
+    {
+        return name;
+    }
+
+    PacketHandlerThreading threading()
+    {
+        return threading;
+    }
+}
@@ -0,0 +1,301 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.utils.HandlerWatchdogAction;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import org.bukkit.Bukkit;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Circuit breaker for packet handlers that keep exceeding their time budget or keep throwing.
+ * <p>
+ * Every handler invocation is timed by the handler registry. Each invocation over the budget adds a strike
+ * and each one within it takes one away; a handler reaching the configured number of strikes is handled
+ * with the {@linkplain #setSlowAction(HandlerWatchdogAction) slow action}, {@link HandlerWatchdogAction#DEMOTE}
+ * by default. Failing invocations are counted the same way, and a handler that keeps throwing is handled with the
+ * {@linkplain #setFailingAction(HandlerWatchdogAction) failing action}, {@link HandlerWatchdogAction#DISABLE}
+ * by default, so a broken listener stops logging a stack trace per packet. Every action is logged once and
+ * passed to the registered listeners; {@link #restore(String)} undoes it.
+ * <p>
+ * Handlers that return a result, i.e. cancel, rewrite or decide about packets, are never sampled or disabled
+ * unless {@linkplain #setFailOpen(boolean) fail open} is turned on: every packet they skipped would pass
+ * unchecked, which defeats e.g. a filter or anti-cheat check. Such a handler is only reported once instead.
+ */
+public final class HandlerWatchdog
+{
+    /** Default time budget of a single handler invocation: 5 milliseconds. */
+    public static final long DEFAULT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    /** Default number of strikes before the watchdog acts. */
+    public static final int DEFAULT_STRIKES = 50;
+    /** Default share of packets a sampled handler still receives: one in 10. */
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    private final PacketHandlerRegistry registry;
+    private final List<Consumer<TrippedHandler>> listeners;
+    private volatile boolean enabled;
+    private volatile long budgetNanos;
+    private volatile int strikes;
+    private volatile int sampleRate;
+    private volatile HandlerWatchdogAction slowAction;
+    private volatile HandlerWatchdogAction failingAction;
+    private volatile boolean failOpen;
+
+    HandlerWatchdog(PacketHandlerRegistry registry)
+    {
+        this.registry = registry;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.enabled = true;
+        this.budgetNanos = DEFAULT_BUDGET_NANOS;
+        this.strikes = DEFAULT_STRIKES;
+        this.sampleRate = DEFAULT_SAMPLE_RATE;
+        this.slowAction = HandlerWatchdogAction.DEMOTE;
+        this.failingAction = HandlerWatchdogAction.DISABLE;
+    }
+
+    /**
+     * @return {@code true} if the watchdog acts on handlers, the default
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Turns the watchdog on or off. Handlers it already acted on stay that way until they are restored.
+     *
+     * @param enabled whether the watchdog acts on handlers
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the time budget of a single handler invocation, in nanoseconds
+     */
+    public long getBudgetNanos()
+    {
+        return budgetNanos;
+    }
+
+    /**
+     * @param budget the time budget of a single handler invocation, must be positive
+     * @param unit the unit of {@code budget}
+     */
+    public void setBudget(long budget, TimeUnit unit)
+    {
+        if(budget <= 0)
+            throw new IllegalArgumentException("Budget must be positive");
+        budgetNanos = unit.toNanos(budget);
+    }
+
+    /**
+     * @return the number of strikes before the watchdog acts
+     */
+    public int getStrikes()
+    {
+        return strikes;
+    }
+
+    /**
+     * @param strikes the number of strikes before the watchdog acts, must be positive
+     */
+    public void setStrikes(int strikes)
+    {
+        if(strikes <= 0)
+            throw new IllegalArgumentException("Strikes must be positive");
+        this.strikes = strikes;
+    }
+
+    /**
+     * @return n, where a sampled handler receives every n-th packet
+     */
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate n, where a sampled handler receives every n-th packet, must be positive
+     */
+    public void setSampleRate(int sampleRate)
+    {
+        if(sampleRate <= 0)
+            throw new IllegalArgumentException("Sample rate must be positive");
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return what happens to handlers that keep exceeding the budget
+     */
+    public HandlerWatchdogAction getSlowAction()
+    {
+        return slowAction;
+    }
+
+    /**
+     * @param slowAction what happens to handlers that keep exceeding the budget
+     */
+    public void setSlowAction(HandlerWatchdogAction slowAction)
+    {
+        this.slowAction = Objects.requireNonNull(slowAction);
+    }
+
+    /**
+     * @return what happens to handlers that keep throwing
+     */
+    public HandlerWatchdogAction getFailingAction()
+    {
+        return failingAction;
+    }
+
+    /**
+     * @param failingAction what happens to handlers that keep throwing
+     */
+    public void setFailingAction(HandlerWatchdogAction failingAction)
+    {
+        this.failingAction = Objects.requireNonNull(failingAction);
+    }
+
+    /**
+     * @return {@code true} if handlers returning a result may be sampled or disabled, {@code false} by default
+     */
+    public boolean isFailOpen()
+    {
+        return failOpen;
+    }
+
+    /**
+     * Lets the watchdog sample or disable handlers that cancel, rewrite or decide about packets. The packets
+     * such a handler skips are passed on as if it had not cancelled them.
+     *
+     * @param failOpen whether handlers returning a result may be sampled or disabled
+     */
+    public void setFailOpen(boolean failOpen)
+    {
+        this.failOpen = failOpen;
+    }
+
+    /**
+     * Logs a handler returning a result that reached the limit while the watchdog may not act on it.
+     */
+    void spared(HandlerGuard guard, String reason)
+    {
+        Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + guard.name() + " " + reason + ", still passing it every packet"
+                + " as it decides about packets. Allow sampling or disabling it through HandlerWatchdog#setFailOpen(boolean).");
+    }
+
+    /**
+     * @param listener called on the thread of the offending invocation whenever the watchdog acts on a handler
+     */
+    public void addListener(Consumer<TrippedHandler> listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     * @return {@code true} if the listener was added before
+     */
+    public boolean removeListener(Consumer<TrippedHandler> listener)
+    {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * @return the registered handlers the watchdog currently acts on
+     */
+    public List<TrippedHandler> getTrippedHandlers()
+    {
+        return registry.guards().stream()
+                .map(HandlerGuard::tripped)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Re-enables a handler at full rate and on its registered threading mode.
+     *
+     * @param name the declaring class and method name of the handler, as in {@link TrippedHandler#name()}
+     * @return {@code true} if the watchdog acted on the handler
+     */
+    public boolean restore(String name)
+    {
+        boolean restored = false;
+        for(HandlerGuard guard : registry.guards())
+        {
+            if(guard.name().equals(name))
+                restored |= restore(guard);
+        }
+        return restored;
+    }
+
+    /**
+     * Re-enables every handler of a listener.
+     *
+     * @param listener the listener instance
+     * @return {@code true} if the watchdog acted on any of its handlers
+     */
+    public boolean restore(Object listener)
+    {
+        boolean restored = false;
+        for(HandlerGuard guard : registry.guards())
+        {
+            if(guard.instance() == listener)
+                restored |= restore(guard);
+        }
+        return restored;
+    }
+
+    /**
+     * Re-enables every handler the watchdog acted on.
+     */
+    public void restoreAll()
+    {
+        registry.guards().forEach(this::restore);
+    }
+
+    private boolean restore(HandlerGuard guard)
+    {
+        TrippedHandler cleared = guard.reset();
+        if(cleared == null)
+            return false;
+        registry.rethread(guard, guard.threading());
+        return true;
+    }
+
+    /**
+     * Applies and reports the action a guard just tripped.
+     */
+    void tripped(HandlerGuard guard)
+    {
+        TrippedHandler tripped = guard.tripped();
+        if(tripped == null)
+            return;
+        if(tripped.action() == HandlerWatchdogAction.DEMOTE)
+            registry.rethread(guard, PacketHandlerThreading.ASYNC);
+
+        Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + tripped.name() + " " + tripped.reason() + ", "
+                + switch (tripped.action())
+                {
+                    case DEMOTE -> "moved it to threading ASYNC";
+                    case SAMPLE -> "only passing it every " + sampleRate + ". packet";
+                    case DISABLE -> "disabled it";
+                } + ". Restore it through PacketHandler#getWatchdog().");
+        for(Consumer<TrippedHandler> listener : listeners)
+        {
+            try {
+                listener.accept(tripped);
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Error reporting tripped packet handler " + tripped.name(), e);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.daybringer.packet.handle;
 
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
 import net.minecraft.network.protocol.Packet;
 
 import java.util.List;
@@ -7,5 +8,7 @@ import java.util.List;
 public interface IPacketCancelHandler<TCancelHandler>
 {
     boolean callCancelHandlers(final Packet<?> packet);
+    boolean callCancelHandlers(final Packet<?> packet, PacketHandlerThreading threading);
+    boolean hasCancelHandlers(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading);
     List<TCancelHandler> getPacketCancelHandlers(Class<? extends Packet<?>> packetType);
 }
@@ -1,9 +1,12 @@
 package io.github.daybringer.packet.handle;
 
 import io.github.daybringer.packet.IPacketRegister;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
 import net.minecraft.network.protocol.Packet;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface IPacketHandler<THandler> extends IPacketRegister<THandler>
 {
@@ -14,5 +17,78 @@ public interface IPacketHandler<THandler> extends IPacketRegister<THandler>
      * @return {@code true} if any handler indicates the packet should be canceled; {@code false} otherwise
      */
     boolean callHandlers(final Packet<?> packet);
+
+    /**
+     * Invokes the registered packet handlers with the given threading mode for the given packet. Handlers that
+     * decide through a {@link CompletableFuture} only count if their future is already complete.
+     *
+     * @param packet the packet to process
+     * @param threading the threading mode of the handlers to invoke
+     * @return {@code true} if the handlers cancelled the packet; {@code false} otherwise
+     */
+    boolean callHandlers(final Packet<?> packet, PacketHandlerThreading threading);
+
+    /**
+     * Invokes the registered packet handlers with the given threading mode for the given packet without
+     * waiting for handlers that decide through a {@link CompletableFuture}.
+     *
+     * @param packet the packet to process
+     * @param threading the threading mode of the handlers to invoke
+     * @param resume runs the remaining handlers on their thread once a pending future completes
+     * @return the future cancellation result of the handlers
+     */
+    CompletableFuture<Boolean> callHandlersDeferred(final Packet<?> packet, PacketHandlerThreading threading, Executor resume);
+
+    /**
+     * Invokes the event loop handlers of an outgoing packet, which may drop or replace it.
+     *
+     * @param packet the packet about to be encoded
+     * @return the packet to send, or {@code null} if a handler dropped it
+     */
+    Packet<?> callOutboundHandlers(final Packet<?> packet);
+
+    /**
+     * Checks whether any handler or cancel handler is registered for a packet type.
+     * <p>
+     * Packets of types no handler is interested in are passed on without interception.
+     *
+     * @param packetType the class of packet
+     * @return {@code true} if the packet type has to be intercepted
+     */
+    boolean isHandled(Class<?> packetType);
+
+    /**
+     * Checks whether any handler with the given threading mode is registered for a packet type.
+     *
+     * @param packetType the class of packet
+     * @param threading the threading mode to look for
+     * @return {@code true} if at least one handler would be invoked
+     */
+    boolean hasHandlers(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading);
+
+    /**
+     * Checks whether any handler with the given threading mode decides through a {@link CompletableFuture},
+     * so its packets have to be dispatched with {@link #callHandlersDeferred(Packet, PacketHandlerThreading, Executor)}.
+     *
+     * @param packetType the class of packet
+     * @param threading the threading mode to look for
+     * @return {@code true} if at least one handler returns a future
+     */
+    boolean hasDeferredHandlers(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading);
+
+    /**
+     * @param packetType the class of packet
+     * @return the handlers of the packet type that only receive the latest packet per player, unmodifiable
+     */
+    List<THandler> getCoalescedHandlers(Class<? extends Packet<?>> packetType);
+
+    /**
+     * Invokes a coalescing handler with the latest packet it was collected for, unless the handler was
+     * unregistered in the meantime. Must be called on the main thread.
+     *
+     * @param handler the coalescing handler
+     * @param packet the latest packet for the handler
+     */
+    void callCoalescedHandler(THandler handler, final Packet<?> packet);
     List<THandler> getPacketHandlers(Class<? extends Packet<?>> packetType);
 }
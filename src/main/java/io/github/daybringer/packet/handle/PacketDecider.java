@@ -0,0 +1,27 @@
+package io.github.daybringer.packet.handle;
+
+import net.minecraft.network.protocol.Packet;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A strongly typed call into a packet handler method that decides about cancellation later, bound to its
+ * listener instance.
+ * <p>
+ * Deciding handlers return a {@link CompletableFuture} instead of blocking their thread, e.g. while a
+ * database or cache lookup is running. The packet is held until the future completes with {@code true}
+ * to cancel or {@code false} to pass it on; the packets of the connection that arrive in the meantime
+ * are held behind it.
+ */
+@FunctionalInterface
+public interface PacketDecider
+{
+    /**
+     * Invokes the handler method with the given packet.
+     *
+     * @param packet the packet to pass to the handler
+     * @return the future cancellation result; {@code null} counts as not cancelled
+     * @throws Exception anything thrown by the handler
+     */
+    CompletableFuture<Boolean> decide(Packet<?> packet) throws Exception;
+}
@@ -2,17 +2,24 @@ package io.github.daybringer.packet.handle;
 
 import io.github.daybringer.packet.annotations.PacketCancelHandler;
 import io.github.daybringer.packet.listen.Listenable;
+import io.github.daybringer.packet.metrics.PacketHandlerEvent;
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
 import io.github.daybringer.packet.utils.PacketHandlerType;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
 import net.minecraft.network.protocol.Packet;
 import org.bukkit.Bukkit;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 /**
- * Manages registration and invocation of packet handlers for server-bound packets.
+ * Manages registration and invocation of packet handlers for server-bound and client-bound packets.
  * <p>
  * Supports two types of handlers:
  * <ul>
@@ -22,49 +29,103 @@ import java.util.logging.Level;
  * <p>
  * Registered handlers are invoked when packets arrive. Handlers must be annotated
  * with {@link io.github.daybringer.packet.annotations.PacketHandler} and comply with the
- * expected method signatures and return types.
+ * expected method signatures and return types. Each handler declares the thread it is invoked on
+ * through its {@link PacketHandlerThreading} mode.
+ * <p>
+ * Every handler invocation is timed as a {@link PacketHandlerEvent} for JDK Flight Recorder. The overloads
+ * taking the player's UUID attribute the events to the player.
  */
 public class PacketHandler implements IPacketHandler<RegisteredPacketHandlerContainer>, IPacketCancelHandler<RegisteredPacketHandlerContainer>
 {
-    private final HashMap<Class<? extends Packet<?>>, List<RegisteredPacketHandlerContainer>> packetHandlers;
-    private final HashMap<Class<? extends Packet<?>>, List<RegisteredPacketHandlerContainer>> packetCancelHandlers;
+    private final PacketHandlerRegistry registry;
     /**
      * Creates a new PacketHandler with empty handler registries.
      */
     public PacketHandler()
     {
-        packetHandlers = new HashMap<>();
-        packetCancelHandlers = new HashMap<>();
-    }
-    /**
-     * Adds a normal packet handler for the given packet class.
-     *
-     * @param packetClass the class of packet to handle
-     * @param handler the handler to add
-     */
-    private void addHandler(Class<? extends Packet<?>> packetClass, RegisteredPacketHandlerContainer handler)
-    {
-        packetHandlers.compute(packetClass, (k, v) -> (v == null) ? new ArrayList<>() : v).add(handler);
-    }
-
-    private void addCancelHandler(Class<? extends Packet<?>> packetClass, RegisteredPacketHandlerContainer handler)
-    {
-        packetCancelHandlers.compute(packetClass, (k, v) -> (v == null) ? new ArrayList<>() : v).add(handler);
+        registry = new PacketHandlerRegistry(PacketTypeRegistry.get());
     }
 
     /**
      * Registers all valid packet handler methods from the given listener instance.
      * <p>
-     * Only methods annotated with {@link io.github.daybringer.packet.annotations.PacketHandler} are considered.
+     * If the annotation processor generated a {@link PacketListenerDispatcher} for the listener's class,
+     * the dispatcher registers the handlers directly. Otherwise the class is scanned with reflection, and
+     * only methods annotated with {@link io.github.daybringer.packet.annotations.PacketHandler} or
+     * {@link PacketCancelHandler} are considered.
      * <p>
      * For handlers marked as cancelable, the method must return a boolean.
-     * Methods must take exactly one parameter extending {@link Packet} and represent a server-bound packet.
+     * Methods must take exactly one parameter extending {@link Packet}.
+     * A handler declaring an abstract packet supertype receives every known subclass of it.
+     * <p>
+     * Handlers of client-bound packets intercept them on the way out. With
+     * {@link PacketHandlerThreading#NETTY} they may drop a packet by being cancelable and returning
+     * {@code true}, or replace it by returning a packet (see {@link PacketRewriter}); handlers with
+     * other threading modes only observe the packets that are sent.
+     * <p>
+     * Handlers with {@link io.github.daybringer.packet.annotations.PacketHandler#coalesce()} only receive the
+     * latest serverbound packet per player and main thread drain; they must be normal main thread handlers
+     * returning {@code void}.
+     * <p>
+     * Handlers of serverbound packets may return a {@code CompletableFuture<Boolean>} instead of a boolean;
+     * the packet listener holds the packet until the future completes, see {@link PacketDecider}.
+     * <p>
+     * Handlers of a packet run in the order of their {@link PacketHandlerPriority}, then in registration order.
+     * {@link PacketHandlerPriority#MONITOR} handlers must be normal handlers returning {@code void}.
+     *
+     * All handlers of the listener become visible to dispatching threads at once.
      *
      * @param listener the packet listener instance containing handler methods
-     * @return {@code true} if registration succeeded (currently always returns {@code false})
+     * @return {@code true} if at least one handler was registered; {@code false} otherwise
      */
     @Override
     public boolean registerPacketListener(Listenable listener)
+    {
+        Collector collector = new Collector();
+
+        @SuppressWarnings("unchecked")
+        PacketListenerDispatcher<Listenable> dispatcher = (PacketListenerDispatcher<Listenable>) PacketListenerDispatchers.find(listener.getClass());
+        if(dispatcher != null)
+            dispatcher.register(listener, collector);
+        else
+            collectReflectively(listener, collector);
+
+        if(collector.registrations.isEmpty())
+            return false;
+        registry.register(collector.registrations);
+        return true;
+    }
+
+    /**
+     * Removes all handlers of the given listener instance.
+     *
+     * @param listener the packet listener instance to remove
+     * @return {@code true} if any handler was removed; {@code false} otherwise
+     */
+    @Override
+    public boolean unregisterPacketListener(Listenable listener)
+    {
+        return registry.unregister(listener);
+    }
+
+    /**
+     * Removes all registered handlers.
+     */
+    public void clearHandlers()
+    {
+        registry.clear();
+    }
+
+    /**
+     * @return the watchdog that demotes, samples or disables handlers which keep exceeding their time
+     *         budget or keep throwing
+     */
+    public HandlerWatchdog getWatchdog()
+    {
+        return registry.watchdog();
+    }
+
+    private void collectReflectively(Listenable listener, Collector collector)
     {
         for(Method method : listener.getClass().getDeclaredMethods())
         {
@@ -81,9 +142,9 @@ public class PacketHandler implements IPacketHandler<RegisteredPacketHandlerCont
                 //If marked as cancel handler verify the return type
                 if(annotation.handlerType() == PacketHandlerType.CANCELABLE)
                 {
-                    if(method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class)
+                    if(method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class && method.getReturnType() != CompletableFuture.class)
                     {
-                        Bukkit.getLogger().log(Level.WARNING, "Packet Handler: "+ method.getClass().getSimpleName() + " : " + method.getName() + "with handler type CANCELABLE must return a boolean.");
+                        Bukkit.getLogger().log(Level.WARNING, "Packet Handler: "+ method.getClass().getSimpleName() + " : " + method.getName() + "with handler type CANCELABLE must return a boolean or a CompletableFuture<Boolean>.");
                         continue;
                     }
                 }
@@ -94,79 +155,198 @@ public class PacketHandler implements IPacketHandler<RegisteredPacketHandlerCont
 
             @SuppressWarnings("unchecked")
             Class<? extends Packet<?>> packetType = (Class<? extends Packet<?>>) params[0];
+            boolean cancelHandler = method.isAnnotationPresent(PacketCancelHandler.class);
+            PacketHandlerThreading threading = cancelHandler
+                    ? method.getAnnotation(PacketCancelHandler.class).threading()
+                    : method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).threading();
+            boolean returnsPacket = Packet.class.isAssignableFrom(method.getReturnType());
+
+            //Clientbound packets can only be dropped or replaced on the event loop, before they are encoded
+            if(isClientboundPacket(packetType))
+            {
+                boolean cancelable = !cancelHandler && (returnsPacket
+                        || method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).handlerType() == PacketHandlerType.CANCELABLE);
+                if(cancelable && threading != PacketHandlerThreading.NETTY)
+                {
+                    Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " can only drop or replace clientbound packets with threading NETTY.");
+                    continue;
+                }
+            }
+            else if(returnsPacket)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " can only replace clientbound packets.");
+                continue;
+            }
+            if(returnsPacket && cancelHandler)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " is a cancel handler and cannot replace packets.");
+                continue;
+            }
+
+            //Futures decide about inbound packets only, the outbound path cannot wait
+            boolean returnsFuture = method.getReturnType() == CompletableFuture.class;
+            if(returnsFuture && (cancelHandler || isClientboundPacket(packetType) || !returnsBooleanFuture(method)))
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " can only return a CompletableFuture<Boolean> for serverbound packets.");
+                continue;
+            }
 
-            //Is a server bound packet
-            if(!isServerboundPacket(packetType))
+            boolean coalesce = !cancelHandler && method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).coalesce();
+            if(coalesce && (threading != PacketHandlerThreading.MAIN || method.getReturnType() != void.class
+                    || method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).handlerType() != PacketHandlerType.NORMAL
+                    || isClientboundPacket(packetType)))
             {
+                Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " can only coalesce serverbound packets as a NORMAL handler with threading MAIN returning void.");
                 continue;
             }
-            method.setAccessible(true);
-            if(method.isAnnotationPresent(io.github.daybringer.packet.annotations.PacketCancelHandler.class))
+
+            PacketHandlerPriority priority = cancelHandler ? PacketHandlerPriority.NORMAL
+                    : method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).priority();
+            if(priority == PacketHandlerPriority.MONITOR && (method.getReturnType() != void.class
+                    || method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).handlerType() != PacketHandlerType.NORMAL))
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " with priority MONITOR must be a NORMAL handler returning void.");
+                continue;
+            }
+
+            String name = method.getDeclaringClass().getName() + "#" + method.getName();
+            RegisteredPacketHandlerContainer container;
+            try {
+                if(coalesce)
+                    container = RegisteredPacketHandlerContainer.coalescing(listener, name, PacketHandlerInvokers.create(listener, method));
+                else if(returnsFuture)
+                    container = RegisteredPacketHandlerContainer.deferred(listener, name, threading, PacketHandlerInvokers.createDecider(listener, method));
+                else if(returnsPacket)
+                    container = RegisteredPacketHandlerContainer.rewriting(listener, name, threading, PacketHandlerInvokers.createRewriter(listener, method));
+                else
+                {
+                    boolean returnsResult = method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class;
+                    container = new RegisteredPacketHandlerContainer(listener, name, threading, returnsResult, PacketHandlerInvokers.create(listener, method));
+                }
+            }
+            catch (IllegalArgumentException e)
             {
-                addCancelHandler(packetType, new RegisteredPacketHandlerContainer(listener, method));
+                Bukkit.getLogger().log(Level.WARNING, "Packet Handler: " + method.getDeclaringClass().getSimpleName() + " : " + method.getName() + " could not be accessed.", e);
+                continue;
             }
-            else if(method.isAnnotationPresent(io.github.daybringer.packet.annotations.PacketHandler.class))
-                addHandler(packetType, new RegisteredPacketHandlerContainer(listener, method));
+
+            if(!cancelHandler)
+                container = container.withOrdering(priority, method.getAnnotation(io.github.daybringer.packet.annotations.PacketHandler.class).ignoreCancelled());
+
+            if(cancelHandler)
+                collector.cancelHandler(packetType, container);
+            else
+                collector.handler(packetType, container);
+        }
+    }
+
+    private static boolean returnsBooleanFuture(Method method)
+    {
+        return method.getGenericReturnType() instanceof ParameterizedType future
+                && future.getActualTypeArguments()[0] == Boolean.class;
+    }
+
+    /**
+     * Collects the handlers of one listener so they are published in a single snapshot.
+     */
+    private static final class Collector implements PacketListenerDispatcher.Registrar
+    {
+        private final List<PacketHandlerRegistry.Registration> registrations = new ArrayList<>();
+
+        @Override
+        public void handler(Class<? extends Packet<?>> packetType, RegisteredPacketHandlerContainer handler)
+        {
+            registrations.add(new PacketHandlerRegistry.Registration(packetType, handler, false));
+        }
+
+        @Override
+        public void cancelHandler(Class<? extends Packet<?>> packetType, RegisteredPacketHandlerContainer handler)
+        {
+            registrations.add(new PacketHandlerRegistry.Registration(packetType, handler, true));
         }
-        return false;
     }
 
     /**
      * Retrieves the list of normal handlers registered for the specified packet type.
      *
      * @param packetType the class of packet
-     * @return a list of registered normal handlers, or an empty list if none exist
+     * @return an unmodifiable list of registered normal handlers, or an empty list if none exist
      */
     public List<RegisteredPacketHandlerContainer> getPacketHandlers(Class<? extends Packet<?>> packetType)
     {
-        if(!packetHandlers.containsKey(packetType))
-            return new ArrayList<>();
-
-        var handlers = packetHandlers.get(packetType);
-
-        //Make sure handlers are not null;
-        handlers = handlers == null ? new ArrayList<>() : handlers;
+        return registry.table(packetType).handlers();
+    }
 
-        return handlers;
+    /**
+     * Calls all registered normal packet handlers with the {@link PacketHandlerThreading#MAIN} threading mode.
+     *
+     * @param packet the packet to process
+     * @return {@code true} if the packet was cancelled, {@code false} otherwise
+     * @see #callHandlers(Packet, PacketHandlerThreading)
+     */
+    @Override
+    public boolean callHandlers(Packet<?> packet)
+    {
+        return callHandlers(packet, PacketHandlerThreading.MAIN);
     }
 
     /**
-     * Calls all registered normal packet handlers for the given packet.
+     * Calls the registered normal packet handlers with the given threading mode for the given packet.
      * <p>
-     * This method must be called on the main server thread.
-     * If any handler returns a {@code Boolean}, that value is immediately returned,
-     * which may indicate cancellation of the packet.
+     * {@link PacketHandlerThreading#MAIN} handlers must be called on the main server thread,
+     * the other modes on whichever thread the caller provides for them.
+     * Handlers run in {@link PacketHandlerPriority} order. Each cancelable handler that runs sets the
+     * outcome with its result; once the packet is cancelled, handlers that ignore cancelled packets are
+     * skipped. {@link PacketHandlerPriority#MONITOR} handlers run last and do not change the outcome.
+     * A handler returning a {@link CompletableFuture} is never waited for: a pending future is logged and counts
+     * as not cancelled; see {@link #callHandlersDeferred(Packet, PacketHandlerThreading, Executor)} to wait for it.
      * Exceptions thrown by handlers are caught and logged.
      *
      * @param packet the packet to process
-     * @return {@code true} if a handler returned {@code true} (packet canceled), {@code false} otherwise
+     * @param threading the threading mode of the handlers to call
+     * @return {@code true} if the packet was cancelled, {@code false} otherwise
      */
     @Override
-    public boolean callHandlers(Packet<?> packet)
+    public boolean callHandlers(Packet<?> packet, PacketHandlerThreading threading)
     {
-        boolean onMainThread = Bukkit.isPrimaryThread();
+        return callHandlers(packet, threading, null);
+    }
+
+    /**
+     * Calls the registered normal packet handlers as {@link #callHandlers(Packet, PacketHandlerThreading)}
+     * does, attributing their flight recorder events to a player.
+     *
+     * @param packet the packet to process
+     * @param threading the threading mode of the handlers to call
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @return {@code true} if the packet was cancelled, {@code false} otherwise
+     */
+    public boolean callHandlers(Packet<?> packet, PacketHandlerThreading threading, UUID playerId)
+    {
+        boolean allowedThread = threading != PacketHandlerThreading.MAIN || Bukkit.isPrimaryThread();
 
         @SuppressWarnings("unchecked")
         Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
 
-        for(RegisteredPacketHandlerContainer handler : getPacketHandlers(packetClass))
+        boolean cancelled = false;
+        for(RegisteredPacketHandlerContainer handler : registry.table(packetClass).handlers(threading))
         {
-            if(onMainThread)
+            if(allowedThread)
             {
+                if(cancelled && handler.ignoreCancelled() || !handler.admitted())
+                    continue;
+                PacketHandlerEvent event = new PacketHandlerEvent();
+                event.begin();
                 try {
-                    Method method = handler.handle();
-                    if(!method.canAccess(handler.instance()))
-                    {
-                        method.setAccessible(true);
-                    }
-                    Object obj = method.invoke(handler.instance());
+                    boolean result = handler.invoker().invoke(packet);
                     //configure if handle has returning type
-                    if(obj instanceof Boolean bool)
-                        return bool;
+                    if(handler.returnsResult() && !handler.isMonitor())
+                        cancelled = result;
 
                 } catch (Exception e) {
                     Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packetClass, e);
                 }
+                event.complete(packetClass, playerId, handler.name(), threading, false);
 
             }
             else
@@ -175,30 +355,304 @@ public class PacketHandler implements IPacketHandler<RegisteredPacketHandlerCont
             }
         }
 
-        return false;
+        return cancelled;
+    }
+
+    /**
+     * Calls the registered normal packet handlers with the given threading mode for the given packet,
+     * without waiting for handlers that return a {@link CompletableFuture}.
+     * <p>
+     * Handlers run as in {@link #callHandlers(Packet, PacketHandlerThreading)}. A future returned by a
+     * handler sets the outcome once it completes, a {@code null} future counts as not cancelled and a
+     * failed one leaves the outcome unchanged. The handlers after a pending future are resumed through
+     * the given executor, which has to run them on the thread their threading mode asks for.
+     *
+     * @param packet the packet to process
+     * @param threading the threading mode of the handlers to call
+     * @param resume runs the remaining handlers once a pending future completes
+     * @return the future cancellation result of the handlers
+     */
+    @Override
+    public CompletableFuture<Boolean> callHandlersDeferred(Packet<?> packet, PacketHandlerThreading threading, Executor resume)
+    {
+        return callHandlersDeferred(packet, threading, resume, null);
     }
 
+    /**
+     * Calls the registered normal packet handlers as
+     * {@link #callHandlersDeferred(Packet, PacketHandlerThreading, Executor)} does, attributing their flight
+     * recorder events to a player.
+     *
+     * @param packet the packet to process
+     * @param threading the threading mode of the handlers to call
+     * @param resume runs the remaining handlers once a pending future completes
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @return the future cancellation result of the handlers
+     */
+    public CompletableFuture<Boolean> callHandlersDeferred(Packet<?> packet, PacketHandlerThreading threading, Executor resume, UUID playerId)
+    {
+        return callHandlersDeferred(registry.table(packet.getClass()).handlers(threading), 0, packet, threading, false, resume, playerId);
+    }
+
+    private CompletableFuture<Boolean> callHandlersDeferred(RegisteredPacketHandlerContainer[] handlers, int from, Packet<?> packet,
+                                                            PacketHandlerThreading threading, boolean cancelled, Executor resume,
+                                                            UUID playerId)
+    {
+        boolean allowedThread = threading != PacketHandlerThreading.MAIN || Bukkit.isPrimaryThread();
+
+        for(int i = from; i < handlers.length; i++)
+        {
+            RegisteredPacketHandlerContainer handler = handlers[i];
+            if(!allowedThread)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Packet handler must be called on the main thread.");
+                continue;
+            }
+            if(cancelled && handler.ignoreCancelled() || !handler.admitted())
+                continue;
+            PacketHandlerEvent event = new PacketHandlerEvent();
+            event.begin();
+            try {
+                if(handler.decider() != null)
+                {
+                    CompletableFuture<Boolean> decision = handler.decider().decide(packet);
+                    if(decision == null)
+                    {
+                        cancelled = false;
+                        continue;
+                    }
+                    if(decision.isDone() && !decision.isCompletedExceptionally())
+                    {
+                        cancelled = Boolean.TRUE.equals(decision.getNow(false));
+                        continue;
+                    }
+
+                    int next = i + 1;
+                    boolean before = cancelled;
+                    return decision.handle((result, error) -> {
+                        if(error == null)
+                            return Boolean.TRUE.equals(result);
+                        Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), error);
+                        return before;
+                    }).thenComposeAsync(result -> callHandlersDeferred(handlers, next, packet, threading, result, resume, playerId), resume);
+                }
+                boolean result = handler.invoker().invoke(packet);
+                if(handler.returnsResult() && !handler.isMonitor())
+                    cancelled = result;
+
+            } catch (Exception e) {
+                Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+            }
+            finally
+            {
+                event.complete(packet.getClass(), playerId, handler.name(), threading, false);
+            }
+        }
+
+        return CompletableFuture.completedFuture(cancelled);
+    }
+
+    /**
+     * Calls the registered {@link PacketHandlerThreading#NETTY} handlers of an outgoing packet.
+     * <p>
+     * Handlers run in {@link PacketHandlerPriority} order. A cancelable handler returning {@code true} or a
+     * rewriting handler returning {@code null} drops the packet, and one returning {@code false} or a packet
+     * lets it through again; once dropped, the packet is only passed on to handlers that do not ignore
+     * cancelled packets. A rewriting handler returning another packet replaces it for the following handlers.
+     * Once a packet is replaced by one of a different class, the remaining handlers of the original class are
+     * skipped and the monitor handlers of the new class receive it instead.
+     * Exceptions thrown by handlers are caught and logged.
+     *
+     * @param packet the packet about to be encoded
+     * @return the packet to send, or {@code null} to drop it
+     */
+    @Override
+    public Packet<?> callOutboundHandlers(Packet<?> packet)
+    {
+        return callOutboundHandlers(packet, null);
+    }
+
+    /**
+     * Calls the event loop handlers of an outgoing packet as {@link #callOutboundHandlers(Packet)} does,
+     * attributing their flight recorder events to a player.
+     *
+     * @param packet the packet about to be encoded
+     * @param playerId the player the packet is sent to, or {@code null} if not known
+     * @return the packet to send, or {@code null} to drop it
+     */
+    public Packet<?> callOutboundHandlers(Packet<?> packet, UUID playerId)
+    {
+        Packet<?> current = packet;
+        boolean dropped = false;
+        for(RegisteredPacketHandlerContainer handler : registry.table(packet.getClass()).handlers(PacketHandlerThreading.NETTY))
+        {
+            if(dropped && handler.ignoreCancelled() || !handler.admitted())
+                continue;
+            PacketHandlerEvent event = new PacketHandlerEvent();
+            event.begin();
+            try {
+                if(handler.isMonitor())
+                    handler.invoker().invoke(current);
+                else if(handler.rewriter() != null)
+                {
+                    Packet<?> result = handler.rewriter().rewrite(current);
+                    dropped = result == null;
+                    if(result != null && result.getClass() != packet.getClass())
+                    {
+                        callOutboundMonitors(result, playerId);
+                        return result;
+                    }
+                    if(result != null)
+                        current = result;
+                }
+                else
+                {
+                    boolean result = handler.invoker().invoke(current);
+                    if(handler.returnsResult())
+                        dropped = result;
+                }
+            } catch (Exception e) {
+                Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+            }
+            finally
+            {
+                event.complete(packet.getClass(), playerId, handler.name(), PacketHandlerThreading.NETTY, false);
+            }
+        }
+        return dropped ? null : current;
+    }
+
+    /**
+     * Calls the {@link PacketHandlerPriority#MONITOR} event loop handlers of an outgoing packet that replaced
+     * a packet of another class.
+     */
+    private void callOutboundMonitors(Packet<?> packet, UUID playerId)
+    {
+        for(RegisteredPacketHandlerContainer handler : registry.table(packet.getClass()).handlers(PacketHandlerThreading.NETTY))
+        {
+            if(!handler.isMonitor() || !handler.admitted())
+                continue;
+            PacketHandlerEvent event = new PacketHandlerEvent();
+            event.begin();
+            try {
+                handler.invoker().invoke(packet);
+            } catch (Exception e) {
+                Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+            }
+            finally
+            {
+                event.complete(packet.getClass(), playerId, handler.name(), PacketHandlerThreading.NETTY, false);
+            }
+        }
+    }
 
     @Override
-    public boolean callCancelHandlers(Packet<?> packet) {
-        boolean onMainThread = Bukkit.isPrimaryThread();
+    public boolean isHandled(Class<?> packetType)
+    {
+        return !registry.table(packetType).isEmpty();
+    }
+
+    @Override
+    public boolean hasHandlers(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading)
+    {
+        return registry.table(packetType).handlers(threading).length > 0;
+    }
+
+    /**
+     * @param packetType the class of packet
+     * @param threading the threading mode
+     * @return {@code true} if {@link PacketHandlerPriority#MONITOR} handlers with the given threading mode
+     *         observe cancelled packets of the type
+     */
+    public boolean hasCancelledMonitors(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading)
+    {
+        return registry.table(packetType).cancelledMonitors(threading).length > 0;
+    }
+
+    /**
+     * Calls the {@link PacketHandlerPriority#MONITOR} handlers with the given threading mode that do not
+     * ignore cancelled packets, for a packet the handlers of an earlier threading mode cancelled.
+     * <p>
+     * {@link PacketHandlerThreading#MAIN} handlers must be called on the main server thread.
+     * Exceptions thrown by handlers are caught and logged.
+     *
+     * @param packet the cancelled packet
+     * @param threading the threading mode of the monitor handlers to call
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     */
+    public void callCancelledMonitors(Packet<?> packet, PacketHandlerThreading threading, UUID playerId)
+    {
+        if(threading == PacketHandlerThreading.MAIN && !Bukkit.isPrimaryThread())
+        {
+            Bukkit.getLogger().log(Level.WARNING, "Packet handler must be called on the main thread.");
+            return;
+        }
 
         @SuppressWarnings("unchecked")
         Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+        for(RegisteredPacketHandlerContainer handler : registry.table(packetClass).cancelledMonitors(threading))
+        {
+            if(!handler.admitted())
+                continue;
+            PacketHandlerEvent event = new PacketHandlerEvent();
+            event.begin();
+            try {
+                handler.invoker().invoke(packet);
+            } catch (Exception e) {
+                Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packetClass, e);
+            }
+            event.complete(packetClass, playerId, handler.name(), threading, false);
+        }
+    }
 
-        for(RegisteredPacketHandlerContainer handler : getPacketCancelHandlers(packetClass))
+    @Override
+    public boolean callCancelHandlers(Packet<?> packet)
+    {
+        return callCancelHandlers(packet, PacketHandlerThreading.MAIN);
+    }
+
+    @Override
+    public boolean callCancelHandlers(Packet<?> packet, PacketHandlerThreading threading) {
+        return callCancelHandlers(packet, threading, null);
+    }
+
+    /**
+     * Calls the cancel handlers of a cancelled packet as {@link #callCancelHandlers(Packet, PacketHandlerThreading)}
+     * does, attributing their flight recorder events to a player.
+     *
+     * @param packet the cancelled packet
+     * @param threading the threading mode of the cancel handlers to call
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @return {@code true} if a cancel handler was called
+     */
+    public boolean callCancelHandlers(Packet<?> packet, PacketHandlerThreading threading, UUID playerId)
+    {
+        boolean allowedThread = threading != PacketHandlerThreading.MAIN || Bukkit.isPrimaryThread();
+
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+
+        for(RegisteredPacketHandlerContainer handler : registry.table(packetClass).cancelHandlers(threading))
         {
-            if(onMainThread)
+            if(allowedThread)
             {
+                if(!handler.admitted())
+                    continue;
+                PacketHandlerEvent event = new PacketHandlerEvent();
+                event.begin();
                 try {
 
-                    handler.handle().invoke(handler.instance(), packet);
+                    handler.invoker().invoke(packet);
                     //configure if handle has returning type
                     return true;
 
                 } catch (Exception e) {
                     Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packetClass, e);
                 }
+                finally
+                {
+                    event.complete(packetClass, playerId, handler.name(), threading, true);
+                }
 
             }
             else
@@ -211,15 +665,45 @@ public class PacketHandler implements IPacketHandler<RegisteredPacketHandlerCont
     }
 
     @Override
-    public List<RegisteredPacketHandlerContainer> getPacketCancelHandlers(Class<? extends Packet<?>> packetType) {
-        if(!packetCancelHandlers.containsKey(packetType))
-            return new ArrayList<>();
+    public boolean hasDeferredHandlers(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading)
+    {
+        return registry.table(packetType).hasDeferred(threading);
+    }
 
-        var handlers = packetCancelHandlers.get(packetType);
+    @Override
+    public List<RegisteredPacketHandlerContainer> getCoalescedHandlers(Class<? extends Packet<?>> packetType)
+    {
+        return registry.table(packetType).coalescedHandlers();
+    }
+
+    @Override
+    public void callCoalescedHandler(RegisteredPacketHandlerContainer handler, Packet<?> packet)
+    {
+        if(!Bukkit.isPrimaryThread())
+        {
+            Bukkit.getLogger().log(Level.WARNING, "Packet handler must be called on the main thread.");
+            return;
+        }
+        if(!registry.table(packet.getClass()).coalescedHandlers().contains(handler) || !handler.admitted())
+            return;
+        PacketHandlerEvent event = new PacketHandlerEvent();
+        event.begin();
+        try {
+            handler.invoker().invoke(packet);
+        } catch (Exception e) {
+            Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+        }
+        event.complete(packet.getClass(), null, handler.name(), PacketHandlerThreading.MAIN, false);
+    }
 
-        //Make sure handlers are not null;
-        handlers = handlers == null ? new ArrayList<>() : handlers;
+    @Override
+    public boolean hasCancelHandlers(Class<? extends Packet<?>> packetType, PacketHandlerThreading threading)
+    {
+        return registry.table(packetType).cancelHandlers(threading).length > 0;
+    }
 
-        return handlers;
+    @Override
+    public List<RegisteredPacketHandlerContainer> getPacketCancelHandlers(Class<? extends Packet<?>> packetType) {
+        return registry.table(packetType).cancelHandlers();
     }
 }
@@ -0,0 +1,22 @@
+package io.github.daybringer.packet.handle;
+
+import net.minecraft.network.protocol.Packet;
+
+/**
+ * A strongly typed call into a single packet handler method, bound to its listener instance.
+ * <p>
+ * Invokers are created once when a listener is registered, so dispatching a packet is a plain
+ * interface call instead of a reflective {@link java.lang.reflect.Method#invoke(Object, Object...)}.
+ */
+@FunctionalInterface
+public interface PacketHandlerInvoker
+{
+    /**
+     * Invokes the handler method with the given packet.
+     *
+     * @param packet the packet to pass to the handler
+     * @return the value returned by the handler, or {@code false} if the handler returns {@code void}
+     * @throws Exception anything thrown by the handler
+     */
+    boolean invoke(Packet<?> packet) throws Exception;
+}
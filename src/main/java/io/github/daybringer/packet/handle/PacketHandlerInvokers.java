@@ -0,0 +1,266 @@
+package io.github.daybringer.packet.handle;
+
+import net.minecraft.network.protocol.Packet;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates {@link PacketHandlerInvoker}s for annotated handler methods.
+ * <p>
+ * Invokers are spun with {@link LambdaMetafactory}, which defines a small class per handler that
+ * calls the method directly and lets the JIT inline it. If the listener's class cannot be
+ * accessed with full privileges, e.g. because it lives in another module, the invoker falls back
+ * to an exact {@link MethodHandle} call.
+ */
+public final class PacketHandlerInvokers
+{
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(boolean.class, Packet.class);
+    private static final MethodType CONSUMER_TYPE = MethodType.methodType(void.class, Packet.class);
+    private static final MethodType REWRITER_TYPE = MethodType.methodType(Packet.class, Packet.class);
+    private static final MethodType DECIDER_TYPE = MethodType.methodType(CompletableFuture.class, Packet.class);
+
+    private PacketHandlerInvokers()
+    {
+    }
+
+    /**
+     * Creates an invoker for a handler method taking a single packet parameter.
+     *
+     * @param instance the listener the method is invoked on; ignored for static methods
+     * @param method the handler method
+     * @return the invoker of the method
+     * @throws IllegalArgumentException if the method cannot be accessed
+     */
+    static PacketHandlerInvoker create(Object instance, Method method)
+    {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        boolean returnsResult = method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class;
+        MethodHandles.Lookup lookup;
+        MethodHandle target;
+        try {
+            lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            target = lookup.unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access packet handler " + method, e);
+        }
+
+        if(lookup.hasFullPrivilegeAccess())
+        {
+            try {
+                return spin(lookup, target, isStatic ? null : instance, method, returnsResult);
+            }
+            catch (Throwable ignored) {
+                //Fall through to the method handle invoker
+            }
+        }
+
+        if(!isStatic)
+            target = target.bindTo(instance);
+        return returnsResult
+                ? new MethodHandleInvoker(target.asType(INVOKER_TYPE))
+                : new VoidMethodHandleInvoker(target.asType(CONSUMER_TYPE));
+    }
+
+    /**
+     * Creates a rewriter for a handler method taking a single packet parameter and returning a packet.
+     *
+     * @param instance the listener the method is invoked on; ignored for static methods
+     * @param method the handler method
+     * @return the rewriter of the method
+     * @throws IllegalArgumentException if the method cannot be accessed
+     */
+    static PacketRewriter createRewriter(Object instance, Method method)
+    {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        MethodHandles.Lookup lookup;
+        MethodHandle target;
+        try {
+            lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            target = lookup.unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access packet handler " + method, e);
+        }
+
+        if(lookup.hasFullPrivilegeAccess())
+        {
+            try {
+                MethodType factoryType = isStatic
+                        ? MethodType.methodType(PacketRewriter.class)
+                        : MethodType.methodType(PacketRewriter.class, method.getDeclaringClass());
+                CallSite site = LambdaMetafactory.metafactory(lookup, "rewrite", factoryType, REWRITER_TYPE, target,
+                        MethodType.methodType(method.getReturnType(), method.getParameterTypes()[0]));
+                return (PacketRewriter) (isStatic ? site.getTarget().invoke() : site.getTarget().invoke(instance));
+            }
+            catch (Throwable ignored) {
+                //Fall through to the method handle rewriter
+            }
+        }
+
+        if(!isStatic)
+            target = target.bindTo(instance);
+        return new MethodHandleRewriter(target.asType(REWRITER_TYPE));
+    }
+
+    /**
+     * Creates a decider for a handler method taking a single packet parameter and returning a
+     * {@link CompletableFuture} of its cancellation result.
+     *
+     * @param instance the listener the method is invoked on; ignored for static methods
+     * @param method the handler method
+     * @return the decider of the method
+     * @throws IllegalArgumentException if the method cannot be accessed
+     */
+    static PacketDecider createDecider(Object instance, Method method)
+    {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        MethodHandles.Lookup lookup;
+        MethodHandle target;
+        try {
+            lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            target = lookup.unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access packet handler " + method, e);
+        }
+
+        if(lookup.hasFullPrivilegeAccess())
+        {
+            try {
+                MethodType factoryType = isStatic
+                        ? MethodType.methodType(PacketDecider.class)
+                        : MethodType.methodType(PacketDecider.class, method.getDeclaringClass());
+                CallSite site = LambdaMetafactory.metafactory(lookup, "decide", factoryType, DECIDER_TYPE, target,
+                        MethodType.methodType(method.getReturnType(), method.getParameterTypes()[0]));
+                return (PacketDecider) (isStatic ? site.getTarget().invoke() : site.getTarget().invoke(instance));
+            }
+            catch (Throwable ignored) {
+                //Fall through to the method handle decider
+            }
+        }
+
+        if(!isStatic)
+            target = target.bindTo(instance);
+        return new MethodHandleDecider(target.asType(DECIDER_TYPE));
+    }
+
+    private static PacketHandlerInvoker spin(MethodHandles.Lookup lookup, MethodHandle target, Object instance,
+                                             Method method, boolean returnsResult) throws Throwable
+    {
+        Class<?> packetType = method.getParameterTypes()[0];
+        MethodType factoryType = instance == null
+                ? MethodType.methodType(returnsResult ? PacketHandlerInvoker.class : PacketConsumer.class)
+                : MethodType.methodType(returnsResult ? PacketHandlerInvoker.class : PacketConsumer.class, method.getDeclaringClass());
+
+        CallSite site = LambdaMetafactory.metafactory(
+                lookup,
+                returnsResult ? "invoke" : "accept",
+                factoryType,
+                returnsResult ? INVOKER_TYPE : CONSUMER_TYPE,
+                target,
+                MethodType.methodType(returnsResult ? boolean.class : void.class, packetType));
+
+        MethodHandle factory = site.getTarget();
+        Object spun = instance == null ? factory.invoke() : factory.invoke(instance);
+        return returnsResult ? (PacketHandlerInvoker) spun : new VoidInvoker((PacketConsumer) spun);
+    }
+
+    /**
+     * Functional shape of handler methods returning {@code void}.
+     * <p>
+     * Public only because the spun classes implementing it live in the listener's package.
+     */
+    @FunctionalInterface
+    public interface PacketConsumer
+    {
+        void accept(Packet<?> packet) throws Exception;
+    }
+
+    private record VoidInvoker(PacketConsumer consumer) implements PacketHandlerInvoker
+    {
+        @Override
+        public boolean invoke(Packet<?> packet) throws Exception
+        {
+            consumer.accept(packet);
+            return false;
+        }
+    }
+
+    private record MethodHandleInvoker(MethodHandle handle) implements PacketHandlerInvoker
+    {
+        @Override
+        public boolean invoke(Packet<?> packet) throws Exception
+        {
+            try {
+                return (boolean) handle.invokeExact(packet);
+            }
+            catch (Exception | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private record MethodHandleRewriter(MethodHandle handle) implements PacketRewriter
+    {
+        @Override
+        public Packet<?> rewrite(Packet<?> packet) throws Exception
+        {
+            try {
+                return (Packet<?>) handle.invokeExact(packet);
+            }
+            catch (Exception | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private record MethodHandleDecider(MethodHandle handle) implements PacketDecider
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        public CompletableFuture<Boolean> decide(Packet<?> packet) throws Exception
+        {
+            try {
+                return (CompletableFuture<Boolean>) handle.invokeExact(packet);
+            }
+            catch (Exception | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private record VoidMethodHandleInvoker(MethodHandle handle) implements PacketHandlerInvoker
+    {
+        @Override
+        public boolean invoke(Packet<?> packet) throws Exception
+        {
+            try {
+                handle.invokeExact(packet);
+                return false;
+            }
+            catch (Exception | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.metrics.PacketMetrics;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import net.minecraft.network.protocol.Packet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Copy-on-write registry of packet handlers.
+ * <p>
+ * Every snapshot holds a dense array of {@link PacketHandlerTable}s indexed by the packet's
+ * {@link PacketTypeRegistry} index, so that one index is shared by all snapshots. A decoded packet does not
+ * carry its protocol id, so resolving its handlers still takes a {@link ClassValue} lookup of the class's
+ * index, no cheaper than looking the table up per class; nothing is allocated.
+ * A handler registered for a supertype, e.g. {@code ServerboundMovePlayerPacket}, is placed into the
+ * table of every known subclass, and every table is sorted by handler priority when the snapshot is
+ * built. Packet classes missing from the protocol tables are resolved through a {@link ClassValue} of
+ * the snapshot instead.
+ * <p>
+ * Writers build a new snapshot under a lock and publish it with a single volatile write, so listeners
+ * can be registered or removed while packets are being dispatched on other threads. Readers are
+ * wait-free and allocate nothing.
+ * <p>
+ * Every registered handler is wrapped to time its invocations into a {@link HandlerGuard}, which feeds the
+ * handler's {@link io.github.daybringer.packet.metrics.HandlerMetrics} and the {@link HandlerWatchdog}. The
+ * watchdog may skip invocations through the guard, or move the handler to another threading mode by
+ * publishing a snapshot with a copy of it.
+ */
+final class PacketHandlerRegistry
+{
+    private final PacketTypeRegistry types;
+    private final HandlerWatchdog watchdog;
+    private volatile Snapshot snapshot;
+
+    PacketHandlerRegistry(PacketTypeRegistry types)
+    {
+        this.types = types;
+        this.watchdog = new HandlerWatchdog(this);
+        this.snapshot = new Snapshot(types, List.of());
+    }
+
+    /**
+     * @return the watchdog of the registered handlers
+     */
+    HandlerWatchdog watchdog()
+    {
+        return watchdog;
+    }
+
+    /**
+     * @return the guards of the registered handlers, in registration order
+     */
+    List<HandlerGuard> guards()
+    {
+        return snapshot.registrations.stream().map(Registration::guard).toList();
+    }
+
+    /**
+     * @param packetType the class of packet
+     * @return the handlers of the packet type in the current snapshot, never {@code null}
+     */
+    PacketHandlerTable table(Class<?> packetType)
+    {
+        Snapshot current = snapshot;
+        int index = types.index(packetType);
+        return index >= 0 ? current.tables[index] : current.unknownTypes.get(packetType);
+    }
+
+    /**
+     * Publishes a snapshot containing the current handlers plus the given ones.
+     *
+     * @param registrations the handlers to add, in registration order
+     */
+    synchronized void register(List<Registration> registrations)
+    {
+        if(registrations.isEmpty())
+            return;
+        List<Registration> combined = new ArrayList<>(snapshot.registrations);
+        for(Registration registration : registrations)
+            combined.add(instrument(registration));
+        snapshot = new Snapshot(types, combined);
+    }
+
+    /**
+     * Publishes a snapshot without the handlers of the given listener.
+     *
+     * @param listener the listener instance whose handlers to remove
+     * @return {@code true} if any handler was removed
+     */
+    synchronized boolean unregister(Object listener)
+    {
+        List<Registration> current = snapshot.registrations;
+        List<Registration> remaining = current.stream()
+                .filter(registration -> registration.handler().instance() != listener)
+                .toList();
+        if(remaining.size() == current.size())
+            return false;
+
+        current.stream()
+                .filter(registration -> registration.handler().instance() == listener)
+                .forEach(registration -> PacketMetrics.get().removeHandler(registration.guard().metrics()));
+        snapshot = new Snapshot(types, remaining);
+        return true;
+    }
+
+    /**
+     * Publishes an empty snapshot.
+     */
+    synchronized void clear()
+    {
+        snapshot.registrations.forEach(registration -> PacketMetrics.get().removeHandler(registration.guard().metrics()));
+        snapshot = new Snapshot(types, List.of());
+    }
+
+    /**
+     * Publishes a snapshot in which the handler of the given guard runs with another threading mode.
+     *
+     * @param guard the guard of the handler
+     * @param threading the threading mode to run the handler with
+     */
+    synchronized void rethread(HandlerGuard guard, PacketHandlerThreading threading)
+    {
+        List<Registration> current = snapshot.registrations;
+        List<Registration> moved = new ArrayList<>(current.size());
+        boolean changed = false;
+        for(Registration registration : current)
+        {
+            RegisteredPacketHandlerContainer handler = registration.handler();
+            if(registration.guard() != guard || handler.threading() == threading)
+            {
+                moved.add(registration);
+                continue;
+            }
+            RegisteredPacketHandlerContainer rethreaded = new RegisteredPacketHandlerContainer(handler.instance(), handler.name(),
+                    threading, handler.returnsResult(), handler.invoker(), handler.rewriter(), handler.coalesced(), handler.decider(),
+                    handler.priority(), handler.ignoreCancelled(), handler.admission());
+            moved.add(new Registration(registration.packetType(), rethreaded, registration.cancelHandler(), guard));
+            changed = true;
+        }
+        if(changed)
+            snapshot = new Snapshot(types, moved);
+    }
+
+    /**
+     * Wraps the invoker, rewriter and decider of a handler to time their calls into a new {@link HandlerGuard}
+     * while the {@link PacketMetrics} or the watchdog are enabled. The guard also becomes the handler's
+     * admission, so the dispatch loops skip the handler while the watchdog disabled or samples it without
+     * taking its missing result for a decision.
+     */
+    private Registration instrument(Registration registration)
+    {
+        RegisteredPacketHandlerContainer handler = registration.handler();
+        HandlerGuard guard = new HandlerGuard(watchdog, PacketMetrics.get().addHandler(handler.name(), handler.threading(),
+                handler.priority(), registration.cancelHandler()), handler);
+        PacketHandlerInvoker invoker = handler.invoker();
+        PacketRewriter rewriter = handler.rewriter();
+        PacketDecider decider = handler.decider();
+
+        PacketHandlerInvoker timedInvoker = packet -> {
+            if(!guard.isTimed())
+                return invoker.invoke(packet);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                boolean result = invoker.invoke(packet);
+                failed = false;
+                return result;
+            }
+            finally
+            {
+                guard.record(System.nanoTime() - start, failed);
+            }
+        };
+        PacketRewriter timedRewriter = rewriter == null ? null : packet -> {
+            if(!guard.isTimed())
+                return rewriter.rewrite(packet);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Packet<?> result = rewriter.rewrite(packet);
+                failed = false;
+                return result;
+            }
+            finally
+            {
+                guard.record(System.nanoTime() - start, failed);
+            }
+        };
+        PacketDecider timedDecider = decider == null ? null : packet -> {
+            if(!guard.isTimed())
+                return decider.decide(packet);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                CompletableFuture<Boolean> result = decider.decide(packet);
+                failed = false;
+                if(result != null)
+                    result.whenComplete((cancelled, error) -> {
+                        if(error != null)
+                            guard.recordFailure();
+                    });
+                return result;
+            }
+            finally
+            {
+                guard.record(System.nanoTime() - start, failed);
+            }
+        };
+
+        RegisteredPacketHandlerContainer timed = new RegisteredPacketHandlerContainer(handler.instance(), handler.name(),
+                handler.threading(), handler.returnsResult(), timedInvoker, timedRewriter, handler.coalesced(), timedDecider,
+                handler.priority(), handler.ignoreCancelled(), guard::admit);
+        return new Registration(registration.packetType(), timed, registration.cancelHandler(), guard);
+    }
+
+    /**
+     * A handler as registered for a packet type.
+     *
+     * @param packetType the packet class or supertype the handler declared
+     * @param handler the handler
+     * @param cancelHandler whether the handler is a cancel handler
+     * @param guard the guard the handler's invocations pass through, {@code null} until it is registered
+     */
+    record Registration(Class<?> packetType, RegisteredPacketHandlerContainer handler, boolean cancelHandler, HandlerGuard guard)
+    {
+        Registration(Class<?> packetType, RegisteredPacketHandlerContainer handler, boolean cancelHandler)
+        {
+            this(packetType, handler, cancelHandler, null);
+        }
+    }
+
+    /**
+     * An immutable generation of the registry.
+     */
+    private static final class Snapshot
+    {
+        private final List<Registration> registrations;
+        private final PacketHandlerTable[] tables;
+        private final ClassValue<PacketHandlerTable> unknownTypes;
+
+        private Snapshot(PacketTypeRegistry types, List<Registration> registrations)
+        {
+            this.registrations = List.copyOf(registrations);
+            this.tables = new PacketHandlerTable[types.size()];
+            for(PacketTypeInfo info : types.types())
+                tables[info.index()] = build(info.type());
+            this.unknownTypes = new ClassValue<>()
+            {
+                @Override
+                protected PacketHandlerTable computeValue(Class<?> packetType)
+                {
+                    return build(packetType);
+                }
+            };
+        }
+
+        private PacketHandlerTable build(Class<?> packetType)
+        {
+            List<RegisteredPacketHandlerContainer> handlers = new ArrayList<>();
+            List<RegisteredPacketHandlerContainer> cancelHandlers = new ArrayList<>();
+            for(Registration registration : registrations)
+            {
+                if(!registration.packetType().isAssignableFrom(packetType))
+                    continue;
+                (registration.cancelHandler() ? cancelHandlers : handlers).add(registration.handler());
+            }
+            //Stable sort: equal priorities keep their registration order
+            handlers.sort(Comparator.comparing(RegisteredPacketHandlerContainer::priority));
+            return handlers.isEmpty() && cancelHandlers.isEmpty()
+                    ? PacketHandlerTable.EMPTY
+                    : new PacketHandlerTable(List.copyOf(handlers), List.copyOf(cancelHandlers));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+
+import java.util.List;
+
+/**
+ * The immutable set of handlers registered for one packet type, pre-split by threading mode.
+ * <p>
+ * Tables are built once per registry snapshot and packet type, so dispatch only walks
+ * pre-sized arrays. Coalescing handlers are kept apart from the per-threading arrays, since they are
+ * not called for every packet. Packet types without handlers share {@link #EMPTY}.
+ */
+final class PacketHandlerTable
+{
+    private static final PacketHandlerThreading[] THREADINGS = PacketHandlerThreading.values();
+    private static final RegisteredPacketHandlerContainer[] NONE = new RegisteredPacketHandlerContainer[0];
+
+    static final PacketHandlerTable EMPTY = new PacketHandlerTable(List.of(), List.of());
+
+    private final List<RegisteredPacketHandlerContainer> handlers;
+    private final List<RegisteredPacketHandlerContainer> cancelHandlers;
+    private final RegisteredPacketHandlerContainer[][] handlersByThreading;
+    private final RegisteredPacketHandlerContainer[][] cancelHandlersByThreading;
+    private final RegisteredPacketHandlerContainer[][] cancelledMonitorsByThreading;
+    private final List<RegisteredPacketHandlerContainer> coalescedHandlers;
+    private final boolean[] deferredByThreading;
+
+    PacketHandlerTable(List<RegisteredPacketHandlerContainer> handlers, List<RegisteredPacketHandlerContainer> cancelHandlers)
+    {
+        this.handlers = handlers;
+        this.cancelHandlers = cancelHandlers;
+        this.handlersByThreading = split(handlers.stream().filter(container -> !container.coalesced()).toList());
+        this.cancelHandlersByThreading = split(cancelHandlers);
+        this.cancelledMonitorsByThreading = split(handlers.stream()
+                .filter(container -> !container.coalesced() && container.isMonitor() && !container.ignoreCancelled()).toList());
+        this.coalescedHandlers = handlers.stream().filter(RegisteredPacketHandlerContainer::coalesced).toList();
+        this.deferredByThreading = new boolean[THREADINGS.length];
+        for(RegisteredPacketHandlerContainer handler : handlers)
+            deferredByThreading[handler.threading().ordinal()] |= handler.decider() != null;
+    }
+
+    private static RegisteredPacketHandlerContainer[][] split(List<RegisteredPacketHandlerContainer> containers)
+    {
+        RegisteredPacketHandlerContainer[][] split = new RegisteredPacketHandlerContainer[THREADINGS.length][];
+        for(PacketHandlerThreading threading : THREADINGS)
+        {
+            RegisteredPacketHandlerContainer[] matching = containers.stream()
+                    .filter(container -> container.threading() == threading)
+                    .toArray(RegisteredPacketHandlerContainer[]::new);
+            split[threading.ordinal()] = matching.length == 0 ? NONE : matching;
+        }
+        return split;
+    }
+
+    /**
+     * @return all normal handlers of the packet type, unmodifiable
+     */
+    List<RegisteredPacketHandlerContainer> handlers()
+    {
+        return handlers;
+    }
+
+    /**
+     * @return all cancel handlers of the packet type, unmodifiable
+     */
+    List<RegisteredPacketHandlerContainer> cancelHandlers()
+    {
+        return cancelHandlers;
+    }
+
+    /**
+     * @return the normal handlers with the given threading mode, without coalescing handlers; must not be modified
+     */
+    RegisteredPacketHandlerContainer[] handlers(PacketHandlerThreading threading)
+    {
+        return handlersByThreading[threading.ordinal()];
+    }
+
+    /**
+     * @return the monitor handlers with the given threading mode that observe cancelled packets; must not be modified
+     */
+    RegisteredPacketHandlerContainer[] cancelledMonitors(PacketHandlerThreading threading)
+    {
+        return cancelledMonitorsByThreading[threading.ordinal()];
+    }
+
+    /**
+     * @return {@code true} if a handler with the given threading mode decides through a future
+     */
+    boolean hasDeferred(PacketHandlerThreading threading)
+    {
+        return deferredByThreading[threading.ordinal()];
+    }
+
+    /**
+     * @return the handlers that only receive the latest packet per player, unmodifiable
+     */
+    List<RegisteredPacketHandlerContainer> coalescedHandlers()
+    {
+        return coalescedHandlers;
+    }
+
+    /**
+     * @return the cancel handlers with the given threading mode; must not be modified
+     */
+    RegisteredPacketHandlerContainer[] cancelHandlers(PacketHandlerThreading threading)
+    {
+        return cancelHandlersByThreading[threading.ordinal()];
+    }
+
+    /**
+     * @return {@code true} if no handler at all is registered for the packet type
+     */
+    boolean isEmpty()
+    {
+        return handlers.isEmpty() && cancelHandlers.isEmpty();
+    }
+}
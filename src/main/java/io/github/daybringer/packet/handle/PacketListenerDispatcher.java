@@ -0,0 +1,52 @@
+package io.github.daybringer.packet.handle;
+
+import net.minecraft.network.protocol.Packet;
+
+/**
+ * Registers the handlers of one listener class without reflection.
+ * <p>
+ * Implementations are generated at compile time by {@link io.github.daybringer.PacketHandlerProcessor}
+ * for every class declaring {@link io.github.daybringer.packet.annotations.PacketHandler} or
+ * {@link io.github.daybringer.packet.annotations.PacketCancelHandler} methods, and are recorded in
+ * the {@value #INDEX_RESOURCE} index of the jar.
+ *
+ * @param <TListener> the listener class the dispatcher was generated for
+ */
+public interface PacketListenerDispatcher<TListener>
+{
+    /** Classpath resource listing every handler a dispatcher was generated for. */
+    String INDEX_RESOURCE = "META-INF/mcprotocol/packet-handlers.idx";
+
+    /** Suffix appended to the flattened listener class name to form the dispatcher class name. */
+    String CLASS_SUFFIX = "_PacketDispatcher";
+
+    /**
+     * Registers all handlers of the given listener.
+     *
+     * @param listener the listener whose handlers to register
+     * @param registrar the registry receiving the handlers
+     */
+    void register(TListener listener, Registrar registrar);
+
+    /**
+     * Receives the handlers a dispatcher registers.
+     */
+    interface Registrar
+    {
+        void handler(Class<? extends Packet<?>> packetType, RegisteredPacketHandlerContainer handler);
+        void cancelHandler(Class<? extends Packet<?>> packetType, RegisteredPacketHandlerContainer handler);
+    }
+
+    /**
+     * Returns the binary name of the dispatcher generated for a listener class.
+     * <p>
+     * The dispatcher lives in the listener's package; nested class names are flattened with {@code _}.
+     *
+     * @param listenerBinaryName the binary name of the listener class, e.g. {@code com.example.Outer$Inner}
+     * @return the binary name of its dispatcher, e.g. {@code com.example.Outer_Inner_PacketDispatcher}
+     */
+    static String dispatcherClassName(String listenerBinaryName)
+    {
+        return listenerBinaryName.replace('$', '_') + CLASS_SUFFIX;
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.daybringer.packet.handle;
+
+import org.bukkit.Bukkit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+
+/**
+ * Looks up the {@link PacketListenerDispatcher} generated for a listener class.
+ * <p>
+ * Only classes named in a {@value PacketListenerDispatcher#INDEX_RESOURCE} index visible to their
+ * class loader are probed, so listeners compiled without the annotation processor cost a single
+ * set lookup before falling back to reflection. Results are cached per class.
+ */
+final class PacketListenerDispatchers
+{
+    private static final Map<ClassLoader, Set<String>> INDEXES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final ClassValue<PacketListenerDispatcher<?>> DISPATCHERS = new ClassValue<>()
+    {
+        @Override
+        protected PacketListenerDispatcher<?> computeValue(Class<?> type)
+        {
+            ClassLoader loader = type.getClassLoader();
+            if(loader == null || !indexedListeners(loader).contains(type.getName()))
+                return null;
+            try {
+                Class<?> dispatcher = Class.forName(PacketListenerDispatcher.dispatcherClassName(type.getName()), true, loader);
+                return (PacketListenerDispatcher<?>) dispatcher.getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+                Bukkit.getLogger().log(Level.WARNING, "Could not load generated packet dispatcher for " + type.getName(), e);
+                return null;
+            }
+        }
+    };
+
+    private PacketListenerDispatchers()
+    {
+    }
+
+    /**
+     * @param listenerType the class of a listener
+     * @return the generated dispatcher of the class, or {@code null} if none was generated
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PacketListenerDispatcher<T> find(Class<T> listenerType)
+    {
+        return (PacketListenerDispatcher<T>) DISPATCHERS.get(listenerType);
+    }
+
+    private static Set<String> indexedListeners(ClassLoader loader)
+    {
+        synchronized (INDEXES)
+        {
+            return INDEXES.computeIfAbsent(loader, PacketListenerDispatchers::readIndexes);
+        }
+    }
+
+    private static Set<String> readIndexes(ClassLoader loader)
+    {
+        Set<String> listeners = new HashSet<>();
+        try {
+            Enumeration<URL> resources = loader.getResources(PacketListenerDispatcher.INDEX_RESOURCE);
+            while(resources.hasMoreElements())
+            {
+                try(BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), StandardCharsets.UTF_8)))
+                {
+                    String line;
+                    while((line = reader.readLine()) != null)
+                    {
+                        if(line.isBlank() || line.startsWith("#"))
+                            continue;
+                        int end = line.indexOf('\t');
+                        listeners.add(end < 0 ? line.trim() : line.substring(0, end));
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            Bukkit.getLogger().log(Level.WARNING, "Could not read " + PacketListenerDispatcher.INDEX_RESOURCE, e);
+        }
+        return listeners;
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.daybringer.packet.handle;
+
+import net.minecraft.network.protocol.Packet;
+
+/**
+ * A strongly typed call into a packet handler method that returns a packet, bound to its listener instance.
+ * <p>
+ * Rewriting handlers intercept clientbound packets before they are encoded: returning the given packet
+ * passes it on unchanged, returning another packet sends that one instead and returning {@code null}
+ * drops the packet.
+ */
+@FunctionalInterface
+public interface PacketRewriter
+{
+    /**
+     * Invokes the handler method with the given packet.
+     *
+     * @param packet the packet to pass to the handler
+     * @return the packet to send in its place, or {@code null} to drop it
+     * @throws Exception anything thrown by the handler
+     */
+    Packet<?> rewrite(Packet<?> packet) throws Exception;
+}
@@ -1,8 +1,127 @@
 package io.github.daybringer.packet.handle;
 
-import java.lang.reflect.Method;
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import org.bukkit.Bukkit;
 
-public record RegisteredPacketHandlerContainer(Object instance, Method handle)
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+
+/**
+ * A registered packet handler method.
+ *
+ * @param instance the listener the handler belongs to
+ * @param name the declaring class and method name of the handler, used for diagnostics
+ * @param threading the thread the handler is invoked on
+ * @param returnsResult whether the handler returns a cancellation result instead of {@code void}
+ * @param invoker the invoker calling the handler method
+ * @param rewriter the rewriter calling the handler method if it returns a packet, otherwise {@code null}
+ * @param coalesced whether the handler only receives the latest of the packets a player sent between two
+ *                  main thread drains
+ * @param decider the decider calling the handler method if it returns a future, otherwise {@code null}
+ * @param priority the position of the handler among the handlers of its packet and threading mode
+ * @param ignoreCancelled whether the handler is skipped for packets an earlier handler cancelled
+ * @param admission decides per packet whether the handler is invoked at all, {@code null} to always invoke it;
+ *                  a skipped handler leaves the outcome of the other handlers unchanged
+ */
+public record RegisteredPacketHandlerContainer(Object instance, String name, PacketHandlerThreading threading,
+                                               boolean returnsResult, PacketHandlerInvoker invoker, PacketRewriter rewriter,
+                                               boolean coalesced, PacketDecider decider, PacketHandlerPriority priority,
+                                               boolean ignoreCancelled, BooleanSupplier admission)
 {
+    /**
+     * Creates a container for a handler returning {@code void} or a cancellation result.
+     */
+    public RegisteredPacketHandlerContainer(Object instance, String name, PacketHandlerThreading threading,
+                                            boolean returnsResult, PacketHandlerInvoker invoker)
+    {
+        this(instance, name, threading, returnsResult, invoker, null, false, null, PacketHandlerPriority.NORMAL, true, null);
+    }
+
+    /**
+     * Creates a container for a handler returning a packet. Invoked as a plain handler, it reports
+     * the packet as cancelled when it returns {@code null}.
+     *
+     * @param instance the listener the handler belongs to
+     * @param name the declaring class and method name of the handler
+     * @param threading the thread the handler is invoked on
+     * @param rewriter the rewriter calling the handler method
+     * @return the container of the handler
+     */
+    public static RegisteredPacketHandlerContainer rewriting(Object instance, String name, PacketHandlerThreading threading,
+                                                             PacketRewriter rewriter)
+    {
+        return new RegisteredPacketHandlerContainer(instance, name, threading, true, packet -> rewriter.rewrite(packet) == null, rewriter, false, null, PacketHandlerPriority.NORMAL, true, null);
+    }
+
+    /**
+     * Creates a container for a {@link PacketHandlerThreading#MAIN} handler returning {@code void} that only
+     * receives the latest packet per player and main thread drain.
+     *
+     * @param instance the listener the handler belongs to
+     * @param name the declaring class and method name of the handler
+     * @param invoker the invoker calling the handler method
+     * @return the container of the handler
+     */
+    public static RegisteredPacketHandlerContainer coalescing(Object instance, String name, PacketHandlerInvoker invoker)
+    {
+        return new RegisteredPacketHandlerContainer(instance, name, PacketHandlerThreading.MAIN, false, invoker, null, true, null, PacketHandlerPriority.NORMAL, true, null);
+    }
+
+    /**
+     * Creates a container for a handler returning a future cancellation result. Invoked as a plain handler,
+     * it never blocks: only a future that is already complete decides, a pending one is logged and counts as
+     * not cancelled. The packet listener holds the packet until the future completes instead.
+     *
+     * @param instance the listener the handler belongs to
+     * @param name the declaring class and method name of the handler
+     * @param threading the thread the handler is invoked on
+     * @param decider the decider calling the handler method
+     * @return the container of the handler
+     */
+    public static RegisteredPacketHandlerContainer deferred(Object instance, String name, PacketHandlerThreading threading,
+                                                            PacketDecider decider)
+    {
+        return new RegisteredPacketHandlerContainer(instance, name, threading, true, packet -> {
+            CompletableFuture<Boolean> decision = decider.decide(packet);
+            if(decision == null)
+                return false;
+            //Waiting would block the calling thread, which is the main thread for MAIN handlers
+            if(!decision.isDone())
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Packet handler " + name + " has not decided about " + packet.getClass()
+                        + " yet, passing it on. Call it through callHandlersDeferred to wait for the decision.");
+                return false;
+            }
+            return Boolean.TRUE.equals(decision.join());
+        }, null, false, decider, PacketHandlerPriority.NORMAL, true, null);
+    }
+
+    /**
+     * @param priority the position of the handler among the handlers of its packet and threading mode
+     * @param ignoreCancelled whether the handler is skipped for packets an earlier handler cancelled
+     * @return a copy of this container with the given ordering
+     */
+    public RegisteredPacketHandlerContainer withOrdering(PacketHandlerPriority priority, boolean ignoreCancelled)
+    {
+        return new RegisteredPacketHandlerContainer(instance, name, threading, returnsResult, invoker, rewriter, coalesced,
+                decider, priority, ignoreCancelled, admission);
+    }
+
+    /**
+     * @return {@code true} if the handler is to be invoked for the current packet
+     */
+    public boolean admitted()
+    {
+        return admission == null || admission.getAsBoolean();
+    }
 
+    /**
+     * @return {@code true} if the handler only observes the outcome of the other handlers
+     */
+    public boolean isMonitor()
+    {
+        return priority == PacketHandlerPriority.MONITOR;
+    }
 }
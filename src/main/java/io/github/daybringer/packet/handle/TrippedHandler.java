@@ -0,0 +1,19 @@
+package io.github.daybringer.packet.handle;
+
+import io.github.daybringer.packet.utils.HandlerWatchdogAction;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+
+/**
+ * A packet handler the {@link HandlerWatchdog} acted on.
+ *
+ * @param instance the listener the handler belongs to
+ * @param name the declaring class and method name of the handler
+ * @param threading the threading mode the handler was registered with
+ * @param action what the watchdog did with the handler
+ * @param reason why the watchdog acted
+ * @param timestamp the time the watchdog acted, in milliseconds since the epoch
+ */
+public record TrippedHandler(Object instance, String name, PacketHandlerThreading threading, HandlerWatchdogAction action,
+                             String reason, long timestamp)
+{
+}
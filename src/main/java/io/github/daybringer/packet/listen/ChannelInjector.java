@@ -0,0 +1,161 @@
+package io.github.daybringer.packet.listen;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import net.minecraft.network.Connection;
+import net.minecraft.server.network.ServerConnectionListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Installs the shared inbound and outbound channel handlers into every connection of the server, from the
+ * handshake onward.
+ * <p>
+ * An acceptor handler is placed in front of each bound server channel. It sees every accepted child
+ * channel before the server's own channel initializer is added and places an initializer in front of it.
+ * When the channel registers, that initializer defers the injection to a task on the channel's event loop,
+ * which runs after the server has built the pipeline and before the first read, and adds the shared
+ * handlers in front of the connection's {@code packet_handler} and the {@link RawPacketStage} in front of
+ * its decoder. Connections that are already open are
+ * injected on their own event loop.
+ */
+final class ChannelInjector
+{
+    /** Name of the shared inbound handler in injected pipelines. */
+    static final String HANDLER_NAME = "mcprotocol_packet_listener";
+    /** Name of the shared outbound handler in injected pipelines. */
+    static final String OUTBOUND_HANDLER_NAME = "mcprotocol_outbound_listener";
+
+    private static final String ACCEPTOR_NAME = "mcprotocol_acceptor";
+    private static final String CONNECTION_HANDLER_NAME = "packet_handler";
+
+    private final ChannelHandler handler;
+    private final ChannelHandler outboundHandler;
+    private final RawPacketStage rawStage;
+    private final PacketRecorder recorder;
+    private final ChannelHandler acceptor;
+    private final ChannelInitializer<Channel> initializer;
+    private final List<Channel> serverChannels;
+
+    ChannelInjector(ChannelHandler handler, ChannelHandler outboundHandler, RawPacketStage rawStage, PacketRecorder recorder)
+    {
+        this.handler = handler;
+        this.outboundHandler = outboundHandler;
+        this.rawStage = rawStage;
+        this.recorder = recorder;
+        this.serverChannels = new ArrayList<>();
+        this.initializer = new ChannelInitializer<>()
+        {
+            @Override
+            protected void initChannel(Channel channel)
+            {
+                channel.eventLoop().execute(() -> inject(channel));
+            }
+        };
+        this.acceptor = new Acceptor();
+    }
+
+    /**
+     * Installs the acceptor into the server channels and injects all open connections.
+     *
+     * @param listener the server's connection listener
+     * @throws IllegalStateException if the server channels cannot be accessed
+     */
+    synchronized void install(ServerConnectionListener listener) throws IllegalStateException
+    {
+        if(!serverChannels.isEmpty())
+            return;
+
+        for(ChannelFuture future : ConnectionAccess.serverChannels(listener))
+        {
+            Channel serverChannel = future.channel();
+            serverChannel.pipeline().addFirst(ACCEPTOR_NAME, acceptor);
+            serverChannels.add(serverChannel);
+        }
+
+        List<Connection> connections = listener.getConnections();
+        synchronized (connections)
+        {
+            for(Connection connection : connections)
+            {
+                Channel channel = connection.channel;
+                channel.eventLoop().execute(() -> inject(channel));
+            }
+        }
+    }
+
+    /**
+     * Removes the acceptor from the server channels and the shared handlers from all open connections.
+     *
+     * @param listener the server's connection listener
+     */
+    synchronized void uninstall(ServerConnectionListener listener)
+    {
+        for(Channel serverChannel : serverChannels)
+        {
+            ChannelPipeline pipeline = serverChannel.pipeline();
+            if(pipeline.get(ACCEPTOR_NAME) != null)
+                pipeline.remove(ACCEPTOR_NAME);
+        }
+        serverChannels.clear();
+
+        List<Connection> connections = listener.getConnections();
+        synchronized (connections)
+        {
+            for(Connection connection : connections)
+            {
+                Channel channel = connection.channel;
+                channel.eventLoop().execute(() -> {
+                    if(channel.pipeline().get(HANDLER_NAME) != null)
+                        channel.pipeline().remove(HANDLER_NAME);
+                    if(channel.pipeline().get(OUTBOUND_HANDLER_NAME) != null)
+                        channel.pipeline().remove(OUTBOUND_HANDLER_NAME);
+                    rawStage.uninject(channel.pipeline());
+                    recorder.uninject(channel.pipeline());
+                });
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the acceptor is installed
+     */
+    synchronized boolean isInstalled()
+    {
+        return !serverChannels.isEmpty();
+    }
+
+    private void inject(Channel channel)
+    {
+        ChannelPipeline pipeline = channel.pipeline();
+        if(pipeline.get(CONNECTION_HANDLER_NAME) == null)
+            return;
+        if(pipeline.context(handler) == null)
+            pipeline.addBefore(CONNECTION_HANDLER_NAME, HANDLER_NAME, handler);
+        if(pipeline.context(outboundHandler) == null)
+            pipeline.addBefore(CONNECTION_HANDLER_NAME, OUTBOUND_HANDLER_NAME, outboundHandler);
+        rawStage.inject(pipeline);
+        recorder.inject(pipeline);
+    }
+
+    /**
+     * Places the initializer on every channel accepted by a server channel.
+     */
+    @ChannelHandler.Sharable
+    private final class Acceptor extends ChannelInboundHandlerAdapter
+    {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+        {
+            if(msg instanceof Channel channel)
+                channel.pipeline().addFirst(initializer);
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
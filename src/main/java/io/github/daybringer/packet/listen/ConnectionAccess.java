@@ -0,0 +1,144 @@
+package io.github.daybringer.packet.listen;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import net.minecraft.network.Connection;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.PacketDecoder;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.server.network.ServerCommonPacketListenerImpl;
+import net.minecraft.server.network.ServerConnectionListener;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.util.List;
+
+/**
+ * Field accessors into server internals, resolved once and cached as {@link VarHandle}s.
+ * <p>
+ * Fields are located by type rather than by name, so the accessors work with obfuscated and
+ * Mojang-mapped servers alike. A field that cannot be found leaves its accessor {@code null}
+ * and the error is reported on first use, or, for optional accessors, the accessor returns {@code null}.
+ */
+final class ConnectionAccess
+{
+    private static final VarHandle CONNECTION;
+    private static final VarHandle SERVER_CHANNELS;
+    private static final VarHandle DECODER_PROTOCOL;
+    private static final VarHandle ENCODER_PROTOCOL;
+    private static final Exception CONNECTION_FAILURE;
+    private static final Exception SERVER_CHANNELS_FAILURE;
+
+    static {
+        VarHandle connection = null;
+        Exception connectionFailure = null;
+        try {
+            connection = find(ServerCommonPacketListenerImpl.class, Connection.class, null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            connectionFailure = e;
+        }
+        CONNECTION = connection;
+        CONNECTION_FAILURE = connectionFailure;
+
+        VarHandle channels = null;
+        Exception channelsFailure = null;
+        try {
+            channels = find(ServerConnectionListener.class, List.class, ChannelFuture.class);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            channelsFailure = e;
+        }
+        SERVER_CHANNELS = channels;
+        SERVER_CHANNELS_FAILURE = channelsFailure;
+
+        VarHandle decoderProtocol = null;
+        try {
+            decoderProtocol = find(PacketDecoder.class, ProtocolInfo.class, null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            //Frames are then filtered without knowing their packet type
+        }
+        DECODER_PROTOCOL = decoderProtocol;
+
+        VarHandle encoderProtocol = null;
+        try {
+            encoderProtocol = find(PacketEncoder.class, ProtocolInfo.class, null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            //Frames are then recorded without knowing their phase
+        }
+        ENCODER_PROTOCOL = encoderProtocol;
+    }
+
+    private ConnectionAccess()
+    {
+    }
+
+    /**
+     * @param listener the packet listener of a player
+     * @return the connection of the listener
+     * @throws IllegalStateException if the connection field could not be located
+     */
+    static Connection connection(ServerCommonPacketListenerImpl listener) throws IllegalStateException
+    {
+        if(CONNECTION == null)
+            throw new IllegalStateException("Failed to find connection field in listener.", CONNECTION_FAILURE);
+        return (Connection) CONNECTION.get(listener);
+    }
+
+    /**
+     * @param listener the server's connection listener
+     * @return the bound server channels accepting new connections
+     * @throws IllegalStateException if the channel list could not be located
+     */
+    @SuppressWarnings("unchecked")
+    static List<ChannelFuture> serverChannels(ServerConnectionListener listener) throws IllegalStateException
+    {
+        if(SERVER_CHANNELS == null)
+            throw new IllegalStateException("Failed to find server channel list in connection listener.", SERVER_CHANNELS_FAILURE);
+        return (List<ChannelFuture>) SERVER_CHANNELS.get(listener);
+    }
+
+    /**
+     * @param decoder the handler registered as the connection's decoder
+     * @return the phase the decoder reads packets for, or {@code null} if it cannot be determined
+     */
+    static ConnectionProtocol decoderProtocol(ChannelHandler decoder)
+    {
+        if(DECODER_PROTOCOL == null || !(decoder instanceof PacketDecoder<?>))
+            return null;
+        ProtocolInfo<?> protocolInfo = (ProtocolInfo<?>) DECODER_PROTOCOL.get(decoder);
+        return protocolInfo == null ? null : protocolInfo.id();
+    }
+
+    /**
+     * @param encoder the handler registered as the connection's encoder
+     * @return the phase the encoder writes packets for, or {@code null} if it cannot be determined
+     */
+    static ConnectionProtocol encoderProtocol(ChannelHandler encoder)
+    {
+        if(ENCODER_PROTOCOL == null || !(encoder instanceof PacketEncoder<?>))
+            return null;
+        ProtocolInfo<?> protocolInfo = (ProtocolInfo<?>) ENCODER_PROTOCOL.get(encoder);
+        return protocolInfo == null ? null : protocolInfo.id();
+    }
+
+    private static VarHandle find(Class<?> owner, Class<?> fieldType, Class<?> typeArgument) throws ReflectiveOperationException
+    {
+        for(Field field : owner.getDeclaredFields())
+        {
+            if(field.getType() != fieldType)
+                continue;
+            if(typeArgument != null && !(field.getGenericType() instanceof ParameterizedType parameterized
+                    && parameterized.getActualTypeArguments()[0] == typeArgument))
+                continue;
+
+            return MethodHandles.privateLookupIn(owner, MethodHandles.lookup()).unreflectVarHandle(field);
+        }
+        throw new NoSuchFieldException(owner.getName() + " has no field of type " + fieldType.getName());
+    }
+}
@@ -11,8 +11,6 @@ import net.minecraft.server.network.ServerGamePacketListenerImpl;
 import org.bukkit.craftbukkit.v1_21_R4.entity.CraftPlayer;
 import org.bukkit.entity.Player;
 
-import java.lang.reflect.Field;
-
 /**
  * Represents a listener for handling incoming network packets associated with a specific player.
  * <p>
@@ -52,15 +50,14 @@ public interface IPacketListener<THandler> extends ChannelInboundHandler {
 
     IPacketHandler<THandler> getHandler();
     /**
-     * Attempts to retrieve the network {@link Connection} object associated with the given player.
-     * <p>
-     * This method tries multiple known field names that may hold the connection reference,
-     * to handle differences between Minecraft server versions or mappings.
+     * Retrieves the network {@link Connection} object associated with the given player.
      * <p>
-     * It accesses the player's underlying {@link ServerGamePacketListenerImpl} via NMS (net.minecraft.server) internals,
-     * reflecting on the {@link ServerCommonPacketListenerImpl} class fields to find the connection.
+     * It accesses the player's underlying {@link ServerGamePacketListenerImpl} via NMS (net.minecraft.server) internals
+     * and reads the connection field of {@link ServerCommonPacketListenerImpl}. The field is located by its type once
+     * and cached as a {@link java.lang.invoke.VarHandle}, which handles differences between Minecraft server versions
+     * or mappings without reflecting on every call.
      * <p>
-     * If none of the expected fields are found or accessible, this method throws an {@link IllegalStateException}.
+     * If the field cannot be found or accessed, this method throws an {@link IllegalStateException}.
      *
      * @param player the Bukkit player whose connection to retrieve
      * @return the player's {@link Connection} if found; {@code null} if no valid connection instance is present
@@ -69,26 +66,8 @@ public interface IPacketListener<THandler> extends ChannelInboundHandler {
     @Nullable
     default Connection getConnection(final Player player) throws IllegalStateException
     {
-        String[] possibleFieldNames = {"e", "connection", "field_45013"};
         ServerPlayer playerServer = ((CraftPlayer) player).getHandle();
-        ServerGamePacketListenerImpl listener = playerServer.connection;
-        for(String fieldName : possibleFieldNames)
-        {
-            try {
-
-                Field connectionField = ServerCommonPacketListenerImpl.class.getDeclaredField(fieldName);
-                connectionField.setAccessible(true);
-                Object connectionObject = connectionField.get(listener);
-
-                if(connectionObject instanceof Connection connection)
-                    return connection;
-            }
-            catch (NoSuchFieldException | IllegalAccessException e) {
-                continue;
-            }
-        }
-        throw new IllegalStateException("Failed to find connection field in listener.");
-
+        return ConnectionAccess.connection(playerServer.connection);
     }
 
     //Defaults not important to packet reading
@@ -0,0 +1,170 @@
+package io.github.daybringer.packet.listen;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayDeque;
+
+/**
+ * Per-connection FIFO of inbound messages that are waiting for a forwarding decision.
+ * <p>
+ * The queue is confined to the channel's event loop: messages are appended and forwarded
+ * only on that thread, which keeps the packets of one connection in the order they arrived.
+ * Decisions may be made on any thread through {@link Entry#complete(boolean)}, which hands
+ * the forwarding back to the event loop instead of blocking it.
+ */
+final class InboundQueue
+{
+    private static final AttributeKey<InboundQueue> KEY = AttributeKey.valueOf("mcprotocol_inbound_queue");
+
+    private static final int PENDING = 0;
+    private static final int FORWARD = 1;
+    private static final int CANCEL = 2;
+
+    private final ChannelHandlerContext context;
+    private final ArrayDeque<Entry> entries;
+
+    private InboundQueue(ChannelHandlerContext context)
+    {
+        this.context = context;
+        this.entries = new ArrayDeque<>();
+    }
+
+    /**
+     * Returns the queue bound to the channel of the given context, creating it on first use.
+     * <p>
+     * Must be called on the channel's event loop.
+     *
+     * @param context the context of the packet listener in the channel pipeline
+     * @return the queue of the channel
+     */
+    static InboundQueue of(ChannelHandlerContext context)
+    {
+        Attribute<InboundQueue> attribute = context.channel().attr(KEY);
+        InboundQueue queue = attribute.get();
+        if(queue == null)
+        {
+            queue = new InboundQueue(context);
+            attribute.set(queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Forwards a message that needs no decision without creating a queue for the channel.
+     * <p>
+     * Must be called on the channel's event loop.
+     *
+     * @param context the context of the packet listener in the channel pipeline
+     * @param message the message to forward
+     */
+    static void forward(ChannelHandlerContext context, Object message)
+    {
+        InboundQueue queue = context.channel().attr(KEY).get();
+        if(queue == null)
+            context.fireChannelRead(message);
+        else
+            queue.forward(message);
+    }
+
+    /**
+     * Detaches the queue from the channel of the given context.
+     * <p>
+     * Entries that are still pending keep a reference to their queue and are forwarded
+     * through the old context once they are decided.
+     *
+     * @param context the context of the packet listener in the channel pipeline
+     */
+    static void release(ChannelHandlerContext context)
+    {
+        InboundQueue queue = context.channel().attr(KEY).getAndSet(null);
+        if(queue != null)
+            queue.drain();
+    }
+
+    /**
+     * @return {@code true} if no message of this connection is waiting to be forwarded
+     */
+    boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Forwards a message that needs no decision, preserving the order of any pending messages.
+     *
+     * @param message the message to forward
+     */
+    void forward(Object message)
+    {
+        if(entries.isEmpty())
+        {
+            context.fireChannelRead(message);
+            return;
+        }
+        Entry entry = new Entry(this, message);
+        entry.state = FORWARD;
+        entries.add(entry);
+    }
+
+    /**
+     * Appends a message whose decision is made later through {@link Entry#complete(boolean)}.
+     *
+     * @param message the message to hold back
+     * @return the pending entry of the message
+     */
+    Entry hold(Object message)
+    {
+        Entry entry = new Entry(this, message);
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Forwards or drops all decided messages from the head of the queue, stopping at the
+     * first message that is still pending.
+     */
+    void drain()
+    {
+        Entry head;
+        while((head = entries.peek()) != null && head.state != PENDING)
+        {
+            entries.poll();
+            if(head.state == FORWARD)
+                context.fireChannelRead(head.message);
+        }
+    }
+
+    /**
+     * A message held back by an {@link InboundQueue}.
+     */
+    static final class Entry
+    {
+        private final InboundQueue queue;
+        private final Object message;
+        private volatile int state;
+
+        private Entry(InboundQueue queue, Object message)
+        {
+            this.queue = queue;
+            this.message = message;
+        }
+
+        /**
+         * Records the decision for this message and schedules forwarding on the event loop.
+         * <p>
+         * May be called from any thread, but only once.
+         *
+         * @param cancelled {@code true} to drop the message, {@code false} to pass it on
+         */
+        void complete(boolean cancelled)
+        {
+            state = cancelled ? CANCEL : FORWARD;
+            if(queue.context.executor().inEventLoop())
+                queue.drain();
+            else
+                queue.context.executor().execute(queue::drain);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.Main;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Hands work from the network threads to the main server thread in tick-sized batches.
+ * <p>
+ * Producers on any thread append to a lock-free multi-producer queue. A single repeating
+ * task drains the queue once per server tick in FIFO order, so work submitted for one
+ * player keeps its order. Draining stops once the configured time budget of the tick is
+ * spent; the remaining work stays queued for the next tick.
+ * <p>
+ * Once {@linkplain #stop() stopped}, for example while the plugin is disabled, the dispatcher refuses
+ * work until it is started again explicitly, so late packets never schedule a task for a disabled plugin.
+ */
+public final class MainThreadDispatcher
+{
+    /** Default time the drain may spend per tick: 10 ms, a fifth of a tick. */
+    public static final long DEFAULT_TICK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Queue<Runnable> queue;
+    private final AtomicInteger queueDepth;
+    private volatile long tickBudgetNanos;
+    private volatile BukkitTask task;
+    private volatile boolean stopped;
+
+    MainThreadDispatcher()
+    {
+        queue = new ConcurrentLinkedQueue<>();
+        queueDepth = new AtomicInteger();
+        tickBudgetNanos = DEFAULT_TICK_BUDGET_NANOS;
+    }
+
+    /**
+     * Queues work to run on the main thread during the next drain.
+     * <p>
+     * Starts the drain task if it is not running yet, unless the dispatcher was stopped. May be called
+     * from any thread.
+     *
+     * @param work the work to run on the main thread
+     * @return {@code true} if the work was queued, {@code false} if the dispatcher is stopped or the drain
+     *         task could not be scheduled, in which case the work will never run
+     */
+    public boolean submit(Runnable work)
+    {
+        if(stopped)
+            return false;
+        queue.add(work);
+        queueDepth.incrementAndGet();
+        //stop() may have drained the queue before the work was added
+        if(stopped)
+            return !withdraw(work);
+        if(task == null)
+        {
+            try {
+                startTask(Main.getProvidingPlugin(Main.class));
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Could not schedule the main thread packet drain", e);
+                return !withdraw(work);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Schedules the repeating drain task, if it is not running yet, and accepts work again after {@link #stop()}.
+     */
+    public void start()
+    {
+        start(Main.getProvidingPlugin(Main.class));
+    }
+
+    /**
+     * Schedules the repeating drain task on behalf of the given plugin, if it is not running yet, and accepts
+     * work again after {@link #stop()}.
+     *
+     * @param plugin the plugin owning the drain task
+     */
+    public synchronized void start(Plugin plugin)
+    {
+        stopped = false;
+        startTask(plugin);
+    }
+
+    /**
+     * Cancels the drain task and runs everything still queued, ignoring the tick budget. Work submitted
+     * afterwards is refused until the dispatcher is started again. Must be called on the main thread.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        if(task != null)
+        {
+            task.cancel();
+            task = null;
+        }
+        drain(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return {@code true} if the dispatcher was stopped and refuses work
+     */
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    private synchronized void startTask(Plugin plugin)
+    {
+        if(task != null || stopped)
+            return;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+    }
+
+    /**
+     * Takes work back out of the queue.
+     *
+     * @return {@code true} if the work was still queued, {@code false} if a drain already took it
+     */
+    private boolean withdraw(Runnable work)
+    {
+        if(!queue.remove(work))
+            return false;
+        queueDepth.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Sets the time a single drain may spend running queued work.
+     * <p>
+     * The work item that exceeds the budget still completes; the rest waits for the next tick.
+     *
+     * @param budget the budget per tick, must be positive
+     * @param unit the unit of {@code budget}
+     */
+    public void setTickBudget(long budget, TimeUnit unit)
+    {
+        if(budget <= 0)
+            throw new IllegalArgumentException("Tick budget must be positive");
+        tickBudgetNanos = unit.toNanos(budget);
+    }
+
+    /**
+     * @return the time a single drain may spend, in nanoseconds
+     */
+    public long getTickBudgetNanos()
+    {
+        return tickBudgetNanos;
+    }
+
+    /**
+     * @return the number of work items waiting for the main thread
+     */
+    public int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+    private void drain()
+    {
+        drain(tickBudgetNanos);
+    }
+
+    private void drain(long budgetNanos)
+    {
+        long start = System.nanoTime();
+        Runnable work;
+        while((work = queue.poll()) != null)
+        {
+            queueDepth.decrementAndGet();
+            try {
+                work.run();
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Error running queued packet work", e);
+            }
+            if(System.nanoTime() - start >= budgetNanos)
+                break;
+        }
+    }
+}
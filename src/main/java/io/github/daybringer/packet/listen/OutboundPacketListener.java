@@ -0,0 +1,42 @@
+package io.github.daybringer.packet.listen;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import net.minecraft.network.protocol.Packet;
+
+/**
+ * Outbound counterpart of the {@link PacketListener}, placed next to it in front of the connection's
+ * {@code packet_handler}.
+ * <p>
+ * Every packet written by the connection passes this handler on the channel's event loop before it
+ * reaches the encoder, where the registered clientbound handlers may drop or replace it. A dropped
+ * packet completes its write promise successfully without being sent.
+ */
+@ChannelHandler.Sharable
+final class OutboundPacketListener extends ChannelOutboundHandlerAdapter
+{
+    private final PacketListener listener;
+
+    OutboundPacketListener(PacketListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        if(!(msg instanceof Packet<?> packet))
+        {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        Packet<?> result = listener.interceptOutbound(ctx, packet);
+        if(result == null)
+            promise.trySuccess();
+        else
+            ctx.write(result, promise);
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.packet.handle.IPacketHandler;
+import io.github.daybringer.packet.handle.RegisteredPacketHandlerContainer;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.protocol.Packet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the latest packet of one connection per coalescing handler until the next main thread drain.
+ * <p>
+ * The event loop records each accepted packet for every coalescing handler of its type, replacing the
+ * packet recorded before. The first packet after a drain submits one drain task to the
+ * {@link MainThreadDispatcher}, which swaps the pending packets out and calls each handler once, so a burst
+ * of movement packets costs one main thread task and one call per handler.
+ */
+final class PacketCoalescer
+{
+    private static final AttributeKey<PacketCoalescer> KEY = AttributeKey.valueOf("mcprotocol_packet_coalescer");
+
+    private final IPacketHandler<RegisteredPacketHandlerContainer> packetHandler;
+    private final MainThreadDispatcher dispatcher;
+    private Map<RegisteredPacketHandlerContainer, Packet<?>> pending;
+    private boolean scheduled;
+
+    private PacketCoalescer(IPacketHandler<RegisteredPacketHandlerContainer> packetHandler, MainThreadDispatcher dispatcher)
+    {
+        this.packetHandler = packetHandler;
+        this.dispatcher = dispatcher;
+        this.pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * Records a packet for the given coalescing handlers of its type.
+     *
+     * @param channel the channel the packet was read from
+     * @param handlers the coalescing handlers of the packet's type, not empty
+     * @param packet the packet
+     * @param packetHandler the handler registry calling the handlers
+     * @param dispatcher the dispatcher running the drain
+     */
+    static void offer(Channel channel, List<RegisteredPacketHandlerContainer> handlers, Packet<?> packet,
+                      IPacketHandler<RegisteredPacketHandlerContainer> packetHandler, MainThreadDispatcher dispatcher)
+    {
+        PacketCoalescer coalescer = channel.attr(KEY).get();
+        if(coalescer == null)
+        {
+            coalescer = new PacketCoalescer(packetHandler, dispatcher);
+            PacketCoalescer existing = channel.attr(KEY).setIfAbsent(coalescer);
+            if(existing != null)
+                coalescer = existing;
+        }
+        coalescer.offer(handlers, packet);
+    }
+
+    private void offer(List<RegisteredPacketHandlerContainer> handlers, Packet<?> packet)
+    {
+        boolean submit;
+        synchronized (this)
+        {
+            for(RegisteredPacketHandlerContainer handler : handlers)
+                pending.put(handler, packet);
+            submit = !scheduled;
+            scheduled = true;
+        }
+        if(submit && !dispatcher.submit(this::drain))
+        {
+            //The dispatcher is stopped, nothing will drain the pending packets
+            synchronized (this)
+            {
+                pending.clear();
+                scheduled = false;
+            }
+        }
+    }
+
+    private void drain()
+    {
+        Map<RegisteredPacketHandlerContainer, Packet<?>> drained;
+        synchronized (this)
+        {
+            drained = pending;
+            pending = new LinkedHashMap<>();
+            scheduled = false;
+        }
+        drained.forEach(packetHandler::callCoalescedHandler);
+    }
+}
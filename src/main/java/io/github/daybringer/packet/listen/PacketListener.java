@@ -1,34 +1,118 @@
 package io.github.daybringer.packet.listen;
 
-import io.github.daybringer.Main;
 import io.github.daybringer.packet.handle.IPacketHandler;
 import io.github.daybringer.packet.handle.PacketHandler;
 import io.github.daybringer.packet.handle.RegisteredPacketHandlerContainer;
+import io.github.daybringer.packet.metrics.PacketDecisionEvent;
+import io.github.daybringer.packet.metrics.PacketHandoffEvent;
+import io.github.daybringer.packet.metrics.PacketMetrics;
+import io.github.daybringer.packet.metrics.PacketReceiveEvent;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import io.github.daybringer.packet.utils.RateLimitPolicy;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
 import net.minecraft.network.Connection;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.chat.Component;
 import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.common.ClientboundDisconnectPacket;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.login.ClientboundLoginDisconnectPacket;
+import net.minecraft.server.network.ServerConnectionListener;
 import org.bukkit.Bukkit;
+import org.bukkit.craftbukkit.v1_21_R4.CraftServer;
 import org.bukkit.entity.Player;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
 @ChannelHandler.Sharable
 public final class PacketListener implements IPacketListener<RegisteredPacketHandlerContainer>
 {
+    /** Default time a packet is held for a handler's future before it is passed on: 5 seconds. */
+    public static final long DEFAULT_DECISION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
     private static final PacketListener INSTANCE = new PacketListener();
+    private static final AttributeKey<UUID> PLAYER_ID = AttributeKey.valueOf("mcprotocol_player_id");
+    private static final AttributeKey<Boolean> DISCONNECTING = AttributeKey.valueOf("mcprotocol_disconnecting");
+    private static final String CONNECTION_HANDLER_NAME = "packet_handler";
+    private static final String ENCODER_NAME = "encoder";
+    private static final String OUTBOUND_SUFFIX = "_outbound";
+    private static final PacketHandlerThreading[] STAGES = {
+            PacketHandlerThreading.NETTY, PacketHandlerThreading.ASYNC, PacketHandlerThreading.VIRTUAL, PacketHandlerThreading.MAIN
+    };
 
     private final PacketHandler packetHandler;
-    private final HashMap<UUID, Connection> connections;
+    private final Map<UUID, Connection> connections;
+    private final MainThreadDispatcher mainThreadDispatcher;
+    private final StripedExecutor asyncExecutor;
+    private final ThreadFactory virtualThreads;
+    private final ChannelInjector injector;
+    private final OutboundPacketListener outbound;
+    private final RawPacketStage rawStage;
+    private final PacketRecorder recorder;
+    private final RateLimiter rateLimiter;
+    private final PacketMetrics metrics;
+    private volatile long decisionTimeoutNanos;
     private PacketListener()
     {
         if(INSTANCE != null)
             throw new IllegalStateException("PacketListener already initialized");
 
         packetHandler = new PacketHandler();
-        connections = new HashMap<>();
+        connections = new ConcurrentHashMap<>();
+        mainThreadDispatcher = new MainThreadDispatcher();
+        asyncExecutor = new StripedExecutor(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), "MCProtocol Async Handler");
+        virtualThreads = Thread.ofVirtual().name("MCProtocol Virtual Handler-", 0).factory();
+        decisionTimeoutNanos = DEFAULT_DECISION_TIMEOUT_NANOS;
+        outbound = new OutboundPacketListener(this);
+        rawStage = new RawPacketStage(PacketTypeRegistry.get());
+        rateLimiter = new RateLimiter(PacketTypeRegistry.get());
+        metrics = PacketMetrics.get();
+        recorder = new PacketRecorder(rawStage);
+        injector = new ChannelInjector(this, outbound, rawStage, recorder);
+    }
+
+    /**
+     * Installs this listener into every connection of the server, including connections still in the
+     * handshake, login or configuration phase, instead of attaching it per player on join.
+     * <p>
+     * The listener is added once in the server's channel initialization, so joining players cost no
+     * reflection or pipeline edits. {@link #startListening(Player)} then only associates the player with
+     * their connection.
+     *
+     * @throws IllegalStateException if the server's channels cannot be accessed
+     */
+    public void injectGlobally() throws IllegalStateException
+    {
+        mainThreadDispatcher.start();
+        injector.install(serverConnection());
+    }
+
+    /**
+     * @return {@code true} if this listener is installed into every connection of the server
+     */
+    public boolean isInjectedGlobally()
+    {
+        return injector.isInstalled();
+    }
+
+    private static ServerConnectionListener serverConnection()
+    {
+        return ((CraftServer) Bukkit.getServer()).getServer().getConnection();
     }
     @Override
     public void startListening(Player player) {
@@ -41,7 +125,15 @@ public final class PacketListener implements IPacketListener<RegisteredPacketHan
             String handlerKey = player.getUniqueId().toString();
 
             connections.put(player.getUniqueId(), connection);
-            connection.channel.pipeline().addBefore("packet_handler", handlerKey, this);
+            connection.channel.attr(PLAYER_ID).set(player.getUniqueId());
+            mainThreadDispatcher.start();
+            //Already covered by the global injection
+            if(connection.channel.pipeline().context(this) == null)
+                connection.channel.pipeline().addBefore(CONNECTION_HANDLER_NAME, handlerKey, this);
+            if(connection.channel.pipeline().context(outbound) == null)
+                connection.channel.pipeline().addBefore(CONNECTION_HANDLER_NAME, handlerKey + OUTBOUND_SUFFIX, outbound);
+            rawStage.inject(connection.channel.pipeline());
+            recorder.inject(connection.channel.pipeline());
         }
         catch (IllegalStateException e)
         {
@@ -57,12 +149,26 @@ public final class PacketListener implements IPacketListener<RegisteredPacketHan
         String handlerKey = player.getUniqueId().toString();
         Connection connection = connections.remove(player.getUniqueId());
 
-        connection.channel.pipeline().remove(handlerKey);
+        connection.channel.attr(PLAYER_ID).set(null);
+        if(connection.channel.pipeline().get(handlerKey) != null)
+            connection.channel.pipeline().remove(handlerKey);
+        if(connection.channel.pipeline().get(handlerKey + OUTBOUND_SUFFIX) != null)
+            connection.channel.pipeline().remove(handlerKey + OUTBOUND_SUFFIX);
+        if(!injector.isInstalled())
+        {
+            rawStage.uninject(connection.channel.pipeline());
+            recorder.uninject(connection.channel.pipeline());
+        }
     }
 
     public void cancel()
     {
         Bukkit.getOnlinePlayers().forEach(this::cancelListening);
+        if(injector.isInstalled())
+            injector.uninstall(serverConnection());
+        recorder.stop();
+        mainThreadDispatcher.stop();
+        asyncExecutor.shutdown();
     }
 
     @Override
@@ -75,35 +181,535 @@ public final class PacketListener implements IPacketListener<RegisteredPacketHan
         return packetHandler;
     }
 
+    /**
+     * @return the stage that filters serverbound frames before they are decoded
+     */
+    public RawPacketStage getRawPacketStage()
+    {
+        return rawStage;
+    }
+
+    /**
+     * @return the recorder that captures raw frames for offline replay
+     */
+    public PacketRecorder getRecorder()
+    {
+        return recorder;
+    }
+
+    /**
+     * @return the limiter that caps the rate of serverbound packets per connection
+     */
+    public RateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the counters and latency histograms of the dispatch path
+     */
+    public PacketMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets how long a packet is held for a handler returning a {@link CompletableFuture}. A packet whose
+     * decision is not made in time is passed on, together with the packets held behind it.
+     *
+     * @param timeout the timeout, must be positive
+     * @param unit the unit of {@code timeout}
+     */
+    public void setDecisionTimeout(long timeout, TimeUnit unit)
+    {
+        if(timeout <= 0)
+            throw new IllegalArgumentException("Decision timeout must be positive");
+        decisionTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return how long a packet is held for a handler's future, in nanoseconds
+     */
+    public long getDecisionTimeoutNanos()
+    {
+        return decisionTimeoutNanos;
+    }
+
+    /**
+     * @return the dispatcher that batches intercepted packets onto the main thread
+     */
+    public MainThreadDispatcher getMainThreadDispatcher()
+    {
+        return mainThreadDispatcher;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext channelHandlerContext) throws Exception
+    {
+        InboundQueue.release(channelHandlerContext);
+    }
+
+    /**
+     * Intercepts an inbound message without blocking the channel's event loop.
+     * <p>
+     * Handlers run according to their {@link PacketHandlerThreading} mode, one stage after another:
+     * {@code NETTY} handlers inline on the event loop, {@code ASYNC} handlers on a worker striped by
+     * the player's UUID, {@code VIRTUAL} handlers on a virtual thread and {@code MAIN} handlers on the
+     * {@link MainThreadDispatcher}, which runs them once per tick in bulk. Stages without handlers are
+     * skipped and the first cancellation ends the chain; the cancelled packet is then only passed to the
+     * {@link io.github.daybringer.packet.utils.PacketHandlerPriority#MONITOR MONITOR} handlers of the
+     * remaining stages that do not ignore cancelled packets. A handler returning a {@link CompletableFuture}
+     * holds the packet without blocking its thread until the future completes or the
+     * {@linkplain #setDecisionTimeout(long, TimeUnit) decision timeout} passes, which lets the packet through.
+     * Packets that are not cancelled are then collected for the coalescing handlers of their type, see
+     * {@link PacketCoalescer}.
+     * The decision is carried back to the event loop, which forwards the packet with
+     * {@link ChannelHandlerContext#fireChannelRead(Object)} in the order it was received.
+     * <p>
+     * Messages that are not packets, or packets of a type no handler is registered for, are forwarded
+     * right away unless earlier packets of the connection are still waiting for their decision.
+     * <p>
+     * Packets over the connection's {@link RateLimiter} limits are discarded before any of this, and
+     * disconnect the client with a reason if the limiter's policy says so.
+     * <p>
+     * Every packet of a handled type is counted in the {@link PacketMetrics} when it is seen and once it is
+     * forwarded or cancelled, together with the time it waited for the main thread; packets of other types
+     * only if the metrics {@linkplain PacketMetrics#setCountingUnhandled(boolean) count them}. The same points are recorded as
+     * JDK Flight Recorder events: a {@link PacketReceiveEvent} for the time spent on the event loop, a
+     * {@link PacketHandoffEvent} for the wait for the main thread and a {@link PacketDecisionEvent} once
+     * the packet is forwarded or cancelled. The receive event is only created for handled packet types, the
+     * hand-off and decision events only while a recording enables them.
+     */
     @Override
     public void channelRead(ChannelHandlerContext channelHandlerContext, Object o) throws Exception
     {
-        boolean cancelFlow = false;
+        if(!(o instanceof Packet<?>) || !packetHandler.isHandled(o.getClass()))
+        {
+            receive(channelHandlerContext, o, false, PacketDecisionEvent.beginIfEnabled());
+            return;
+        }
+        PacketReceiveEvent received = new PacketReceiveEvent();
+        received.begin();
+        receive(channelHandlerContext, o, true, PacketDecisionEvent.beginIfEnabled());
+        received.complete(o.getClass(), channelHandlerContext.channel().attr(PLAYER_ID).get());
+    }
 
-        if(o instanceof Packet<?> packet)
+    /**
+     * @param handled whether the packet is of a type with registered handlers
+     */
+    private void receive(ChannelHandlerContext channelHandlerContext, Object o, boolean handled, PacketDecisionEvent decision)
+    {
+        boolean counted = handled || metrics.isCountingUnhandled();
+        if(o instanceof Packet<?> limited)
         {
-            if(Bukkit.isPrimaryThread())
+            if(counted)
+                metrics.seen(channelHandlerContext.channel(), limited);
+            RateLimitPolicy policy = rateLimiter.acquire(channelHandlerContext.channel(), limited);
+            if(policy == RateLimitPolicy.DISCONNECT && channelHandlerContext.channel().isOpen())
             {
-                cancelFlow = packetHandler.callHandlers(packet);
+                Bukkit.getLogger().log(Level.WARNING, "Disconnecting " + channelHandlerContext.channel().remoteAddress()
+                        + " for exceeding the packet rate limit with " + limited.getClass().getSimpleName());
+                disconnect(channelHandlerContext, Component.translatable("disconnect.exceeded_packet_rate"));
             }
-            else
+            if(policy != null)
+            {
+                if(counted)
+                    metrics.cancelled(channelHandlerContext.channel(), limited);
+                if(decision != null)
+                    decision.complete(limited.getClass(), channelHandlerContext.channel().attr(PLAYER_ID).get(), true);
+                return;
+            }
+        }
+        if(!(o instanceof Packet<?> packet) || !handled)
+        {
+            if(o instanceof Packet<?> unhandled)
+            {
+                if(counted)
+                    metrics.forwarded(channelHandlerContext.channel(), unhandled);
+                if(decision != null)
+                    decision.complete(unhandled.getClass(), channelHandlerContext.channel().attr(PLAYER_ID).get(), false);
+            }
+            InboundQueue.forward(channelHandlerContext, o);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+        InboundQueue queue = InboundQueue.of(channelHandlerContext);
+        Object orderKey = orderKey(channelHandlerContext);
+
+        //Fast path: synchronous event loop handlers decide before the packet is held
+        int stage = 0;
+        if(!packetHandler.hasDeferredHandlers(packetClass, PacketHandlerThreading.NETTY))
+        {
+            if(handle(packet, PacketHandlerThreading.NETTY, playerId(orderKey)))
             {
-                cancelFlow = Bukkit.getScheduler().callSyncMethod(Main.getProvidingPlugin(Main.class), ()->packetHandler.callHandlers(packet)).get();
+                cancel(channelHandlerContext, orderKey, packet, 0);
+                if(decision != null)
+                    decision.complete(packetClass, playerId(orderKey), true);
+                return;
             }
-            if(cancelFlow)
+            stage = 1;
+        }
+
+        stage = nextStage(packetClass, stage);
+        if(stage < 0)
+        {
+            metrics.forwarded(channelHandlerContext.channel(), packet);
+            if(decision != null)
+                decision.complete(packetClass, playerId(orderKey), false);
+            queue.forward(packet);
+            coalesce(channelHandlerContext, packet);
+            return;
+        }
+
+        InboundQueue.Entry entry = queue.hold(packet);
+        proceed(channelHandlerContext, orderKey, entry, packet, stage, PacketHandlerThreading.NETTY, decision);
+    }
+
+    /**
+     * Intercepts an outgoing packet on the channel's event loop, before it is encoded.
+     * <p>
+     * {@code NETTY} handlers run inline and may drop or replace the packet. A dropped packet is handed
+     * to the cancel handlers; the packet that is finally sent is handed to the {@code ASYNC},
+     * {@code VIRTUAL} and {@code MAIN} handlers, which observe it without holding it back. The sub-packets of a
+     * {@link ClientboundBundlePacket} are intercepted one by one.
+     *
+     * @return the packet to write, or {@code null} if it was dropped
+     */
+    Packet<?> interceptOutbound(ChannelHandlerContext channelHandlerContext, Packet<?> packet)
+    {
+        if(packet instanceof ClientboundBundlePacket bundle)
+            return interceptBundle(channelHandlerContext, bundle);
+        if(!packetHandler.isHandled(packet.getClass()))
+        {
+            if(metrics.isCountingUnhandled())
             {
+                metrics.seen(channelHandlerContext.channel(), packet);
+                metrics.forwarded(channelHandlerContext.channel(), packet);
+            }
+            return packet;
+        }
+        metrics.seen(channelHandlerContext.channel(), packet);
+
+        Object orderKey = orderKey(channelHandlerContext);
+        Packet<?> result;
+        try {
+            result = packetHandler.callOutboundHandlers(packet, playerId(orderKey));
+        }
+        catch (RuntimeException e)
+        {
+            Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+            result = packet;
+        }
+        if(result == null)
+        {
+            cancel(channelHandlerContext, orderKey, packet, 0);
+            return null;
+        }
+        metrics.forwarded(channelHandlerContext.channel(), packet);
+
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet<?>> resultClass = (Class<? extends Packet<?>>) result.getClass();
+        Packet<?> sent = result;
+        UUID playerId = playerId(orderKey);
+        if(packetHandler.hasHandlers(resultClass, PacketHandlerThreading.ASYNC))
+            asyncExecutor.execute(orderKey, () -> handle(sent, PacketHandlerThreading.ASYNC, playerId));
+        if(packetHandler.hasHandlers(resultClass, PacketHandlerThreading.VIRTUAL))
+            virtualThreads.newThread(() -> handle(sent, PacketHandlerThreading.VIRTUAL, playerId)).start();
+        if(packetHandler.hasHandlers(resultClass, PacketHandlerThreading.MAIN))
+            mainThreadDispatcher.submit(() -> handle(sent, PacketHandlerThreading.MAIN, playerId));
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Packet<?> interceptBundle(ChannelHandlerContext channelHandlerContext, ClientboundBundlePacket bundle)
+    {
+        List<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>();
+        boolean changed = false;
+        for(Packet<? super ClientGamePacketListener> subPacket : bundle.subPackets())
+        {
+            Packet<?> result = interceptOutbound(channelHandlerContext, subPacket);
+            changed |= result != subPacket;
+            if(result != null)
+                packets.add((Packet<? super ClientGamePacketListener>) result);
+        }
+        if(!changed)
+            return bundle;
+        return packets.isEmpty() ? null : new ClientboundBundlePacket(packets);
+    }
+
+    /**
+     * @return the index in {@link #STAGES} of the first stage from {@code from} on with handlers for the
+     *         packet type, or {@code -1} if there is none
+     */
+    private int nextStage(Class<? extends Packet<?>> packetClass, int from)
+    {
+        for(int stage = from; stage < STAGES.length; stage++)
+        {
+            if(packetHandler.hasHandlers(packetClass, STAGES[stage]))
+                return stage;
+        }
+        return -1;
+    }
+
+    /**
+     * Runs the handler stages of a held packet from the given stage on, each on the thread its threading
+     * mode asks for, and completes the packet's entry once a stage cancels it or all stages passed it.
+     * <p>
+     * A stage with handlers returning a {@link CompletableFuture} continues on whichever thread completes
+     * the future; the next stage is handed over to its own thread from there.
+     *
+     * @param current the threading mode whose thread the caller runs on, or {@code null} if unknown
+     * @param decision the flight recorder event begun when the packet was received, or {@code null} if not recorded
+     */
+    private void proceed(ChannelHandlerContext channelHandlerContext, Object orderKey, InboundQueue.Entry entry,
+                         Packet<?> packet, int stage, PacketHandlerThreading current, PacketDecisionEvent decision)
+    {
+        if(stage < 0)
+        {
+            metrics.forwarded(channelHandlerContext.channel(), packet);
+            if(decision != null)
+                decision.complete(packet.getClass(), playerId(orderKey), false);
+            entry.complete(false);
+            coalesce(channelHandlerContext, packet);
+            return;
+        }
+
+        PacketHandlerThreading threading = STAGES[stage];
+        Runnable work = () -> {
+            @SuppressWarnings("unchecked")
+            Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+            if(!packetHandler.hasDeferredHandlers(packetClass, threading))
+            {
+                decide(channelHandlerContext, orderKey, entry, packet, stage, handle(packet, threading, playerId(orderKey)), threading, decision);
+                return;
+            }
+
+            CompletableFuture<Boolean> result;
+            try {
+                result = packetHandler.callHandlersDeferred(packet, threading, executor(channelHandlerContext, orderKey, threading), playerId(orderKey));
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+                result = CompletableFuture.completedFuture(false);
+            }
+            if(result.isDone() && !result.isCompletedExceptionally())
+            {
+                decide(channelHandlerContext, orderKey, entry, packet, stage, Boolean.TRUE.equals(result.getNow(false)), threading, decision);
+                return;
+            }
+            result.copy().orTimeout(decisionTimeoutNanos, TimeUnit.NANOSECONDS).whenComplete((cancelled, error) -> {
+                if(error instanceof TimeoutException)
+                    Bukkit.getLogger().log(Level.WARNING, "Decision about packet " + packet.getClass() + " timed out, passing it on");
+                else if(error != null)
+                    Bukkit.getLogger().log(Level.WARNING, "Error deciding about packet " + packet.getClass(), error);
+                decide(channelHandlerContext, orderKey, entry, packet, stage, error == null && Boolean.TRUE.equals(cancelled), null, decision);
+            });
+        };
+
+        switch (threading)
+        {
+            case NETTY -> {
+                if(channelHandlerContext.executor().inEventLoop())
+                    work.run();
+                else
+                    channelHandlerContext.executor().execute(work);
+            }
+            case ASYNC -> {
+                if(current == PacketHandlerThreading.ASYNC)
+                    work.run();
+                //The executor is shut down, the async handlers are skipped
+                else if(!asyncExecutor.execute(orderKey, work))
+                    decide(channelHandlerContext, orderKey, entry, packet, stage, false, null, decision);
+            }
+            case VIRTUAL -> {
+                if(current == PacketHandlerThreading.VIRTUAL)
+                    work.run();
+                else
+                    virtualThreads.newThread(work).start();
+            }
+            case MAIN -> {
                 if(Bukkit.isPrimaryThread())
-                {
-                    packetHandler.callCancelHandlers(packet);
-                }
+                    work.run();
                 else
                 {
-                    Bukkit.getScheduler().callSyncMethod(Main.getProvidingPlugin(Main.class), ()->packetHandler.callCancelHandlers(packet));
+                    long submitted = System.nanoTime();
+                    PacketHandoffEvent handoff = PacketHandoffEvent.beginIfEnabled();
+                    boolean queued = mainThreadDispatcher.submit(() -> {
+                        metrics.mainThreadDelay(System.nanoTime() - submitted);
+                        if(handoff != null)
+                            handoff.complete(packet.getClass(), playerId(orderKey));
+                        work.run();
+                    });
+                    //The dispatcher is stopped, the main thread handlers are skipped
+                    if(!queued)
+                        decide(channelHandlerContext, orderKey, entry, packet, stage, false, null, decision);
                 }
             }
         }
+    }
+
+    /**
+     * @return an executor running work on the thread the given threading mode asks for
+     */
+    private Executor executor(ChannelHandlerContext channelHandlerContext, Object orderKey, PacketHandlerThreading threading)
+    {
+        return switch (threading)
+        {
+            case NETTY -> channelHandlerContext.executor();
+            case ASYNC -> work -> {
+                if(!asyncExecutor.execute(orderKey, work))
+                    throw new RejectedExecutionException("The async executor is shut down");
+            };
+            case VIRTUAL -> work -> virtualThreads.newThread(work).start();
+            case MAIN -> work -> {
+                if(!mainThreadDispatcher.submit(work))
+                    throw new RejectedExecutionException("The main thread dispatcher is stopped");
+            };
+        };
+    }
+
+    private void decide(ChannelHandlerContext channelHandlerContext, Object orderKey, InboundQueue.Entry entry,
+                        Packet<?> packet, int stage, boolean cancelled, PacketHandlerThreading current, PacketDecisionEvent decision)
+    {
+        if(cancelled)
+        {
+            cancel(channelHandlerContext, orderKey, packet, stage);
+            if(decision != null)
+                decision.complete(packet.getClass(), playerId(orderKey), true);
+            entry.complete(true);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+        proceed(channelHandlerContext, orderKey, entry, packet, nextStage(packetClass, stage + 1), current, decision);
+    }
+
+    /**
+     * Hands a packet that was not cancelled to the coalescing handlers of its type, which receive the
+     * latest packet of the connection with the next main thread drain.
+     */
+    private void coalesce(ChannelHandlerContext channelHandlerContext, Packet<?> packet)
+    {
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+        List<RegisteredPacketHandlerContainer> handlers = packetHandler.getCoalescedHandlers(packetClass);
+        if(!handlers.isEmpty())
+            PacketCoalescer.offer(channelHandlerContext.channel(), handlers, packet, packetHandler, mainThreadDispatcher);
+    }
+
+    /**
+     * Runs the handlers of one threading mode for a packet on the calling thread.
+     *
+     * @param packet the packet to handle
+     * @param threading the threading mode of the handlers to run
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @return {@code true} if the packet was cancelled
+     */
+    private boolean handle(Packet<?> packet, PacketHandlerThreading threading, UUID playerId)
+    {
+        try {
+            return packetHandler.callHandlers(packet, threading, playerId);
+        }
+        catch (RuntimeException e)
+        {
+            Bukkit.getLogger().log(Level.WARNING, "Error handling packet " + packet.getClass(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Hands a cancelled packet to the cancel handlers, and to the monitor handlers of the stages after the
+     * cancelling one that observe cancelled packets, each on the thread its threading mode asks for.
+     *
+     * @param stage the index in {@link #STAGES} of the stage that cancelled the packet
+     */
+    private void cancel(ChannelHandlerContext channelHandlerContext, Object orderKey, Packet<?> packet, int stage)
+    {
+        @SuppressWarnings("unchecked")
+        Class<? extends Packet<?>> packetClass = (Class<? extends Packet<?>>) packet.getClass();
+
+        UUID playerId = playerId(orderKey);
+
+        metrics.cancelled(channelHandlerContext.channel(), packet);
+        if(packetHandler.hasCancelHandlers(packetClass, PacketHandlerThreading.NETTY))
+        {
+            if(channelHandlerContext.executor().inEventLoop())
+                packetHandler.callCancelHandlers(packet, PacketHandlerThreading.NETTY, playerId);
+            else
+                channelHandlerContext.executor().execute(() -> packetHandler.callCancelHandlers(packet, PacketHandlerThreading.NETTY, playerId));
+        }
+        if(packetHandler.hasCancelHandlers(packetClass, PacketHandlerThreading.ASYNC))
+            asyncExecutor.execute(orderKey, () -> packetHandler.callCancelHandlers(packet, PacketHandlerThreading.ASYNC, playerId));
+        if(packetHandler.hasCancelHandlers(packetClass, PacketHandlerThreading.VIRTUAL))
+            virtualThreads.newThread(() -> packetHandler.callCancelHandlers(packet, PacketHandlerThreading.VIRTUAL, playerId)).start();
+        if(packetHandler.hasCancelHandlers(packetClass, PacketHandlerThreading.MAIN))
+            mainThreadDispatcher.submit(() -> packetHandler.callCancelHandlers(packet, PacketHandlerThreading.MAIN, playerId));
+
+        //The later stages never ran, but their monitors may still want to see the outcome
+        for(int later = stage + 1; later < STAGES.length; later++)
+        {
+            PacketHandlerThreading threading = STAGES[later];
+            if(!packetHandler.hasCancelledMonitors(packetClass, threading))
+                continue;
+            try {
+                executor(channelHandlerContext, orderKey, threading).execute(() -> packetHandler.callCancelledMonitors(packet, threading, playerId));
+            }
+            catch (RejectedExecutionException e)
+            {
+                //The main thread dispatcher or the async executor is stopped
+            }
+        }
+    }
+
+    /**
+     * Disconnects a connection on its event loop, sending the reason first if its phase has a disconnect
+     * packet. Further packets of the connection are no longer read. Only the first call per connection
+     * has an effect.
+     */
+    private static void disconnect(ChannelHandlerContext channelHandlerContext, Component reason)
+    {
+        if(channelHandlerContext.channel().attr(DISCONNECTING).setIfAbsent(Boolean.TRUE) != null)
+            return;
+        if(!(channelHandlerContext.pipeline().get(CONNECTION_HANDLER_NAME) instanceof Connection connection))
+        {
+            channelHandlerContext.close();
+            return;
+        }
 
-        if(!cancelFlow) IPacketListener.super.channelRead(channelHandlerContext, o);
+        ConnectionProtocol protocol = ConnectionAccess.encoderProtocol(channelHandlerContext.pipeline().get(ENCODER_NAME));
+        Packet<?> packet = protocol == null ? null : switch (protocol)
+        {
+            case LOGIN -> new ClientboundLoginDisconnectPacket(reason);
+            case CONFIGURATION, PLAY -> new ClientboundDisconnectPacket(reason);
+            default -> null;
+        };
+        if(packet == null)
+        {
+            connection.disconnect(reason);
+            return;
+        }
+        connection.send(packet, future -> connection.disconnect(reason), true);
+        connection.setReadOnly();
+    }
+
+    /**
+     * @return the UUID of the player owning the channel, or the channel itself while it is not known yet
+     */
+    private static Object orderKey(ChannelHandlerContext channelHandlerContext)
+    {
+        UUID playerId = channelHandlerContext.channel().attr(PLAYER_ID).get();
+        return playerId != null ? playerId : channelHandlerContext.channel();
+    }
+
+    /**
+     * @return the UUID of the player an order key belongs to, or {@code null} while it is not known
+     */
+    private static UUID playerId(Object orderKey)
+    {
+        return orderKey instanceof UUID playerId ? playerId : null;
     }
 
     public static PacketListener get()
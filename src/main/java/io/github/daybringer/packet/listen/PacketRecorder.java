@@ -0,0 +1,228 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.packet.capture.CaptureWriter;
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import io.github.daybringer.packet.utils.RawPacketAction;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.login.ClientboundLoginCompressionPacket;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the raw frames of every connection into a {@link CaptureWriter}, for offline replay.
+ * <p>
+ * Serverbound frames are recorded by a connection wide {@link RawPacketFilter} on the {@link RawPacketStage},
+ * so they are taken decompressed and before they are decoded. Clientbound frames are recorded by this
+ * handler, which sits between the connection's encoder and its compressor and sees each encoded packet before
+ * it is compressed. Compression is set up once the login compression packet is written; the recorder then moves
+ * behind the compressor before the first compressed frame is encoded. While nothing is recorded, frames pass
+ * with a single volatile read.
+ */
+@ChannelHandler.Sharable
+public final class PacketRecorder extends ChannelOutboundHandlerAdapter
+{
+    static final String HANDLER_NAME = "mcprotocol_recorder";
+
+    private static final String COMPRESS_NAME = "compress";
+    private static final String ENCODER_NAME = "encoder";
+    private static final String DECODER_NAME = "decoder";
+    private static final AttributeKey<Long> CONNECTION_ID = AttributeKey.valueOf("mcprotocol_capture_connection");
+    private static final AttributeKey<Boolean> ABOVE_COMPRESS = AttributeKey.valueOf("mcprotocol_recorder_above_compress");
+
+    private final RawPacketStage rawStage;
+    private final RawPacketFilter inbound;
+    private final AtomicLong connectionIds;
+    private volatile CaptureWriter writer;
+    private volatile boolean outbound;
+
+    PacketRecorder(RawPacketStage rawStage)
+    {
+        this.rawStage = rawStage;
+        this.inbound = this::recordInbound;
+        this.connectionIds = new AtomicLong();
+    }
+
+    /**
+     * Starts recording into a writer, replacing the recording in progress.
+     *
+     * @param writer the writer to append frames to; closed by {@link #stop()}
+     * @param inbound whether to record serverbound frames
+     * @param outbound whether to record clientbound frames
+     */
+    public synchronized void start(CaptureWriter writer, boolean inbound, boolean outbound)
+    {
+        stop();
+        this.writer = writer;
+        this.outbound = outbound;
+        if(inbound)
+            rawStage.registerAll(this.inbound);
+    }
+
+    /**
+     * Stops recording and closes the writer, if recording.
+     */
+    public synchronized void stop()
+    {
+        CaptureWriter current = writer;
+        if(current == null)
+            return;
+        rawStage.unregister(inbound);
+        writer = null;
+        outbound = false;
+        current.close();
+    }
+
+    /**
+     * @return {@code true} while frames are recorded
+     */
+    public boolean isRecording()
+    {
+        return writer != null;
+    }
+
+    /**
+     * @return {@code true} while clientbound frames are recorded
+     */
+    public boolean isRecordingOutbound()
+    {
+        return writer != null && outbound;
+    }
+
+    /**
+     * @return the writer frames are recorded into, or {@code null} if not recording
+     */
+    public CaptureWriter getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * @param channel a connection's channel
+     * @return the id the connection's frames are recorded under
+     */
+    public long getConnectionId(Channel channel)
+    {
+        Long id = channel.attr(CONNECTION_ID).get();
+        if(id != null)
+            return id;
+        Long existing = channel.attr(CONNECTION_ID).setIfAbsent(connectionIds.incrementAndGet());
+        return existing != null ? existing : channel.attr(CONNECTION_ID).get();
+    }
+
+    /**
+     * Adds the recorder behind the connection's encoder, in front of its compressor if there is one.
+     */
+    void inject(ChannelPipeline pipeline)
+    {
+        if(pipeline.context(this) != null || pipeline.get(ENCODER_NAME) == null)
+            return;
+        if(pipeline.get(COMPRESS_NAME) != null)
+        {
+            pipeline.channel().attr(ABOVE_COMPRESS).set(Boolean.TRUE);
+            pipeline.addAfter(COMPRESS_NAME, HANDLER_NAME, this);
+        }
+        else
+            pipeline.addBefore(ENCODER_NAME, HANDLER_NAME, this);
+    }
+
+    /**
+     * Moves the recorder between the encoder and the compressor, if the compressor was placed behind it.
+     *
+     * @return {@code true} if the recorder was moved
+     */
+    private boolean moveBehindCompressor(ChannelPipeline pipeline)
+    {
+        List<String> names = pipeline.names();
+        int compress = names.indexOf(COMPRESS_NAME);
+        int recorder = names.indexOf(HANDLER_NAME);
+        if(compress < 0 || recorder < 0)
+            return false;
+        pipeline.channel().attr(ABOVE_COMPRESS).set(Boolean.TRUE);
+        //Outbound frames pass the handlers from the tail, the compressor has to come after the recorder
+        if(compress < recorder)
+            return false;
+        pipeline.remove(this);
+        pipeline.addAfter(COMPRESS_NAME, HANDLER_NAME, this);
+        return true;
+    }
+
+    /**
+     * Removes the recorder from the connection's pipeline, if present.
+     */
+    void uninject(ChannelPipeline pipeline)
+    {
+        if(pipeline.context(this) != null)
+            pipeline.remove(this);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        CaptureWriter current = writer;
+        if(current == null || !outbound || !(msg instanceof ByteBuf frame))
+        {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        //Compression was set up while nothing was recorded, in front of the recorder: this frame is already compressed
+        ChannelPipeline pipeline = ctx.pipeline();
+        if(ctx.channel().attr(ABOVE_COMPRESS).get() == null && pipeline.get(COMPRESS_NAME) != null && moveBehindCompressor(pipeline))
+        {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        int start = frame.readerIndex();
+        long id = RawPacketStage.readVarInt(frame, start);
+        if(id >= 0)
+        {
+            int bodyStart = start + (int) (id >>> 32);
+            ConnectionProtocol protocol = ConnectionAccess.encoderProtocol(pipeline.get(ENCODER_NAME));
+            current.append(getConnectionId(ctx.channel()), PacketFlow.CLIENTBOUND, protocol, (int) id,
+                    frame.slice(bodyStart, frame.writerIndex() - bodyStart));
+            if(protocol == ConnectionProtocol.LOGIN && !promise.isVoid() && isCompressionPacket((int) id))
+            {
+                //The connection adds the compressor from a listener of this write: move behind it right after
+                ChannelPromise written = ctx.newPromise();
+                written.addListener(future -> {
+                    if(future.isSuccess())
+                        promise.trySuccess();
+                    else
+                        promise.tryFailure(future.cause());
+                    if(ctx.channel().attr(ABOVE_COMPRESS).get() == null)
+                        moveBehindCompressor(pipeline);
+                });
+                ctx.write(msg, written);
+                return;
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    private static boolean isCompressionPacket(int packetId)
+    {
+        PacketTypeInfo type = PacketTypeRegistry.get().byProtocolId(ConnectionProtocol.LOGIN, PacketFlow.CLIENTBOUND, packetId);
+        return type != null && type.type() == ClientboundLoginCompressionPacket.class;
+    }
+
+    private RawPacketAction recordInbound(Channel channel, int packetId, PacketTypeInfo type, ByteBuf body)
+    {
+        CaptureWriter current = writer;
+        if(current != null)
+            current.append(getConnectionId(channel), PacketFlow.SERVERBOUND,
+                    ConnectionAccess.decoderProtocol(channel.pipeline().get(DECODER_NAME)), packetId, body);
+        return RawPacketAction.PASS;
+    }
+}
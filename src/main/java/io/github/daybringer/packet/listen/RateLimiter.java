@@ -0,0 +1,243 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import io.github.daybringer.packet.utils.RateLimit;
+import io.github.daybringer.packet.utils.RateLimitPolicy;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.Connection;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limits on the serverbound packets of every connection, enforced on the channel's event loop
+ * before a packet reaches any handler or is handed to another thread.
+ * <p>
+ * A limit may apply to all packets of a connection and to single packet types. Each connection keeps its
+ * own buckets in a channel attribute; they are only touched on the connection's event loop. Changing the
+ * configuration replaces an immutable snapshot, which connections pick up with their next packet. Buckets
+ * of limits that stay in place keep their tokens, capped at the new burst, so reconfiguring does not hand
+ * every connection a fresh burst; only newly added limits start full.
+ */
+public final class RateLimiter
+{
+    private static final AttributeKey<Buckets> KEY = AttributeKey.valueOf("mcprotocol_rate_limit");
+
+    private final PacketTypeRegistry types;
+    private final LongAdder violations;
+    private volatile Limits limits;
+
+    RateLimiter(PacketTypeRegistry types)
+    {
+        this.types = types;
+        this.violations = new LongAdder();
+        this.limits = Limits.of(null, new RateLimit[types.size()], RateLimitPolicy.DROP);
+    }
+
+    /**
+     * Limits all serverbound packets of each connection.
+     *
+     * @param limit the limit, or {@code null} to remove it
+     */
+    public synchronized void setConnectionLimit(RateLimit limit)
+    {
+        Limits current = limits;
+        limits = Limits.of(limit, current.byType, current.policy);
+    }
+
+    /**
+     * Limits the packets of one serverbound packet type per connection.
+     *
+     * @param packetType the serverbound packet class
+     * @param limit the limit, or {@code null} to remove it
+     * @throws IllegalArgumentException if the class is not a serverbound packet of the protocol tables
+     */
+    public synchronized void setLimit(Class<? extends Packet<?>> packetType, RateLimit limit) throws IllegalArgumentException
+    {
+        PacketTypeInfo info = types.info(packetType);
+        if(info == null || info.flow() != PacketFlow.SERVERBOUND)
+            throw new IllegalArgumentException(packetType.getName() + " is not a serverbound packet of the protocol tables");
+
+        Limits current = limits;
+        RateLimit[] byType = current.byType.clone();
+        byType[info.index()] = limit;
+        limits = Limits.of(current.connection, byType, current.policy);
+    }
+
+    /**
+     * Sets what happens to packets that exceed a limit, {@link RateLimitPolicy#DROP} by default.
+     *
+     * @param policy the policy for over-limit packets
+     */
+    public synchronized void setPolicy(RateLimitPolicy policy)
+    {
+        Limits current = limits;
+        limits = Limits.of(current.connection, current.byType, policy);
+    }
+
+    /**
+     * @return what happens to packets that exceed a limit
+     */
+    public RateLimitPolicy getPolicy()
+    {
+        return limits.policy;
+    }
+
+    /**
+     * @return the number of packets that exceeded a limit on any connection
+     */
+    public long getViolations()
+    {
+        return violations.sum();
+    }
+
+    /**
+     * @param player an online player
+     * @return the number of packets of the player's connection that exceeded a limit
+     */
+    public long getViolations(Player player)
+    {
+        Connection connection = PacketListener.get().getConnection(player);
+        return connection == null || connection.channel == null ? 0 : getViolations(connection.channel);
+    }
+
+    /**
+     * @param channel a connection's channel
+     * @return the number of packets of the connection that exceeded a limit
+     */
+    public long getViolations(Channel channel)
+    {
+        Buckets buckets = channel.attr(KEY).get();
+        return buckets == null ? 0 : buckets.violations;
+    }
+
+    /**
+     * Takes a token for a packet from the connection's buckets. Must be called on the channel's event loop.
+     *
+     * @param channel the channel the packet was read from
+     * @param packet the packet
+     * @return {@code null} if the packet is within its limits, otherwise the policy to apply to it
+     */
+    RateLimitPolicy acquire(Channel channel, Packet<?> packet)
+    {
+        Limits current = limits;
+        if(!current.enabled)
+            return null;
+
+        Buckets buckets = channel.attr(KEY).get();
+        if(buckets == null || buckets.limits != current)
+        {
+            buckets = new Buckets(current, buckets);
+            channel.attr(KEY).set(buckets);
+        }
+
+        long now = System.nanoTime();
+        int index = types.index(packet.getClass());
+        RateLimit typeLimit = index < 0 ? null : current.byType[index];
+        //Check both buckets before taking from either, so a packet dropped by one does not drain the other
+        boolean allowed = (current.connection == null || buckets.available(-1, current.connection, now))
+                && (typeLimit == null || buckets.available(index, typeLimit, now));
+        if(allowed)
+        {
+            if(current.connection != null)
+                buckets.take(-1);
+            if(typeLimit != null)
+                buckets.take(index);
+            return null;
+        }
+
+        buckets.violations++;
+        violations.increment();
+        return current.policy;
+    }
+
+    /**
+     * Immutable configuration snapshot. A snapshot without any limit is disabled.
+     */
+    private record Limits(RateLimit connection, RateLimit[] byType, RateLimitPolicy policy, boolean enabled)
+    {
+        private static Limits of(RateLimit connection, RateLimit[] byType, RateLimitPolicy policy)
+        {
+            return new Limits(connection, byType, policy, connection != null || Arrays.stream(byType).anyMatch(Objects::nonNull));
+        }
+    }
+
+    /**
+     * Token buckets of one connection, indexed by packet type with the connection bucket under {@code -1}.
+     */
+    private static final class Buckets
+    {
+        private final Limits limits;
+        private final double[] tokens;
+        private final long[] refilled;
+        private double connectionTokens;
+        private long connectionRefilled;
+        private volatile long violations;
+
+        /**
+         * @param previous the buckets of the connection under the previous configuration, or {@code null}
+         */
+        private Buckets(Limits limits, Buckets previous)
+        {
+            long now = System.nanoTime();
+            this.limits = limits;
+            this.tokens = new double[limits.byType.length];
+            this.refilled = new long[limits.byType.length];
+            for(int i = 0; i < tokens.length; i++)
+            {
+                RateLimit limit = limits.byType[i];
+                refilled[i] = now;
+                if(limit == null)
+                    continue;
+                if(previous != null && previous.limits.byType[i] != null)
+                {
+                    tokens[i] = Math.min(limit.burst(), previous.tokens[i]);
+                    refilled[i] = previous.refilled[i];
+                }
+                else
+                    tokens[i] = limit.burst();
+            }
+            this.connectionRefilled = now;
+            if(limits.connection != null && previous != null && previous.limits.connection != null)
+            {
+                this.connectionTokens = Math.min(limits.connection.burst(), previous.connectionTokens);
+                this.connectionRefilled = previous.connectionRefilled;
+            }
+            else if(limits.connection != null)
+                this.connectionTokens = limits.connection.burst();
+            this.violations = previous == null ? 0 : previous.violations;
+        }
+
+        private boolean available(int index, RateLimit limit, long now)
+        {
+            long last = index < 0 ? connectionRefilled : refilled[index];
+            double current = index < 0 ? connectionTokens : tokens[index];
+            double refill = Math.min(limit.burst(), current + (now - last) * limit.permitsPerSecond() / 1_000_000_000D);
+            if(index < 0)
+            {
+                connectionTokens = refill;
+                connectionRefilled = now;
+            }
+            else
+            {
+                tokens[index] = refill;
+                refilled[index] = now;
+            }
+            return refill >= 1;
+        }
+
+        private void take(int index)
+        {
+            if(index < 0)
+                connectionTokens--;
+            else
+                tokens[index]--;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.RawPacketAction;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+/**
+ * Inspects a serverbound frame before the server decodes it into a packet object.
+ * <p>
+ * Filters run inline on the connection's event loop and must be fast and thread-safe. They see the
+ * decompressed frame, so sizes and contents are the ones the decoder would read.
+ */
+@FunctionalInterface
+public interface RawPacketFilter
+{
+    /**
+     * @param channel the connection's channel
+     * @param packetId the wire id of the packet in the connection's current phase
+     * @param type the packet registered under the id, or {@code null} if it is unknown
+     * @param body a read-only view of the packet body following the id; only valid during the call
+     * @return what to do with the frame
+     */
+    RawPacketAction filter(Channel channel, int packetId, PacketTypeInfo type, ByteBuf body);
+}
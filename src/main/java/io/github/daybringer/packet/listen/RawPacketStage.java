@@ -0,0 +1,242 @@
+package io.github.daybringer.packet.listen;
+
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import io.github.daybringer.packet.utils.RawPacketAction;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import org.bukkit.Bukkit;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+
+/**
+ * Optional interception stage in front of the server's packet decoder.
+ * <p>
+ * The stage sees every serverbound frame after decompression and before it is decoded, reads the packet id
+ * and hands a read-only view of the body to the {@link RawPacketFilter}s registered for that packet and to
+ * the filters registered for whole connections. A frame that is dropped never allocates a packet object.
+ * <p>
+ * Filters are kept in copy-on-write arrays indexed by the packet's {@link PacketTypeRegistry} index, so a
+ * frame nobody filters costs an id read and an array load. Registration may happen on any thread.
+ */
+@ChannelHandler.Sharable
+public final class RawPacketStage extends ChannelInboundHandlerAdapter
+{
+    static final String HANDLER_NAME = "mcprotocol_raw_filter";
+
+    private static final String DECOMPRESS_NAME = "decompress";
+    private static final String DECODER_NAME = "decoder";
+    private static final AttributeKey<Boolean> BELOW_DECOMPRESS = AttributeKey.valueOf("mcprotocol_raw_below_decompress");
+    private static final RawPacketFilter[] NONE = new RawPacketFilter[0];
+
+    private final PacketTypeRegistry types;
+    private volatile RawPacketFilter[][] filtersByType;
+    private volatile RawPacketFilter[] connectionFilters;
+    private volatile boolean empty;
+
+    RawPacketStage(PacketTypeRegistry types)
+    {
+        this.types = types;
+        this.filtersByType = new RawPacketFilter[types.size()][];
+        Arrays.fill(filtersByType, NONE);
+        this.connectionFilters = NONE;
+        this.empty = true;
+    }
+
+    /**
+     * Registers a filter for the frames of one serverbound packet class, in every phase it is registered in.
+     *
+     * @param packetType the serverbound packet class
+     * @param filter the filter to run on its frames
+     * @throws IllegalArgumentException if the class is not a serverbound packet of the protocol tables
+     */
+    public synchronized void register(Class<? extends Packet<?>> packetType, RawPacketFilter filter) throws IllegalArgumentException
+    {
+        PacketTypeInfo info = types.info(packetType);
+        if(info == null || info.flow() != PacketFlow.SERVERBOUND)
+            throw new IllegalArgumentException(packetType.getName() + " is not a serverbound packet of the protocol tables");
+
+        RawPacketFilter[][] copy = filtersByType.clone();
+        copy[info.index()] = append(copy[info.index()], filter);
+        filtersByType = copy;
+        empty = false;
+    }
+
+    /**
+     * Registers a filter for every frame of every connection.
+     *
+     * @param filter the filter to run on all frames
+     */
+    public synchronized void registerAll(RawPacketFilter filter)
+    {
+        connectionFilters = append(connectionFilters, filter);
+        empty = false;
+    }
+
+    /**
+     * Removes a filter from all packet types and connections it was registered for.
+     *
+     * @param filter the filter to remove
+     * @return {@code true} if the filter was registered
+     */
+    public synchronized boolean unregister(RawPacketFilter filter)
+    {
+        boolean removed = false;
+        RawPacketFilter[][] copy = filtersByType.clone();
+        for(int i = 0; i < copy.length; i++)
+        {
+            RawPacketFilter[] remaining = remove(copy[i], filter);
+            removed |= remaining != copy[i];
+            copy[i] = remaining;
+        }
+        RawPacketFilter[] remainingConnectionFilters = remove(connectionFilters, filter);
+        removed |= remainingConnectionFilters != connectionFilters;
+
+        filtersByType = copy;
+        connectionFilters = remainingConnectionFilters;
+        empty = connectionFilters.length == 0 && Arrays.stream(copy).allMatch(filters -> filters.length == 0);
+        return removed;
+    }
+
+    /**
+     * Adds the stage in front of the connection's decoder, after its decompressor if there is one.
+     */
+    void inject(ChannelPipeline pipeline)
+    {
+        if(pipeline.context(this) != null || pipeline.get(DECODER_NAME) == null)
+            return;
+        if(pipeline.get(DECOMPRESS_NAME) != null)
+        {
+            pipeline.channel().attr(BELOW_DECOMPRESS).set(Boolean.TRUE);
+            pipeline.addAfter(DECOMPRESS_NAME, HANDLER_NAME, this);
+        }
+        else
+            pipeline.addBefore(DECODER_NAME, HANDLER_NAME, this);
+    }
+
+    /**
+     * Removes the stage from the connection's pipeline, if present.
+     */
+    void uninject(ChannelPipeline pipeline)
+    {
+        if(pipeline.context(this) != null)
+            pipeline.remove(this);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        if(empty || !(msg instanceof ByteBuf frame))
+        {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        //Compression is enabled after the stage was injected: the decompressor was placed behind it
+        ChannelPipeline pipeline = ctx.pipeline();
+        if(ctx.channel().attr(BELOW_DECOMPRESS).get() == null && pipeline.get(DECOMPRESS_NAME) != null)
+        {
+            ctx.channel().attr(BELOW_DECOMPRESS).set(Boolean.TRUE);
+            pipeline.remove(this);
+            pipeline.addAfter(DECOMPRESS_NAME, HANDLER_NAME, this);
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        int start = frame.readerIndex();
+        long id = readVarInt(frame, start);
+        if(id < 0)
+        {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        int packetId = (int) id;
+
+        PacketTypeInfo type = null;
+        ConnectionProtocol protocol = ConnectionAccess.decoderProtocol(pipeline.get(DECODER_NAME));
+        if(protocol != null)
+            type = types.byProtocolId(protocol, PacketFlow.SERVERBOUND, packetId);
+
+        RawPacketFilter[] typeFilters = type == null ? NONE : filtersByType[type.index()];
+        RawPacketFilter[] allFilters = connectionFilters;
+        if(typeFilters.length == 0 && allFilters.length == 0)
+        {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        int bodyStart = start + (int) (id >>> 32);
+        ByteBuf body = frame.slice(bodyStart, frame.writerIndex() - bodyStart).asReadOnly();
+        RawPacketAction action = filter(ctx, allFilters, packetId, type, body);
+        if(action == RawPacketAction.PASS)
+            action = filter(ctx, typeFilters, packetId, type, body);
+
+        switch (action)
+        {
+            case PASS -> ctx.fireChannelRead(msg);
+            case DROP -> frame.release();
+            case CLOSE -> {
+                frame.release();
+                ctx.close();
+            }
+        }
+    }
+
+    private static RawPacketAction filter(ChannelHandlerContext ctx, RawPacketFilter[] filters, int packetId, PacketTypeInfo type, ByteBuf body)
+    {
+        for(RawPacketFilter filter : filters)
+        {
+            RawPacketAction action;
+            try {
+                action = filter.filter(ctx.channel(), packetId, type, body.duplicate());
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Error filtering raw packet " + packetId, e);
+                continue;
+            }
+            if(action != null && action != RawPacketAction.PASS)
+                return action;
+        }
+        return RawPacketAction.PASS;
+    }
+
+    /**
+     * @return the VarInt at the given index in the lower and its encoded length in the upper half,
+     *         or {@code -1} if the frame does not start with a complete, non-negative VarInt
+     */
+    static long readVarInt(ByteBuf buf, int index)
+    {
+        int value = 0;
+        int end = Math.min(buf.writerIndex(), index + 5);
+        for(int i = index, shift = 0; i < end; i++, shift += 7)
+        {
+            byte b = buf.getByte(i);
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value < 0 ? -1 : ((long) (i - index + 1) << 32) | value;
+        }
+        return -1;
+    }
+
+    private static RawPacketFilter[] append(RawPacketFilter[] filters, RawPacketFilter filter)
+    {
+        RawPacketFilter[] copy = Arrays.copyOf(filters, filters.length + 1);
+        copy[filters.length] = filter;
+        return copy;
+    }
+
+    private static RawPacketFilter[] remove(RawPacketFilter[] filters, RawPacketFilter filter)
+    {
+        RawPacketFilter[] remaining = Arrays.stream(filters).filter(f -> f != filter).toArray(RawPacketFilter[]::new);
+        return remaining.length == filters.length ? filters : remaining.length == 0 ? NONE : remaining;
+    }
+}
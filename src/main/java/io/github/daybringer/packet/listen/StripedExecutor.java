@@ -0,0 +1,109 @@
+package io.github.daybringer.packet.listen;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs work on a fixed set of single-threaded stripes selected by key.
+ * <p>
+ * All work submitted with an equal key runs on the same stripe in submission order,
+ * while work for different keys runs in parallel. Stripes are started on first use.
+ * <p>
+ * Once {@linkplain #shutdown() shut down}, for example while the plugin is disabled, the executor refuses
+ * work for good, so late packets never start threads that outlive the plugin.
+ */
+public final class StripedExecutor
+{
+    private final int stripeCount;
+    private final String threadName;
+    private volatile ExecutorService[] stripes;
+    private volatile boolean stopped;
+
+    /**
+     * @param stripeCount the number of worker threads, rounded up to a power of two
+     * @param threadName the name prefix of the worker threads
+     */
+    public StripedExecutor(int stripeCount, String threadName)
+    {
+        if(stripeCount <= 0)
+            throw new IllegalArgumentException("Stripe count must be positive");
+        int size = 1;
+        while(size < stripeCount)
+            size <<= 1;
+        this.stripeCount = size;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Runs work on the stripe of the given key.
+     *
+     * @param key the ordering key, e.g. a player's UUID
+     * @param work the work to run
+     * @return {@code true} if the work was queued, {@code false} if the executor is shut down, in which
+     *         case the work will never run
+     */
+    public boolean execute(Object key, Runnable work)
+    {
+        ExecutorService[] current = stripes;
+        if(current == null)
+        {
+            current = start();
+            if(current == null)
+                return false;
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        try {
+            current[hash & (current.length - 1)].execute(work);
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            //shutdown() stopped the stripes read above
+            return false;
+        }
+    }
+
+    private synchronized ExecutorService[] start()
+    {
+        if(stripes != null || stopped)
+            return stripes;
+
+        ExecutorService[] created = new ExecutorService[stripeCount];
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, threadName + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        for(int i = 0; i < created.length; i++)
+            created[i] = Executors.newSingleThreadExecutor(factory);
+        stripes = created;
+        return created;
+    }
+
+    /**
+     * @return {@code true} once {@link #shutdown()} was called
+     */
+    public boolean isShutdown()
+    {
+        return stopped;
+    }
+
+    /**
+     * Stops all stripes after the work already submitted has run and refuses any further work.
+     */
+    public synchronized void shutdown()
+    {
+        stopped = true;
+        ExecutorService[] current = stripes;
+        stripes = null;
+        if(current == null)
+            return;
+        for(ExecutorService stripe : current)
+            stripe.shutdown();
+    }
+}
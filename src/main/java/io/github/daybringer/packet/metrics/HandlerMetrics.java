@@ -0,0 +1,80 @@
+package io.github.daybringer.packet.metrics;
+
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation count, latency and exception count of one registered packet handler method.
+ * <p>
+ * Created by the handler registry when a listener is registered and discarded when it is unregistered.
+ * The latency of a handler returning a future covers the call that returns the future, which is the time
+ * the handler occupied its thread.
+ */
+public final class HandlerMetrics
+{
+    private final String name;
+    private final PacketHandlerThreading threading;
+    private final PacketHandlerPriority priority;
+    private final boolean cancelHandler;
+    private final LongAdder invocations;
+    private final LongAdder exceptions;
+    private final LatencyHistogram latency;
+
+    HandlerMetrics(String name, PacketHandlerThreading threading, PacketHandlerPriority priority, boolean cancelHandler)
+    {
+        this.name = name;
+        this.threading = threading;
+        this.priority = priority;
+        this.cancelHandler = cancelHandler;
+        this.invocations = new LongAdder();
+        this.exceptions = new LongAdder();
+        this.latency = new LatencyHistogram();
+    }
+
+    /**
+     * Records one invocation of the handler.
+     *
+     * @param nanos the time the invocation took
+     * @param failed whether the handler threw
+     */
+    public void record(long nanos, boolean failed)
+    {
+        invocations.increment();
+        latency.record(nanos);
+        if(failed)
+            exceptions.increment();
+    }
+
+    /**
+     * Records a failure reported after the invocation, e.g. by a future completing exceptionally.
+     */
+    public void recordException()
+    {
+        exceptions.increment();
+    }
+
+    /**
+     * @return the declaring class and method name of the handler
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the current invocation count, exception count and latency of the handler
+     */
+    public HandlerMetricsSnapshot snapshot()
+    {
+        return new HandlerMetricsSnapshot(name, threading, priority, cancelHandler, invocations.sum(), exceptions.sum(), latency.snapshot());
+    }
+
+    void reset()
+    {
+        invocations.reset();
+        exceptions.reset();
+        latency.reset();
+    }
+}
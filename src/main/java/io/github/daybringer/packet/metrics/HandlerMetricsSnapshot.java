@@ -0,0 +1,20 @@
+package io.github.daybringer.packet.metrics;
+
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+
+/**
+ * Snapshot of the metrics of one packet handler method.
+ *
+ * @param name the declaring class and method name of the handler
+ * @param threading the thread the handler is invoked on
+ * @param priority the position of the handler among the handlers of its packet
+ * @param cancelHandler whether the handler is a cancel handler
+ * @param invocations the number of times the handler was invoked
+ * @param exceptions the number of invocations that threw or whose future failed
+ * @param latency the time the invocations took
+ */
+public record HandlerMetricsSnapshot(String name, PacketHandlerThreading threading, PacketHandlerPriority priority,
+                                     boolean cancelHandler, long invocations, long exceptions, LatencySnapshot latency)
+{
+}
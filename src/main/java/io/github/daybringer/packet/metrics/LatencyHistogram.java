@@ -0,0 +1,126 @@
+package io.github.daybringer.packet.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split into eight sub-buckets, so a
+ * recorded value is reported with at most 12.5% error. Recording is a bucket index computation and three
+ * atomic updates, and may happen on any number of threads at once. Percentiles are read from a racy but
+ * consistent-enough walk over the buckets.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder total;
+    private final LongAccumulator max;
+
+    public LatencyHistogram()
+    {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.total = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @param nanos the duration to record; negative values are recorded as zero
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(index(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long count()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of all recorded values in nanoseconds
+     */
+    public long totalNanos()
+    {
+        return total.sum();
+    }
+
+    /**
+     * @param percentile the percentile between {@code 0} and {@code 1}, e.g. {@code 0.99}
+     * @return the upper bound of the bucket holding the percentile, or {@code 0} if nothing was recorded
+     */
+    public long percentile(double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = buckets.get(i);
+            recorded += counts[i];
+        }
+        if(recorded == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile * recorded));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if(seen >= target)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the current count, total, maximum, median and 99th percentile
+     */
+    public LatencySnapshot snapshot()
+    {
+        return new LatencySnapshot(count(), totalNanos(), max.get(), percentile(0.5), percentile(0.99));
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may be lost or kept.
+     */
+    public void reset()
+    {
+        for(int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    private static int index(long value)
+    {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index)
+    {
+        if(index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.daybringer.packet.metrics;
+
+/**
+ * Snapshot of a {@link LatencyHistogram}.
+ *
+ * @param count the number of recorded durations
+ * @param totalNanos the sum of all recorded durations
+ * @param maxNanos the longest recorded duration
+ * @param p50Nanos the median duration, rounded up to its bucket
+ * @param p99Nanos the 99th percentile duration, rounded up to its bucket
+ */
+public record LatencySnapshot(long count, long totalNanos, long maxNanos, long p50Nanos, long p99Nanos)
+{
+    /** Snapshot of a histogram without recorded durations. */
+    public static final LatencySnapshot EMPTY = new LatencySnapshot(0, 0, 0, 0, 0);
+
+    /**
+     * @return the mean duration in nanoseconds, or {@code 0} if nothing was recorded
+     */
+    public double meanNanos()
+    {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+}
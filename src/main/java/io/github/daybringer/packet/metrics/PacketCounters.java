@@ -0,0 +1,25 @@
+package io.github.daybringer.packet.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters behind a {@link PacketCounts} snapshot.
+ */
+final class PacketCounters
+{
+    final LongAdder seen = new LongAdder();
+    final LongAdder forwarded = new LongAdder();
+    final LongAdder cancelled = new LongAdder();
+
+    PacketCounts snapshot()
+    {
+        return new PacketCounts(seen.sum(), forwarded.sum(), cancelled.sum());
+    }
+
+    void reset()
+    {
+        seen.reset();
+        forwarded.reset();
+        cancelled.reset();
+    }
+}
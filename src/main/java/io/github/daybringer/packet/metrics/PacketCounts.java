@@ -0,0 +1,23 @@
+package io.github.daybringer.packet.metrics;
+
+/**
+ * Snapshot of the packets counted for one packet type or connection.
+ *
+ * @param seen the number of packets that reached the packet listener
+ * @param forwarded the number of packets passed on to the server or the encoder
+ * @param cancelled the number of packets cancelled by a handler, dropped by a rewriting handler or
+ *                  discarded by the rate limiter
+ */
+public record PacketCounts(long seen, long forwarded, long cancelled)
+{
+    /** Counts of a packet type or connection without packets. */
+    public static final PacketCounts EMPTY = new PacketCounts(0, 0, 0);
+
+    /**
+     * @return the number of packets that were seen but are still waiting for their handlers
+     */
+    public long pending()
+    {
+        return Math.max(0, seen - forwarded - cancelled);
+    }
+}
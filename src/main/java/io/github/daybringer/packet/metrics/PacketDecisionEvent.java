@@ -0,0 +1,56 @@
+package io.github.daybringer.packet.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+import java.util.UUID;
+
+/**
+ * The decision to forward or cancel an inbound packet, timed from its receipt. Packets held for handlers
+ * on other threads are decided once their last stage ran.
+ */
+@Name("io.github.daybringer.PacketDecision")
+@Label("Packet Decision")
+@Description("Inbound packet forwarded or cancelled")
+@Threshold("1 ms")
+public final class PacketDecisionEvent extends PacketEvent
+{
+    private static final PacketDecisionEvent PROBE = new PacketDecisionEvent();
+
+    @Label("Cancelled")
+    boolean cancelled;
+
+    /**
+     * Begins an event if a recording has this event type enabled.
+     * <p>
+     * Held packets carry their event to the thread that decides about them, so the JIT cannot elide the
+     * allocation; checking first keeps packets from allocating it while nothing is recorded.
+     *
+     * @return the begun event, or {@code null} if no recording needs it
+     */
+    public static PacketDecisionEvent beginIfEnabled()
+    {
+        if(!PROBE.isEnabled())
+            return null;
+        PacketDecisionEvent event = new PacketDecisionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it exceeded its threshold.
+     *
+     * @param packetClass the class of the packet
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @param cancelled whether the packet was cancelled
+     */
+    public void complete(Class<?> packetClass, UUID playerId, boolean cancelled)
+    {
+        if(!prepare(packetClass, playerId))
+            return;
+        this.cancelled = cancelled;
+        commit();
+    }
+}
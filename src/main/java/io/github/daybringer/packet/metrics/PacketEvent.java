@@ -0,0 +1,44 @@
+package io.github.daybringer.packet.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import java.util.UUID;
+
+/**
+ * Base of the JDK Flight Recorder events of the packet dispatch path.
+ * <p>
+ * The events are timed with {@link #begin()} and {@link #end()} and only filled in and committed when
+ * {@link #shouldCommit()} allows it, so an event below its threshold or in a recording without it costs
+ * two timestamps. Thresholds are configured per event type in the recording settings, e.g.
+ * {@code jcmd <pid> JFR.start settings=profile io.github.daybringer.PacketHandler#threshold=5ms}.
+ */
+@Category({"MCProtocol", "Packets"})
+@StackTrace(false)
+public abstract class PacketEvent extends Event
+{
+    @Label("Packet Class")
+    Class<?> packetClass;
+
+    @Label("Player")
+    String playerId;
+
+    /**
+     * Ends the event and fills in the packet and player if it exceeded its threshold.
+     *
+     * @param packetClass the class of the packet
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @return {@code true} if the event should be committed
+     */
+    protected final boolean prepare(Class<?> packetClass, UUID playerId)
+    {
+        end();
+        if(!shouldCommit())
+            return false;
+        this.packetClass = packetClass;
+        this.playerId = playerId == null ? null : playerId.toString();
+        return true;
+    }
+}
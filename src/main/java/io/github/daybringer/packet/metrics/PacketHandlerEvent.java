@@ -0,0 +1,48 @@
+package io.github.daybringer.packet.metrics;
+
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+import java.util.UUID;
+
+/**
+ * One invocation of a packet handler or cancel handler method. The duration of a handler returning a
+ * future covers the call that returned the future.
+ */
+@Name("io.github.daybringer.PacketHandler")
+@Label("Packet Handler")
+@Description("Invocation of a packet handler method")
+@Threshold("1 ms")
+public final class PacketHandlerEvent extends PacketEvent
+{
+    @Label("Handler")
+    String handler;
+
+    @Label("Threading")
+    String threading;
+
+    @Label("Cancel Handler")
+    boolean cancelHandler;
+
+    /**
+     * Ends the event and commits it if it exceeded its threshold.
+     *
+     * @param packetClass the class of the packet
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     * @param handler the declaring class and method name of the handler
+     * @param threading the thread the handler is invoked on
+     * @param cancelHandler whether the handler is a cancel handler
+     */
+    public void complete(Class<?> packetClass, UUID playerId, String handler, PacketHandlerThreading threading, boolean cancelHandler)
+    {
+        if(!prepare(packetClass, playerId))
+            return;
+        this.handler = handler;
+        this.threading = threading.name();
+        this.cancelHandler = cancelHandler;
+        commit();
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.daybringer.packet.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+import java.util.UUID;
+
+/**
+ * The time a held packet waited between its hand-off to the main thread and its main thread handlers.
+ */
+@Name("io.github.daybringer.PacketHandoff")
+@Label("Packet Main Thread Handoff")
+@Description("Held packet waiting for the main thread")
+@Threshold("10 ms")
+public final class PacketHandoffEvent extends PacketEvent
+{
+    private static final PacketHandoffEvent PROBE = new PacketHandoffEvent();
+
+    /**
+     * Begins an event if a recording has this event type enabled.
+     * <p>
+     * The event travels with the packet to the main thread, so the JIT cannot elide the allocation;
+     * checking first keeps hand-offs from allocating it while nothing is recorded.
+     *
+     * @return the begun event, or {@code null} if no recording needs it
+     */
+    public static PacketHandoffEvent beginIfEnabled()
+    {
+        if(!PROBE.isEnabled())
+            return null;
+        PacketHandoffEvent event = new PacketHandoffEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it exceeded its threshold.
+     *
+     * @param packetClass the class of the packet
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     */
+    public void complete(Class<?> packetClass, UUID playerId)
+    {
+        if(prepare(packetClass, playerId))
+            commit();
+    }
+}
@@ -0,0 +1,338 @@
+package io.github.daybringer.packet.metrics;
+
+import io.github.daybringer.packet.listen.PacketListener;
+import io.github.daybringer.packet.utils.PacketHandlerPriority;
+import io.github.daybringer.packet.utils.PacketHandlerThreading;
+import io.github.daybringer.packet.utils.PacketTypeInfo;
+import io.github.daybringer.packet.utils.PacketTypeRegistry;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.Connection;
+import net.minecraft.network.protocol.Packet;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+/**
+ * Lock-free instrumentation of the packet dispatch path.
+ * <p>
+ * The packet listener counts every packet it sees, forwards and cancels, per packet type in
+ * {@link java.util.concurrent.atomic.LongAdder}s indexed by the packet's {@link PacketTypeRegistry} index
+ * and per connection in counters kept in a channel attribute. The handler registry times every handler
+ * invocation into a {@link HandlerMetrics}, and the time held packets wait for the main thread is recorded
+ * in a {@link LatencyHistogram}. Recording never locks and may happen on any thread.
+ * <p>
+ * By default only packets of types with registered handlers are counted, so packets nobody handles keep
+ * passing the listener without any bookkeeping; {@link #setCountingUnhandled(boolean)} counts all packets.
+ * <p>
+ * Metrics are read through {@link #snapshot()} or pushed to {@link PacketMetricsExporter}s, either on
+ * demand with {@link #export()} or periodically with {@link #scheduleExport(Plugin, long)}.
+ */
+public final class PacketMetrics
+{
+    private static final PacketMetrics INSTANCE = new PacketMetrics(PacketTypeRegistry.get());
+    private static final AttributeKey<PacketCounters> KEY = AttributeKey.valueOf("mcprotocol_packet_metrics");
+
+    private final PacketTypeRegistry types;
+    private final PacketCounters[] byType;
+    private final PacketCounters unknownTypes;
+    private final Map<Channel, PacketCounters> byConnection;
+    private final List<HandlerMetrics> handlers;
+    private final LatencyHistogram mainThreadDelay;
+    private final List<PacketMetricsExporter> exporters;
+    private volatile boolean enabled;
+    private volatile boolean countingUnhandled;
+
+    private PacketMetrics(PacketTypeRegistry types)
+    {
+        if(INSTANCE != null)
+            throw new IllegalStateException("PacketMetrics already initialized");
+
+        this.types = types;
+        this.byType = new PacketCounters[types.size()];
+        for(int i = 0; i < byType.length; i++)
+            byType[i] = new PacketCounters();
+        this.unknownTypes = new PacketCounters();
+        this.byConnection = new ConcurrentHashMap<>();
+        this.handlers = new CopyOnWriteArrayList<>();
+        this.mainThreadDelay = new LatencyHistogram();
+        this.exporters = new CopyOnWriteArrayList<>();
+        this.enabled = true;
+    }
+
+    /**
+     * @return {@code true} if packets and handler invocations are recorded, the default
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Turns recording on or off. Metrics recorded so far are kept.
+     *
+     * @param enabled whether packets and handler invocations are recorded
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return {@code true} if packets of types without handlers are counted too, {@code false} by default
+     */
+    public boolean isCountingUnhandled()
+    {
+        return enabled && countingUnhandled;
+    }
+
+    /**
+     * Turns counting of packets of types without handlers on or off. Counting them costs every packet a few
+     * lookups and counter increments on the event loop, even where nothing else would touch it.
+     *
+     * @param countingUnhandled whether packets of types without handlers are counted
+     */
+    public void setCountingUnhandled(boolean countingUnhandled)
+    {
+        this.countingUnhandled = countingUnhandled;
+    }
+
+    /**
+     * Records a packet reaching the packet listener.
+     *
+     * @param channel the connection's channel
+     * @param packet the packet
+     */
+    public void seen(Channel channel, Packet<?> packet)
+    {
+        if(!enabled)
+            return;
+        counters(packet).seen.increment();
+        connection(channel).seen.increment();
+    }
+
+    /**
+     * Records a packet being passed on to the server or the encoder.
+     *
+     * @param channel the connection's channel
+     * @param packet the packet
+     */
+    public void forwarded(Channel channel, Packet<?> packet)
+    {
+        if(!enabled)
+            return;
+        counters(packet).forwarded.increment();
+        connection(channel).forwarded.increment();
+    }
+
+    /**
+     * Records a packet being cancelled, dropped or discarded.
+     *
+     * @param channel the connection's channel
+     * @param packet the packet
+     */
+    public void cancelled(Channel channel, Packet<?> packet)
+    {
+        if(!enabled)
+            return;
+        counters(packet).cancelled.increment();
+        connection(channel).cancelled.increment();
+    }
+
+    /**
+     * Records the time a held packet waited between its hand-off to the main thread and its handlers.
+     *
+     * @param nanos the delay
+     */
+    public void mainThreadDelay(long nanos)
+    {
+        if(enabled)
+            mainThreadDelay.record(nanos);
+    }
+
+    /**
+     * Creates the metrics of a handler method being registered. They are part of every snapshot until
+     * they are {@linkplain #removeHandler(HandlerMetrics) removed}.
+     *
+     * @param name the declaring class and method name of the handler
+     * @param threading the thread the handler is invoked on
+     * @param priority the position of the handler among the handlers of its packet
+     * @param cancelHandler whether the handler is a cancel handler
+     * @return the metrics to record the handler's invocations into
+     */
+    public HandlerMetrics addHandler(String name, PacketHandlerThreading threading, PacketHandlerPriority priority, boolean cancelHandler)
+    {
+        HandlerMetrics metrics = new HandlerMetrics(name, threading, priority, cancelHandler);
+        handlers.add(metrics);
+        return metrics;
+    }
+
+    /**
+     * Removes the metrics of a handler method that was unregistered.
+     *
+     * @param metrics the handler's metrics
+     */
+    public void removeHandler(HandlerMetrics metrics)
+    {
+        handlers.remove(metrics);
+    }
+
+    /**
+     * @param packetType the packet class
+     * @return the counts of the packet class
+     */
+    public PacketCounts getCounts(Class<? extends Packet<?>> packetType)
+    {
+        int index = types.index(packetType);
+        return index < 0 ? PacketCounts.EMPTY : byType[index].snapshot();
+    }
+
+    /**
+     * @param player an online player
+     * @return the counts of the player's connection
+     */
+    public PacketCounts getCounts(Player player)
+    {
+        Connection connection = PacketListener.get().getConnection(player);
+        return connection == null || connection.channel == null ? PacketCounts.EMPTY : getCounts(connection.channel);
+    }
+
+    /**
+     * @param channel a connection's channel
+     * @return the counts of the connection
+     */
+    public PacketCounts getCounts(Channel channel)
+    {
+        PacketCounters counters = channel.attr(KEY).get();
+        return counters == null ? PacketCounts.EMPTY : counters.snapshot();
+    }
+
+    /**
+     * @return the current metrics of all packet types, connections and handlers
+     */
+    public PacketMetricsSnapshot snapshot()
+    {
+        long seen = 0, forwarded = 0, cancelled = 0;
+        Map<Class<?>, PacketCounts> typeCounts = new LinkedHashMap<>();
+        for(PacketTypeInfo info : types.types())
+        {
+            PacketCounts counts = byType[info.index()].snapshot();
+            if(counts.equals(PacketCounts.EMPTY))
+                continue;
+            typeCounts.put(info.type(), counts);
+            seen += counts.seen();
+            forwarded += counts.forwarded();
+            cancelled += counts.cancelled();
+        }
+        PacketCounts unknown = unknownTypes.snapshot();
+        PacketCounts total = new PacketCounts(seen + unknown.seen(), forwarded + unknown.forwarded(), cancelled + unknown.cancelled());
+
+        Map<Channel, PacketCounts> connectionCounts = new LinkedHashMap<>();
+        byConnection.forEach((channel, counters) -> connectionCounts.put(channel, counters.snapshot()));
+
+        List<HandlerMetricsSnapshot> handlerSnapshots = new ArrayList<>(handlers.size());
+        for(HandlerMetrics handler : handlers)
+            handlerSnapshots.add(handler.snapshot());
+
+        return new PacketMetricsSnapshot(System.currentTimeMillis(), total, Map.copyOf(typeCounts), Map.copyOf(connectionCounts),
+                List.copyOf(handlerSnapshots), mainThreadDelay.snapshot());
+    }
+
+    /**
+     * Clears all counters and histograms. Values recorded concurrently may be lost or kept.
+     */
+    public void reset()
+    {
+        for(PacketCounters counters : byType)
+            counters.reset();
+        unknownTypes.reset();
+        byConnection.values().forEach(PacketCounters::reset);
+        handlers.forEach(HandlerMetrics::reset);
+        mainThreadDelay.reset();
+    }
+
+    /**
+     * @param exporter the exporter to hand every exported snapshot to
+     */
+    public void addExporter(PacketMetricsExporter exporter)
+    {
+        exporters.add(exporter);
+    }
+
+    /**
+     * @param exporter the exporter to remove
+     * @return {@code true} if the exporter was added before
+     */
+    public boolean removeExporter(PacketMetricsExporter exporter)
+    {
+        return exporters.remove(exporter);
+    }
+
+    /**
+     * Takes a snapshot and hands it to every exporter, on the calling thread.
+     *
+     * @return the exported snapshot
+     */
+    public PacketMetricsSnapshot export()
+    {
+        PacketMetricsSnapshot snapshot = snapshot();
+        for(PacketMetricsExporter exporter : exporters)
+        {
+            try {
+                exporter.export(snapshot);
+            }
+            catch (RuntimeException e)
+            {
+                Bukkit.getLogger().log(Level.WARNING, "Error exporting packet metrics", e);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Exports a snapshot periodically on an asynchronous scheduler thread.
+     *
+     * @param plugin the plugin owning the task
+     * @param periodTicks the ticks between two exports
+     * @return the task, which stops the exports when cancelled
+     */
+    public BukkitTask scheduleExport(Plugin plugin, long periodTicks)
+    {
+        return Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::export, periodTicks, periodTicks);
+    }
+
+    private PacketCounters counters(Packet<?> packet)
+    {
+        int index = types.index(packet.getClass());
+        return index < 0 ? unknownTypes : byType[index];
+    }
+
+    private PacketCounters connection(Channel channel)
+    {
+        PacketCounters counters = channel.attr(KEY).get();
+        if(counters != null)
+            return counters;
+
+        counters = new PacketCounters();
+        PacketCounters existing = channel.attr(KEY).setIfAbsent(counters);
+        if(existing != null)
+            return existing;
+        byConnection.put(channel, counters);
+        channel.closeFuture().addListener(future -> byConnection.remove(channel));
+        return counters;
+    }
+
+    public static PacketMetrics get()
+    {
+        return INSTANCE;
+    }
+}
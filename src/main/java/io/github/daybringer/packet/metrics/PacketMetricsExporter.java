@@ -0,0 +1,16 @@
+package io.github.daybringer.packet.metrics;
+
+/**
+ * Receives the snapshots taken by {@link PacketMetrics#export()}, e.g. to write them to a monitoring system.
+ */
+@FunctionalInterface
+public interface PacketMetricsExporter
+{
+    /**
+     * Called on the thread that takes the snapshot, which is an asynchronous scheduler thread for
+     * exports scheduled with {@link PacketMetrics#scheduleExport(org.bukkit.plugin.Plugin, long)}.
+     *
+     * @param snapshot the metrics at the time of the export
+     */
+    void export(PacketMetricsSnapshot snapshot);
+}
@@ -0,0 +1,33 @@
+package io.github.daybringer.packet.metrics;
+
+import io.netty.channel.Channel;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of all packet and handler metrics.
+ *
+ * @param timestamp the time the snapshot was taken, in milliseconds since the epoch
+ * @param total the counts of all packets
+ * @param byType the counts per packet class, only containing classes with packets
+ * @param byConnection the counts per open connection
+ * @param handlers the metrics of every registered handler method, in registration order
+ * @param mainThreadDelay the time held packets waited between their hand-off to the main thread and
+ *                        their main thread handlers
+ */
+public record PacketMetricsSnapshot(long timestamp, PacketCounts total, Map<Class<?>, PacketCounts> byType,
+                                    Map<Channel, PacketCounts> byConnection, List<HandlerMetricsSnapshot> handlers,
+                                    LatencySnapshot mainThreadDelay)
+{
+    /**
+     * @return the handlers ordered by the total time their invocations took, longest first
+     */
+    public List<HandlerMetricsSnapshot> handlersByTotalTime()
+    {
+        return handlers.stream()
+                .sorted(Comparator.comparingLong((HandlerMetricsSnapshot handler) -> handler.latency().totalNanos()).reversed())
+                .toList();
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.daybringer.packet.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+import java.util.UUID;
+
+/**
+ * The time the packet listener spent on an inbound packet on the connection's event loop, including its
+ * {@code NETTY} handlers.
+ */
+@Name("io.github.daybringer.PacketReceive")
+@Label("Packet Receive")
+@Description("Inbound packet intercepted on the event loop")
+@Threshold("1 ms")
+public final class PacketReceiveEvent extends PacketEvent
+{
+    /**
+     * Ends the event and commits it if it exceeded its threshold.
+     *
+     * @param packetClass the class of the packet
+     * @param playerId the player the packet belongs to, or {@code null} if not known
+     */
+    public void complete(Class<?> packetClass, UUID playerId)
+    {
+        if(prepare(packetClass, playerId))
+            commit();
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Defines what the handler watchdog does with a packet handler that keeps exceeding its time budget or
+ * keeps throwing.
+ * <p>
+ * A handler that returns a result, i.e. cancels, rewrites or decides about packets, is never sampled or
+ * disabled unless the watchdog is set to fail open, since the packets it skipped would pass unchecked.
+ * It is reported once and keeps receiving every packet instead.
+ * <ul>
+ *   <li>{@link #DEMOTE} — the handler is moved from the event loop to {@link PacketHandlerThreading#ASYNC}.
+ *       Handlers that cannot move are sampled instead, within the limits above: those that return a result or
+ *       coalesce packets, and {@link PacketHandlerThreading#MAIN} handlers, which rely on running on the main
+ *       thread.</li>
+ *   <li>{@link #SAMPLE} — the handler only receives every n-th packet.</li>
+ *   <li>{@link #DISABLE} — the handler receives no packets until it is restored.</li>
+ * </ul>
+ */
+public enum HandlerWatchdogAction
+{
+    DEMOTE,
+    SAMPLE,
+    DISABLE
+}
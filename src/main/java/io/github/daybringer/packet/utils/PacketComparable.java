@@ -1,13 +1,45 @@
 package io.github.daybringer.packet.utils;
 
 import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
 
 public interface PacketComparable
 {
+    /**
+     * Checks whether packets of the given class travel from the client to the server.
+     * <p>
+     * The direction is taken from the server's protocol tables through {@link PacketTypeRegistry}.
+     * Only packet classes unknown to the tables fall back to checking for a {@code Clientbound} name prefix.
+     *
+     * @param inboundPacket the packet class, or an abstract supertype of packet classes
+     * @return {@code true} if the packet is server-bound
+     */
     default boolean isServerboundPacket(Class<? extends Packet<?>> inboundPacket)
     {
+        PacketFlow flow = PacketTypeRegistry.get().flow(inboundPacket);
+        if(flow != null)
+            return flow == PacketFlow.SERVERBOUND;
+
         String className = inboundPacket.getSimpleName();
 
         return !className.startsWith("Clientbound");
     }
+
+    /**
+     * Checks whether packets of the given class travel from the server to the client.
+     * <p>
+     * The direction is taken from the server's protocol tables through {@link PacketTypeRegistry}.
+     * Only packet classes unknown to the tables fall back to checking for a {@code Clientbound} name prefix.
+     *
+     * @param outboundPacket the packet class, or an abstract supertype of packet classes
+     * @return {@code true} if the packet is client-bound
+     */
+    default boolean isClientboundPacket(Class<? extends Packet<?>> outboundPacket)
+    {
+        PacketFlow flow = PacketTypeRegistry.get().flow(outboundPacket);
+        if(flow != null)
+            return flow == PacketFlow.CLIENTBOUND;
+
+        return outboundPacket.getSimpleName().startsWith("Clientbound");
+    }
 }
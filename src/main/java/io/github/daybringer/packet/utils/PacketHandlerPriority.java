@@ -0,0 +1,28 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Defines the order in which the handlers of a packet are invoked within their threading mode.
+ * <p>
+ * Handlers run from {@link #LOWEST} to {@link #MONITOR}; handlers with equal priority run in registration
+ * order. Cheap filters that cancel packets belong at a low priority, so that handlers skipping cancelled
+ * packets behind them are never invoked for rejected packets.
+ * <ul>
+ *   <li>{@link #LOWEST}, {@link #LOW}, {@link #NORMAL}, {@link #HIGH}, {@link #HIGHEST} — handlers that may decide about the packet.</li>
+ *   <li>{@link #MONITOR} — handlers that observe the outcome after all others; they cannot cancel, replace or defer packets.</li>
+ * </ul>
+ * Priorities order handlers within one threading mode only. The threading modes of a serverbound packet run
+ * one after another ({@code NETTY}, {@code ASYNC}, {@code VIRTUAL}, then {@code MAIN}), so a {@link #MONITOR}
+ * handler sees the outcome of its own mode and the modes before it, but not yet the decisions of later
+ * modes; a monitor that needs the final outcome belongs to the last mode with deciding handlers. A packet
+ * cancelled in one mode is still passed to the monitor handlers of the later modes that do not ignore
+ * cancelled packets.
+ */
+public enum PacketHandlerPriority
+{
+    LOWEST,
+    LOW,
+    NORMAL,
+    HIGH,
+    HIGHEST,
+    MONITOR
+}
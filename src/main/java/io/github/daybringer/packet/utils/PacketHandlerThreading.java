@@ -0,0 +1,20 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Defines the thread a packet handler is invoked on.
+ * <ul>
+ *   <li>{@link #MAIN} — the main server thread, batched once per tick. Required for handlers touching the Bukkit API.</li>
+ *   <li>{@link #NETTY} — inline on the connection's event loop as soon as the packet is read. Handlers must be fast and thread-safe.</li>
+ *   <li>{@link #ASYNC} — a worker thread selected by the player's UUID, so packets of one player are handled in order.</li>
+ *   <li>{@link #VIRTUAL} — a new virtual thread per packet. Handlers may block, e.g. on I/O; calls for consecutive
+ *   packets of a player may overlap, but the packets are still passed on in the order they arrived.</li>
+ * </ul>
+ * Inbound packets pass the handlers of each mode in the order {@code NETTY}, {@code ASYNC}, {@code VIRTUAL}, {@code MAIN}.
+ */
+public enum PacketHandlerThreading
+{
+    MAIN,
+    NETTY,
+    ASYNC,
+    VIRTUAL
+}
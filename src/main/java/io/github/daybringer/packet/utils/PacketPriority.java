@@ -0,0 +1,17 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Defines how an outgoing packet is treated while the client is not keeping up.
+ * <ul>
+ *   <li>{@link #CRITICAL} — written immediately, ahead of any backlog. Never dropped.</li>
+ *   <li>{@link #NORMAL} — queued in order behind the backlog. Never dropped.</li>
+ *   <li>{@link #DROPPABLE} — queued in order, but dropped oldest first when the backlog is full.
+ *   Suited for particles, sounds and other packets the client can do without.</li>
+ * </ul>
+ */
+public enum PacketPriority
+{
+    CRITICAL,
+    NORMAL,
+    DROPPABLE
+}
@@ -0,0 +1,27 @@
+package io.github.daybringer.packet.utils;
+
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.PacketFlow;
+
+import java.util.Set;
+
+/**
+ * Describes a packet class as registered in the server's protocol tables.
+ *
+ * @param index the dense index of the packet class, unique across all phases and directions
+ * @param type the packet class
+ * @param flow the direction the packet travels in
+ * @param protocols the connection phases the packet is registered in
+ * @param protocolIds the wire id of the packet per {@link ConnectionProtocol#ordinal()}, {@code -1} where it is not registered
+ */
+public record PacketTypeInfo(int index, Class<?> type, PacketFlow flow, Set<ConnectionProtocol> protocols, int[] protocolIds)
+{
+    /**
+     * @param protocol the connection phase
+     * @return the wire id of the packet in the given phase, or {@code -1} if it is not registered there
+     */
+    public int protocolId(ConnectionProtocol protocol)
+    {
+        return protocolIds[protocol.ordinal()];
+    }
+}
@@ -0,0 +1,280 @@
+package io.github.daybringer.packet.utils;
+
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.PacketType;
+import net.minecraft.network.protocol.common.CommonPacketTypes;
+import net.minecraft.network.protocol.configuration.ConfigurationPacketTypes;
+import net.minecraft.network.protocol.configuration.ConfigurationProtocols;
+import net.minecraft.network.protocol.cookie.CookiePacketTypes;
+import net.minecraft.network.protocol.game.GamePacketTypes;
+import net.minecraft.network.protocol.game.GameProtocols;
+import net.minecraft.network.protocol.handshake.HandshakePacketTypes;
+import net.minecraft.network.protocol.handshake.HandshakeProtocols;
+import net.minecraft.network.protocol.login.LoginPacketTypes;
+import net.minecraft.network.protocol.login.LoginProtocols;
+import net.minecraft.network.protocol.ping.PingPacketTypes;
+import net.minecraft.network.protocol.status.StatusPacketTypes;
+import net.minecraft.network.protocol.status.StatusProtocols;
+import org.bukkit.Bukkit;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Registry of all packet classes known to the server's protocol tables.
+ * <p>
+ * The registry walks the protocol templates of every connection phase and direction
+ * ({@code net.minecraft.network.protocol}) and resolves their packet types to classes through the
+ * {@code *PacketTypes} holders. Each packet class gets a dense index, cached per class in a
+ * {@link ClassValue}, and a direction taken from the protocol tables rather than from its name. Bundle and common packets are classified correctly this way.
+ * <p>
+ * Packet classes missing from the tables, e.g. ones added by other plugins, are unknown to the registry.
+ */
+public final class PacketTypeRegistry
+{
+    private static final PacketTypeInfo UNKNOWN = new PacketTypeInfo(-1, Void.class, null, Collections.emptySet(), new int[0]);
+    private static final ConnectionProtocol[] PROTOCOLS = ConnectionProtocol.values();
+    private static final PacketFlow[] FLOWS = PacketFlow.values();
+
+    private final List<PacketTypeInfo> types;
+    private final PacketTypeInfo[][][] byProtocolId;
+    private final ClassValue<PacketTypeInfo> byClass;
+
+    private PacketTypeRegistry(List<PacketTypeInfo> types, PacketTypeInfo[][][] byProtocolId)
+    {
+        this.types = List.copyOf(types);
+        this.byProtocolId = byProtocolId;
+
+        Map<Class<?>, PacketTypeInfo> classes = new HashMap<>();
+        for(PacketTypeInfo info : types)
+            classes.put(info.type(), info);
+        this.byClass = new ClassValue<>()
+        {
+            @Override
+            protected PacketTypeInfo computeValue(Class<?> type)
+            {
+                return classes.getOrDefault(type, UNKNOWN);
+            }
+        };
+    }
+
+    /**
+     * @return the registry built from the running server's protocol tables
+     */
+    public static PacketTypeRegistry get()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @param type a packet class
+     * @return the description of the class, or {@code null} if it is not in the protocol tables
+     */
+    public PacketTypeInfo info(Class<?> type)
+    {
+        PacketTypeInfo info = byClass.get(type);
+        return info == UNKNOWN ? null : info;
+    }
+
+    /**
+     * @param type a packet class
+     * @return the dense index of the class, or {@code -1} if it is not in the protocol tables
+     */
+    public int index(Class<?> type)
+    {
+        return byClass.get(type).index();
+    }
+
+    /**
+     * @return the number of known packet classes; indexes range from {@code 0} to {@code size() - 1}
+     */
+    public int size()
+    {
+        return types.size();
+    }
+
+    /**
+     * @return all known packet classes, ordered by index
+     */
+    public List<PacketTypeInfo> types()
+    {
+        return types;
+    }
+
+    /**
+     * Resolves a wire id as read from the network.
+     *
+     * @param protocol the connection phase the id was read in
+     * @param flow the direction the id was read in
+     * @param protocolId the packet id
+     * @return the packet registered under the id, or {@code null} if there is none
+     */
+    public PacketTypeInfo byProtocolId(ConnectionProtocol protocol, PacketFlow flow, int protocolId)
+    {
+        PacketTypeInfo[] ids = byProtocolId[protocol.ordinal()][flow.ordinal()];
+        return protocolId >= 0 && protocolId < ids.length ? ids[protocolId] : null;
+    }
+
+    /**
+     * Determines the direction of a packet class or of an abstract packet supertype.
+     * <p>
+     * Supertypes such as {@code ServerboundMovePlayerPacket} take the direction shared by all of their
+     * known subclasses.
+     *
+     * @param type a packet class
+     * @return the direction of the packet, or {@code null} if it is unknown or ambiguous
+     */
+    public PacketFlow flow(Class<?> type)
+    {
+        PacketTypeInfo info = info(type);
+        if(info != null)
+            return info.flow();
+
+        PacketFlow flow = null;
+        for(PacketTypeInfo known : types)
+        {
+            if(!type.isAssignableFrom(known.type()))
+                continue;
+            if(flow != null && flow != known.flow())
+                return null;
+            flow = known.flow();
+        }
+        return flow;
+    }
+
+    private static PacketTypeRegistry load()
+    {
+        try {
+            Map<PacketType<?>, Class<?>> classes = new HashMap<>();
+            for(Class<?> holder : List.of(GamePacketTypes.class, CommonPacketTypes.class, ConfigurationPacketTypes.class,
+                    LoginPacketTypes.class, StatusPacketTypes.class, HandshakePacketTypes.class, CookiePacketTypes.class, PingPacketTypes.class))
+                collectPacketTypes(holder, classes);
+
+            Map<Class<?>, Builder> builders = new LinkedHashMap<>();
+            List<ProtocolInfo.DetailsProvider> templates = List.of(
+                    HandshakeProtocols.SERVERBOUND_TEMPLATE,
+                    StatusProtocols.SERVERBOUND_TEMPLATE, StatusProtocols.CLIENTBOUND_TEMPLATE,
+                    LoginProtocols.SERVERBOUND_TEMPLATE, LoginProtocols.CLIENTBOUND_TEMPLATE,
+                    ConfigurationProtocols.SERVERBOUND_TEMPLATE, ConfigurationProtocols.CLIENTBOUND_TEMPLATE,
+                    GameProtocols.SERVERBOUND_TEMPLATE, GameProtocols.CLIENTBOUND_TEMPLATE);
+            for(ProtocolInfo.DetailsProvider template : templates)
+            {
+                ProtocolInfo.Details details = template.details();
+                details.listPackets((type, id) -> {
+                    Class<?> packetClass = classes.get(type);
+                    if(packetClass == null)
+                        return;
+                    builders.computeIfAbsent(packetClass, k -> new Builder(builders.size(), k, details.flow()))
+                            .add(details.id(), id);
+                });
+            }
+            return build(builders.values());
+        }
+        catch (RuntimeException | LinkageError e) {
+            Bukkit.getLogger().log(Level.WARNING, "Could not read the server's protocol tables, falling back to packet names", e);
+            return build(List.of());
+        }
+    }
+
+    private static void collectPacketTypes(Class<?> holder, Map<PacketType<?>, Class<?>> classes)
+    {
+        for(Field field : holder.getDeclaredFields())
+        {
+            if(!Modifier.isStatic(field.getModifiers()) || field.getType() != PacketType.class)
+                continue;
+            if(!(field.getGenericType() instanceof ParameterizedType parameterized))
+                continue;
+
+            Type argument = parameterized.getActualTypeArguments()[0];
+            if(argument instanceof ParameterizedType parameterizedArgument)
+                argument = parameterizedArgument.getRawType();
+            if(!(argument instanceof Class<?> packetClass))
+                continue;
+
+            try {
+                field.setAccessible(true);
+                classes.put((PacketType<?>) field.get(null), packetClass);
+            }
+            catch (IllegalAccessException | RuntimeException e) {
+                //Inaccessible holder field, the packet stays unknown
+            }
+        }
+    }
+
+    private static PacketTypeRegistry build(Iterable<Builder> builders)
+    {
+        List<PacketTypeInfo> types = new ArrayList<>();
+        List<List<List<PacketTypeInfo>>> ids = new ArrayList<>();
+        for(ConnectionProtocol ignored : PROTOCOLS)
+        {
+            List<List<PacketTypeInfo>> flows = new ArrayList<>();
+            for(PacketFlow ignoredFlow : FLOWS)
+                flows.add(new ArrayList<>());
+            ids.add(flows);
+        }
+
+        for(Builder builder : builders)
+        {
+            PacketTypeInfo info = new PacketTypeInfo(builder.index, builder.type, builder.flow,
+                    Collections.unmodifiableSet(builder.protocols), builder.protocolIds);
+            types.add(info);
+            for(ConnectionProtocol protocol : builder.protocols)
+            {
+                List<PacketTypeInfo> table = ids.get(protocol.ordinal()).get(builder.flow.ordinal());
+                int id = builder.protocolIds[protocol.ordinal()];
+                while(table.size() <= id)
+                    table.add(null);
+                table.set(id, info);
+            }
+        }
+
+        PacketTypeInfo[][][] byProtocolId = new PacketTypeInfo[PROTOCOLS.length][FLOWS.length][];
+        for(ConnectionProtocol protocol : PROTOCOLS)
+            for(PacketFlow flow : FLOWS)
+                byProtocolId[protocol.ordinal()][flow.ordinal()] = ids.get(protocol.ordinal()).get(flow.ordinal()).toArray(PacketTypeInfo[]::new);
+        return new PacketTypeRegistry(types, byProtocolId);
+    }
+
+    private static final class Builder
+    {
+        private final int index;
+        private final Class<?> type;
+        private final PacketFlow flow;
+        private final EnumSet<ConnectionProtocol> protocols;
+        private final int[] protocolIds;
+
+        private Builder(int index, Class<?> type, PacketFlow flow)
+        {
+            this.index = index;
+            this.type = type;
+            this.flow = flow;
+            this.protocols = EnumSet.noneOf(ConnectionProtocol.class);
+            this.protocolIds = new int[PROTOCOLS.length];
+            Arrays.fill(protocolIds, -1);
+        }
+
+        private void add(ConnectionProtocol protocol, int id)
+        {
+            protocols.add(protocol);
+            protocolIds[protocol.ordinal()] = id;
+        }
+    }
+
+    private static final class Holder
+    {
+        private static final PacketTypeRegistry INSTANCE = load();
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Token bucket rate of serverbound packets.
+ * <p>
+ * A connection may send up to {@code burst} packets at once; the bucket then refills at
+ * {@code permitsPerSecond} packets per second.
+ *
+ * @param permitsPerSecond the sustained number of packets per second
+ * @param burst the number of packets that may be sent at once
+ */
+public record RateLimit(double permitsPerSecond, int burst)
+{
+    public RateLimit
+    {
+        if(!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond))
+            throw new IllegalArgumentException("Rate limit must be a positive finite number of packets per second");
+        if(burst < 1)
+            throw new IllegalArgumentException("Rate limit burst must be positive");
+    }
+}
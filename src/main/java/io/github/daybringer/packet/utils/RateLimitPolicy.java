@@ -0,0 +1,14 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Defines what happens to a serverbound packet that exceeds its rate limit.
+ * <ul>
+ *   <li>{@link #DROP} — the packet is discarded before any handler or the server sees it.</li>
+ *   <li>{@link #DISCONNECT} — the packet is discarded and the client is disconnected with a reason.</li>
+ * </ul>
+ */
+public enum RateLimitPolicy
+{
+    DROP,
+    DISCONNECT
+}
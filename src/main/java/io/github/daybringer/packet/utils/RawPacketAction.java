@@ -0,0 +1,16 @@
+package io.github.daybringer.packet.utils;
+
+/**
+ * Defines what happens to a raw frame inspected before it is decoded.
+ * <ul>
+ *   <li>{@link #PASS} — the frame continues to the decoder.</li>
+ *   <li>{@link #DROP} — the frame is released without being decoded.</li>
+ *   <li>{@link #CLOSE} — the frame is released and the whole connection is closed.</li>
+ * </ul>
+ */
+public enum RawPacketAction
+{
+    PASS,
+    DROP,
+    CLOSE
+}